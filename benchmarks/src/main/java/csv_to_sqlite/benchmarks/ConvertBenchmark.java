@@ -0,0 +1,73 @@
+package csv_to_sqlite.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import csv_to_sqlite.ConvertOptions;
+import csv_to_sqlite.CsvToSQLite;
+
+/**
+ *
+ * Measures CsvToSQLite.convert end to end on generated MIXED csv files
+ * The files are written once into the directory given by the system property csv_to_sqlite.benchmarks.dir,
+ * or a directory in java.io.tmpdir, and reused by later runs; the database, log and bad csv are deleted
+ * before every conversion.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ConvertBenchmark {
+
+	@Param({"1000000", "10000000"})
+	public long rows;
+
+	@Param({"1", "4"})
+	public int parseThreads;
+
+	private Path directory;
+	private Path csv;
+	private String table;
+
+	@Setup(Level.Trial)
+	public void generate() throws IOException {
+		directory = Paths.get(System.getProperty("csv_to_sqlite.benchmarks.dir",
+				Paths.get(System.getProperty("java.io.tmpdir"), "csv-to-sqlite-benchmarks").toString()));
+		table = "mixed_" + rows;
+		csv = directory.resolve(table + ".csv");
+		if(!Files.exists(csv))
+			CsvGenerator.write(csv, CsvGenerator.Shape.MIXED, rows, 1);
+	}
+
+	@Setup(Level.Invocation)
+	public void clean() throws IOException {
+		for(String output : new String[] {".db", ".db-wal", ".db-shm", ".log", ".log.lck", "-bad.csv"})
+			Files.deleteIfExists(directory.resolve(table + output));
+	}
+
+	//The column types are given so the invalid values of the file are rejected instead of widening the inferred types
+	@Benchmark
+	public void convert() {
+		CsvToSQLite.convert(directory.toString() + "/", csv.toString(), new ConvertOptions()
+				.setParseThreads(parseThreads)
+				.setColumnTypes(CsvGenerator.types(CsvGenerator.Shape.MIXED)));
+	}
+}
@@ -0,0 +1,200 @@
+package csv_to_sqlite.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ *
+ * Writes synthetic csv files for the benchmarks
+ * Every value is drawn from a Random seeded with the row number, so a row only depends on its shape,
+ * its number and the seed: the same arguments always produce the same file, without any input data.
+ * - PLAIN: six short unquoted columns
+ * - QUOTED: values with commas, escaped quotes and line breaks
+ * - WIDE: fifty short columns
+ * - NUMERIC: integers and reals only
+ * - PNG64: an id, a name and a base64 encoded png of about a kilobyte
+ * - MIXED: the ten columns of the original sample file, with about one record in a hundred failing the type check
+ */
+public class CsvGenerator {
+
+	public enum Shape {
+		PLAIN, QUOTED, WIDE, NUMERIC, PNG64, MIXED
+	}
+
+	private static final int WIDE_COLUMNS = 50;
+	private static final String[] WORDS = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel"};
+	private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+	/**
+	 * @return the header row of the shape, without a line break
+	 */
+	public static String header(Shape shape) {
+		switch(shape) {
+		case PLAIN:
+		case QUOTED:
+			return "id,name,comment,amount,active,address";
+		case WIDE:
+			StringBuilder sb = new StringBuilder();
+			for(int i = 0; i < WIDE_COLUMNS; i++)
+				sb.append(i == 0 ? "" : ",").append("c").append(i);
+			return sb.toString();
+		case NUMERIC:
+			return "id,a,b,c,d,e,f,g,h,i,j,k";
+		case PNG64:
+			return "id,name,image";
+		default:
+			return "A,B,C,D,E,F,G,H,I,J";
+		}
+	}
+
+	/**
+	 * @return the column types of the shape, in the order of the header
+	 */
+	public static String[] types(Shape shape) {
+		switch(shape) {
+		case PLAIN:
+		case QUOTED:
+			return new String[] {"INTEGER", "TEXT", "TEXT", "REAL", "BOOLEAN", "TEXT"};
+		case WIDE:
+			String[] types = new String[WIDE_COLUMNS];
+			for(int i = 0; i < WIDE_COLUMNS; i++)
+				types[i] = i % 2 == 0 ? "TEXT" : "INTEGER";
+			return types;
+		case NUMERIC:
+			return new String[] {"INTEGER", "INTEGER", "INTEGER", "INTEGER", "INTEGER", "INTEGER",
+					"REAL", "REAL", "REAL", "REAL", "REAL", "REAL"};
+		case PNG64:
+			return new String[] {"INTEGER", "TEXT", "PNG64"};
+		default:
+			return new String[] {"TEXT", "TEXT", "TEXT", "TEXT", "PNG64", "TEXT", "REAL", "BOOLEAN", "BOOLEAN", "TEXT"};
+		}
+	}
+
+	/**
+	 * @return row number n of the shape, without a line break
+	 */
+	public static String row(Shape shape, long n, long seed) {
+		StringBuilder sb = new StringBuilder();
+		appendRow(sb, shape, n, seed);
+		return sb.toString();
+	}
+
+	/**
+	 * Appends row number n of the shape, without a line break
+	 */
+	public static void appendRow(StringBuilder sb, Shape shape, long n, long seed) {
+		Random random = new Random(seed * 31 + n);
+		switch(shape) {
+		case PLAIN:
+			sb.append(n).append(',').append(word(random)).append(',').append(word(random)).append(',')
+				.append(random.nextInt(100000) / 100.0).append(',').append(random.nextBoolean()).append(',')
+				.append(random.nextInt(1000)).append(' ').append(word(random)).append(" St");
+			break;
+		case QUOTED:
+			sb.append(n).append(",\"").append(word(random)).append(", ").append(word(random)).append("\",\"said \"\"")
+				.append(word(random)).append("\"\"").append(random.nextInt(4) == 0 ? "\nand left" : "").append("\",")
+				.append(random.nextInt(100000) / 100.0).append(',').append(random.nextBoolean()).append(",\"")
+				.append(random.nextInt(1000)).append(' ').append(word(random)).append(" St, Springfield\"");
+			break;
+		case WIDE:
+			for(int i = 0; i < WIDE_COLUMNS; i++) {
+				if(i > 0)
+					sb.append(',');
+				if(i % 2 == 0)
+					sb.append(word(random));
+				else
+					sb.append(random.nextInt(100000));
+			}
+			break;
+		case NUMERIC:
+			sb.append(n);
+			for(int i = 0; i < 5; i++)
+				sb.append(',').append(random.nextLong() >> random.nextInt(64));
+			//written with a fixed scale, since Double.toString switches to an exponent the REAL check does not accept
+			//for values below 10^-3, such as 1.0E-6
+			for(int i = 0; i < 6; i++)
+				sb.append(',').append(BigDecimal.valueOf(random.nextInt(2000000000) - 1000000000, 3 + random.nextInt(4))
+						.toPlainString());
+			break;
+		case PNG64:
+			sb.append(n).append(',').append(word(random)).append(',').append(png(random, 768 + random.nextInt(512)));
+			break;
+		default:
+			appendMixed(sb, random, n);
+		}
+	}
+
+	/**
+	 * Writes a csv with a header and the given number of rows
+	 * @return the file
+	 */
+	public static Path write(Path file, Shape shape, long rows, long seed) throws IOException {
+		if(file.getParent() != null)
+			Files.createDirectories(file.getParent());
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8), 1 << 20)) {
+			out.write(header(shape));
+			out.write('\n');
+			StringBuilder sb = new StringBuilder();
+			for(long n = 0; n < rows; n++) {
+				sb.setLength(0);
+				appendRow(sb, shape, n, seed);
+				sb.append('\n');
+				out.append(sb);
+			}
+		}
+		return file;
+	}
+
+	//Columns of the original sample: names, email, gender, image, payment, amount, two flags and a city
+	private static void appendMixed(StringBuilder sb, Random random, long n) {
+		int fault = random.nextInt(100);
+		sb.append(word(random)).append(',').append(word(random)).append(',')
+			.append(word(random)).append(n).append("@example.com").append(',')
+			.append(random.nextBoolean() ? "Male" : "Female").append(',')
+			.append(png(random, 96 + random.nextInt(64))).append(',')
+			.append(random.nextBoolean() ? "mastercard" : "visa").append(',')
+			.append('$').append(random.nextInt(1000000) / 100.0).append(',')
+			//an invalid BOOLEAN value
+			.append(fault == 0 ? "maybe" : String.valueOf(random.nextBoolean())).append(',')
+			.append(random.nextBoolean()).append(',')
+			.append('"').append(word(random)).append(", ").append(word(random)).append('"');
+		//a record with an extra value
+		if(fault == 1)
+			sb.append(",extra");
+	}
+
+	private static String word(Random random) {
+		return WORDS[random.nextInt(WORDS.length)];
+	}
+
+	//A quoted data uri, since it contains a comma
+	private static String png(Random random, int length) {
+		byte[] image = new byte[length];
+		random.nextBytes(image);
+		System.arraycopy(PNG_SIGNATURE, 0, image, 0, PNG_SIGNATURE.length);
+		return "\"data:image/png;base64," + Base64.getEncoder().encodeToString(image) + "\"";
+	}
+
+	/**
+	 * Writes a benchmark csv
+	 * Arguments: file rows [shape] [seed], shape MIXED and seed 1 by default
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.out.println("Usage: CsvGenerator file rows [PLAIN|QUOTED|WIDE|NUMERIC|PNG64|MIXED] [seed]");
+			return;
+		}
+		Shape shape = args.length > 2 ? Shape.valueOf(args[2].toUpperCase()) : Shape.MIXED;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+		write(Paths.get(args[0]), shape, Long.parseLong(args[1]), seed);
+	}
+}
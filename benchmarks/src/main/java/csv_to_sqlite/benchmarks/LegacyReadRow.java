@@ -0,0 +1,49 @@
+package csv_to_sqlite.benchmarks;
+
+import java.util.ArrayList;
+
+/**
+ * 
+ * The split and regex based CsvToSQLite.readRow that CsvTokenizer replaced, kept as a benchmark baseline
+ */
+public class LegacyReadRow {
+
+	public static String[] readRow(String row) {
+		//buffer the beginning with a space so string split treats initial missing value as a column
+		if(row.startsWith(","))
+			row=" "+row;
+		//Handling internal commas
+		String[] quoteSplit=row.split("\"");
+		ArrayList<String> entryList=new ArrayList<String>();
+		boolean endcomma=false;
+		boolean prevcomma;
+		for(String multicol:quoteSplit) {
+			prevcomma=endcomma;
+			multicol=multicol.strip();
+			if(multicol.endsWith(",")) {
+				multicol=multicol.substring(0,multicol.length()-1);
+				endcomma=true;
+			}
+			else
+				endcomma=false;
+			if(multicol.startsWith(",")) 
+				multicol=multicol.substring(1);
+			if(prevcomma==true)
+				entryList.add(multicol);
+			else {
+				String[] colarray=multicol.split(",");
+				for(String col:colarray) {
+					if(col.matches("\\w{1,}"))
+						entryList.add("");
+					else
+						entryList.add(col);
+
+				}
+			}
+		}
+		String[] entry=new String[entryList.size()];
+		for(int i = 0; i < entry.length; i++)
+			entry[i] = entryList.get(i);
+		return entry;
+	}
+}
@@ -0,0 +1,102 @@
+package csv_to_sqlite.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import csv_to_sqlite.CsvToSQLite;
+import csv_to_sqlite.CsvTokenizer;
+
+/**
+ * 
+ * Compares the legacy split based readRow with the CsvTokenizer based one, and with streaming
+ * a block of rows through a single CsvTokenizer, for the row shapes of CsvGenerator
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadRowBenchmark {
+
+	private static final int BLOCK_ROWS = 1000;
+
+	@Param({"PLAIN", "QUOTED", "WIDE", "NUMERIC", "PNG64"})
+	public CsvGenerator.Shape shape;
+
+	private String row;
+	private String block;
+	private CsvTokenizer tokenizer;
+
+	@Setup
+	public void setup() {
+		//readRow takes a single line, so the row used on its own has no quoted line break
+		long n = 1;
+		do
+			row = CsvGenerator.row(shape, n++, 1);
+		while(row.indexOf('\n') >= 0);
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < BLOCK_ROWS; i++) {
+			CsvGenerator.appendRow(sb, shape, i, 1);
+			sb.append('\n');
+		}
+		block = sb.toString();
+		tokenizer = new CsvTokenizer();
+	}
+
+	@Benchmark
+	public String[] legacyReadRow() {
+		return LegacyReadRow.readRow(row);
+	}
+
+	@Benchmark
+	public String[] readRow() {
+		return CsvToSQLite.readRow(row);
+	}
+
+	/**
+	 * Tokenizes BLOCK_ROWS rows without materializing any field
+	 */
+	@Benchmark
+	public void tokenizeBlock(Blackhole bh) throws IOException {
+		tokenizer.reset(block);
+		while(tokenizer.next())
+			bh.consume(tokenizer.getFieldLength(tokenizer.getFieldCount() - 1));
+	}
+
+	/**
+	 * Tokenizes BLOCK_ROWS rows, creating a string for every field like the legacy reader does
+	 */
+	@Benchmark
+	public void tokenizeBlockFields(Blackhole bh) throws IOException {
+		tokenizer.reset(block);
+		while(tokenizer.next())
+			bh.consume(tokenizer.getFields());
+	}
+
+	/**
+	 * Reads BLOCK_ROWS rows line by line with the legacy readRow
+	 */
+	@Benchmark
+	public void legacyBlock(Blackhole bh) throws IOException {
+		BufferedReader reader = new BufferedReader(new StringReader(block));
+		String line;
+		while((line = reader.readLine()) != null)
+			bh.consume(LegacyReadRow.readRow(line));
+	}
+}
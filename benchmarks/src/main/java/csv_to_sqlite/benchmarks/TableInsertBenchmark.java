@@ -0,0 +1,135 @@
+package csv_to_sqlite.benchmarks;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import csv_to_sqlite.CsvToSQLite;
+import csv_to_sqlite.CsvTokenizer;
+import csv_to_sqlite.Table;
+import csv_to_sqlite.Variable;
+
+/**
+ *
+ * Measures binding and writing rows through Table into an in-memory database, per row
+ * insertRows passes rows already split into strings to insert or addBatch, insertTokenized binds the
+ * fields straight from a CsvTokenizer as convert does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TableInsertBenchmark {
+
+	private static final int BLOCK_ROWS = 1000;
+	//rows kept in the table before it is emptied, so the database does not grow with the run time
+	private static final int MAX_ROWS = 200000;
+
+	@Param({"PLAIN", "NUMERIC", "PNG64"})
+	public CsvGenerator.Shape shape;
+
+	@Param({"1", "1000"})
+	public int batchSize;
+
+	private Connection conn;
+	private Table table;
+	private String[][] rows;
+	private String block;
+	private CsvTokenizer tokenizer;
+	private int inserted;
+
+	@Setup
+	public void setup() throws SQLException {
+		String[] header = CsvGenerator.header(shape).split(",");
+		String[] types = CsvGenerator.types(shape);
+		Variable[] cols = new Variable[header.length];
+		for(int i = 0; i < cols.length; i++)
+			cols[i] = new Variable(header[i], types[i]);
+		conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+		conn.setAutoCommit(false);
+		StringBuilder sql = new StringBuilder("CREATE TABLE bench(");
+		for(int i = 0; i < cols.length; i++)
+			sql.append(i == 0 ? "" : ", ").append(cols[i].getName()).append(' ').append(cols[i].getType());
+		try (Statement stmt = conn.createStatement()) {
+			stmt.execute(sql.append(')').toString());
+		}
+		table = new Table(conn, "bench", cols);
+		table.setBatchSize(batchSize);
+
+		rows = new String[BLOCK_ROWS][];
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < BLOCK_ROWS; i++) {
+			String row = CsvGenerator.row(shape, i, 1);
+			rows[i] = CsvToSQLite.readRow(row);
+			sb.append(row).append('\n');
+		}
+		block = sb.toString();
+		tokenizer = new CsvTokenizer();
+	}
+
+	@Setup(Level.Invocation)
+	public void truncate() throws SQLException {
+		if(inserted < MAX_ROWS)
+			return;
+		try (Statement stmt = conn.createStatement()) {
+			stmt.execute("DELETE FROM bench");
+		}
+		conn.commit();
+		inserted = 0;
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException {
+		table.close();
+		conn.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BLOCK_ROWS)
+	public void insertRows() throws SQLException {
+		for(String[] row : rows) {
+			if(batchSize == 1)
+				table.insert(row);
+			else
+				table.addBatch(row);
+		}
+		table.executeBatch();
+		conn.commit();
+		inserted += BLOCK_ROWS;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BLOCK_ROWS)
+	public void insertTokenized() throws SQLException, IOException {
+		tokenizer.reset(block);
+		while(tokenizer.next()) {
+			if(batchSize == 1)
+				table.insert(tokenizer);
+			else
+				table.addBatch(tokenizer);
+		}
+		table.executeBatch();
+		conn.commit();
+		inserted += BLOCK_ROWS;
+	}
+}
@@ -0,0 +1,55 @@
+package csv_to_sqlite;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ *
+ * Commits the rows of a load together with a checkpoint of how far the csv has been read
+ * The checkpoint and the rows are committed in one transaction, so a load that is interrupted can be resumed
+ * from the last commit (see ConvertOptions.setResume). Rejected records are flushed to the bad csv first,
+ * and the size of the bad csv is stored so a resumed load can cut off the records rejected after the checkpoint.
+ */
+class Checkpointer {
+
+	private final Database db;
+	private final String tableName;
+	private final String loadTable;
+	private final String csvPath;
+	private final boolean enabled;
+
+	/**
+	 * @param enabled: whether checkpoints are stored, otherwise commit only commits
+	 */
+	Checkpointer(Database db, String tableName, String loadTable, String csvPath, boolean enabled) {
+		this.db = db;
+		this.tableName = tableName;
+		this.loadTable = loadTable;
+		this.csvPath = csvPath;
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Stores a checkpoint and commits
+	 * @param byteOffset: offset in the csv of the first record not yet inserted, -1 if unknown
+	 * @param nextLine: line on which that record starts
+	 */
+	void commit(long byteOffset, long nextLine, LoadStats stats) throws IOException, SQLException {
+		long start = System.nanoTime();
+		stats.publish();
+		if(enabled) {
+			int rejectFile = 0;
+			long rejectOffset = 0;
+			if(stats.rejects != null) {
+				stats.rejects.flush();
+				rejectFile = stats.rejects.getFileIndex();
+				rejectOffset = stats.rejects.getFileOffset();
+			}
+			db.saveProgress(new IngestProgress(tableName, loadTable, csvPath, byteOffset, nextLine,
+					stats.received, stats.good, stats.bad, rejectFile, rejectOffset));
+		}
+		db.commit();
+		if(stats.metrics != null)
+			stats.metrics.add(IngestMetrics.Stage.COMMIT, System.nanoTime() - start);
+	}
+}
@@ -0,0 +1,311 @@
+package csv_to_sqlite;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ *
+ * Columnar staging buffer for the converted rows of a RowBlock, between the parse tasks and the writer
+ * The storage of every column is chosen from its binder (see ColumnBinder.storage):
+ * - INTEGER and BOOLEAN values in a long[] per column, REAL values in a double[]
+ * - TEXT and PNG64 values in one off-heap arena shared by the columns, addressed by an offset and a length per row;
+ *   TEXT is kept as UTF-16 chars and PNG64 as the decoded bytes
+ * - a BitSet per column marks the null values
+ * The arrays and the arena grow to the largest batch seen and are kept by clear, so a reused batch stops
+ * allocating once it has held a full block. Strings and byte arrays are only created while a row is bound.
+ * A batch is written by one thread at a time.
+ */
+class ColumnBatch {
+
+	private static final int INITIAL_ROWS = 1024;
+	private static final int INITIAL_ARENA = 1 << 20;
+
+	private final ColumnBinder[] binders;
+	private final long[][] longs;
+	private final double[][] doubles;
+	private final int[][] offsets;
+	private final int[][] lengths;
+	private final BitSet[] nulls;
+	private ByteBuffer arena;
+	//view of the arena, for copying chars in and out in bulk
+	private CharBuffer arenaChars;
+	private int arenaSize;
+	private int capacity;
+	private int rows;
+	//arena size before the row being written, restored if the row is discarded
+	private int rowStart;
+	//copy buffer of the values read back from the arena
+	private char[] scratch = new char[256];
+	//buffer the values of a row are decoded into before they are put in the arena
+	private byte[] decodeBuffer = new byte[0];
+
+	ColumnBatch(Variable[] cols) {
+		this(cols, INITIAL_ROWS);
+	}
+
+	/**
+	 * @param capacity: number of rows to allocate the columns for, they grow when more rows are added
+	 */
+	ColumnBatch(Variable[] cols, int capacity) {
+		int n = cols.length;
+		this.capacity = Math.max(1, capacity);
+		binders = new ColumnBinder[n];
+		longs = new long[n][];
+		doubles = new double[n][];
+		offsets = new int[n][];
+		lengths = new int[n][];
+		nulls = new BitSet[n];
+		boolean arenaColumns = false;
+		for(int i = 0; i < n; i++) {
+			binders[i] = cols[i].getBinder();
+			nulls[i] = new BitSet(this.capacity);
+			switch(binders[i].storage()) {
+			case LONG:
+				longs[i] = new long[this.capacity];
+				break;
+			case DOUBLE:
+				doubles[i] = new double[this.capacity];
+				break;
+			default:
+				offsets[i] = new int[this.capacity];
+				lengths[i] = new int[this.capacity];
+				arenaColumns = true;
+			}
+		}
+		if(arenaColumns)
+			allocateArena(INITIAL_ARENA);
+	}
+
+	int size() {
+		return rows;
+	}
+
+	/**
+	 * Empties the batch, keeping its memory for the next rows
+	 */
+	void clear() {
+		for(BitSet columnNulls : nulls)
+			columnNulls.clear();
+		rows = 0;
+		arenaSize = 0;
+		rowStart = 0;
+	}
+
+	/**
+	 * Starts a new row; every column is then set with one of the put methods before endRow
+	 */
+	void beginRow() {
+		if(rows == capacity)
+			grow();
+		rowStart = arenaSize;
+	}
+
+	void endRow() {
+		rows++;
+	}
+
+	/**
+	 * Discards the values put since beginRow
+	 */
+	void abortRow() {
+		for(BitSet columnNulls : nulls)
+			columnNulls.clear(rows);
+		arenaSize = rowStart;
+	}
+
+	void putNull(int column) {
+		nulls[column].set(rows);
+	}
+
+	void putLong(int column, long value) {
+		longs[column][rows] = value;
+	}
+
+	void putDouble(int column, double value) {
+		doubles[column][rows] = value;
+	}
+
+	/**
+	 * Copies chars[start, end) into the arena
+	 */
+	void putChars(int column, char[] chars, int start, int end) {
+		int length = end - start;
+		//chars are kept at even offsets so the char view can address them
+		int offset = reserve((arenaSize + 1L) & ~1L, 2L * length);
+		arenaChars.position(offset / 2);
+		arenaChars.put(chars, start, length);
+		offsets[column][rows] = offset;
+		lengths[column][rows] = length;
+	}
+
+	/**
+	 * Copies bytes[0, length) into the arena
+	 */
+	void putBytes(int column, byte[] bytes, int length) {
+		int offset = reserve(arenaSize, length);
+		arena.position(offset);
+		arena.put(bytes, 0, length);
+		offsets[column][rows] = offset;
+		lengths[column][rows] = length;
+	}
+
+	/**
+	 * @return a buffer of at least length bytes, reused by the next call, for decoding a value before putBytes
+	 */
+	byte[] byteBuffer(int length) {
+		if(decodeBuffer.length < length)
+			decodeBuffer = new byte[Math.max(length, decodeBuffer.length * 2)];
+		return decodeBuffer;
+	}
+
+	/**
+	 * Appends the current row of the result set, whose columns hold the values of the columns of the batch
+	 * as stored in the table: PNG64 values as their image, and dictionary encoded values as their text
+	 */
+	void addRow(ResultSet rs) throws SQLException {
+		beginRow();
+		for(int i = 0; i < binders.length; i++) {
+			switch(binders[i].storage()) {
+			case LONG:
+				putLong(i, rs.getLong(i + 1));
+				break;
+			case DOUBLE:
+				putDouble(i, rs.getDouble(i + 1));
+				break;
+			default:
+				if(binders[i] == ColumnBinder.PNG64) {
+					byte[] image = rs.getBytes(i + 1);
+					if(image != null)
+						putBytes(i, image, image.length);
+				}
+				else {
+					String text = rs.getString(i + 1);
+					if(text != null)
+						putChars(i, text.toCharArray(), 0, text.length());
+				}
+			}
+			if(rs.wasNull())
+				putNull(i);
+		}
+		endRow();
+	}
+
+	ColumnBinder getBinder(int column) {
+		return binders[column];
+	}
+
+	boolean isNull(int row, int column) {
+		return nulls[column].get(row);
+	}
+
+	long getLong(int row, int column) {
+		return longs[column][row];
+	}
+
+	double getDouble(int row, int column) {
+		return doubles[column][row];
+	}
+
+	String getString(int row, int column) {
+		return new String(scratch, 0, readChars(row, column));
+	}
+
+	/**
+	 * @return the chars of a value, in a buffer reused by the next call; getLength gives their number
+	 */
+	char[] getChars(int row, int column) {
+		readChars(row, column);
+		return scratch;
+	}
+
+	/**
+	 * @return the number of chars, or bytes for PNG64, of a value kept in the arena
+	 */
+	int getLength(int row, int column) {
+		return lengths[column][row];
+	}
+
+	byte getByte(int row, int column, int index) {
+		return arena.get(offsets[column][row] + index);
+	}
+
+	//Copies the chars of a value into scratch, returning their number
+	private int readChars(int row, int column) {
+		int length = lengths[column][row];
+		if(scratch.length < length)
+			scratch = new char[Math.max(length, scratch.length * 2)];
+		arenaChars.position(offsets[column][row] / 2);
+		arenaChars.get(scratch, 0, length);
+		return length;
+	}
+
+	byte[] getBytes(int row, int column) {
+		byte[] bytes = new byte[lengths[column][row]];
+		arena.position(offsets[column][row]);
+		arena.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Binds every column of a row to the insert statement, a null value or the value staged by its binder
+	 * @param images: stores the images of PNG64 columns in place of the binder, may be null
+	 * @param dictionaries: encodes the values of dictionary encoded columns in place of the binder, null for the other
+	 *		columns, or null if no column is encoded
+	 */
+	void bind(PreparedStatement stmt, int row, ImageStore images, ValueDictionary[] dictionaries) throws SQLException {
+		for(int i = 0; i < binders.length; i++) {
+			if(nulls[i].get(row))
+				stmt.setObject(i + 1, null);
+			else if(dictionaries != null && dictionaries[i] != null)
+				stmt.setLong(i + 1, dictionaries[i].encode(scratch, 0, readChars(row, i)));
+			else if(images != null && binders[i] == ColumnBinder.PNG64)
+				stmt.setBytes(i + 1, images.store(getBytes(row, i)));
+			else
+				binders[i].bind(stmt, i + 1, this, row, i);
+		}
+	}
+
+	//Returns offset after making room for length bytes at it
+	//The arena is addressed by int offsets, so a batch fails like an array that cannot grow once it passes 2 GB
+	private int reserve(long offset, long length) {
+		long end = offset + length;
+		if(end > Integer.MAX_VALUE)
+			throw new OutOfMemoryError("The converted rows of a block take more than 2 GB; lower ConvertOptions.setChunkSize");
+		if(end > arena.capacity()) {
+			long size = arena.capacity();
+			while(size < end)
+				size *= 2;
+			ByteBuffer old = arena;
+			allocateArena((int) Math.min(size, Integer.MAX_VALUE));
+			old.position(0).limit(arenaSize);
+			arena.put(old);
+		}
+		arenaSize = (int) end;
+		return (int) offset;
+	}
+
+	private void allocateArena(int size) {
+		arena = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+		arenaChars = arena.asCharBuffer();
+	}
+
+	private void grow() {
+		capacity *= 2;
+		for(int i = 0; i < binders.length; i++) {
+			if(longs[i] != null)
+				longs[i] = Arrays.copyOf(longs[i], capacity);
+			if(doubles[i] != null)
+				doubles[i] = Arrays.copyOf(doubles[i], capacity);
+			if(offsets[i] != null) {
+				offsets[i] = Arrays.copyOf(offsets[i], capacity);
+				lengths[i] = Arrays.copyOf(lengths[i], capacity);
+			}
+		}
+	}
+}
@@ -0,0 +1,726 @@
+package csv_to_sqlite;
+
+import java.nio.CharBuffer;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ *
+ * Converts the csv values of one column type and binds them to an insert statement
+ * A Variable resolves its type into a binder once, so inserting a row does not compare type names.
+ * Values are read straight from a char range; numbers are parsed without creating a string.
+ * When pipelined, values are first staged in a ColumnBatch, in the storage given by storage(), and bound from there.
+ * Binders may be shared between threads; only the binders of DATE and TIMESTAMP columns with a pattern keep state,
+ * a cache of parsed values that is safe to share.
+ * The type check fails with an IllegalArgumentException.
+ */
+abstract class ColumnBinder {
+
+	static final ColumnBinder TEXT = new TextBinder();
+	static final ColumnBinder INTEGER = new IntegerBinder();
+	static final ColumnBinder REAL = new RealBinder();
+	static final ColumnBinder BOOLEAN = new BooleanBinder();
+	static final ColumnBinder PNG64 = new Png64Binder();
+	static final ColumnBinder DATE = new DateBinder(null);
+	static final ColumnBinder TIMESTAMP = new TimestampBinder(null);
+
+	/**
+	 * Where the values of a column are kept in a ColumnBatch
+	 */
+	enum Storage {
+		LONG, DOUBLE, ARENA
+	}
+
+	/**
+	 * @return the binder for a column type; types other than the valid types are bound as TEXT
+	 */
+	static ColumnBinder forType(String type) {
+		if(type.equalsIgnoreCase("INTEGER"))
+			return INTEGER;
+		if(type.equalsIgnoreCase("REAL"))
+			return REAL;
+		if(type.equalsIgnoreCase("BOOLEAN"))
+			return BOOLEAN;
+		if(type.equalsIgnoreCase("PNG64"))
+			return PNG64;
+		if(type.equalsIgnoreCase("DATE"))
+			return DATE;
+		if(type.equalsIgnoreCase("TIMESTAMP"))
+			return TIMESTAMP;
+		return TEXT;
+	}
+
+	/**
+	 * Same as forType(type), reading DATE and TIMESTAMP values with a java.time pattern
+	 * @param pattern: see DateTimeFormatter.ofPattern; null for ISO-8601
+	 */
+	static ColumnBinder forType(String type, String pattern) {
+		if(pattern != null && type.equalsIgnoreCase("DATE"))
+			return new DateBinder(pattern);
+		if(pattern != null && type.equalsIgnoreCase("TIMESTAMP"))
+			return new TimestampBinder(pattern);
+		return forType(type);
+	}
+
+	/**
+	 * Type checks the non-empty value chars[start, end) and binds it as parameter index of the statement
+	 */
+	abstract void bind(PreparedStatement stmt, int index, char[] chars, int start, int end) throws SQLException;
+
+	/**
+	 * @return the storage of the staged values of this type
+	 */
+	abstract Storage storage();
+
+	/**
+	 * Type checks the non-empty value chars[start, end) and stores it in column of the current row of the batch
+	 */
+	abstract void stage(ColumnBatch batch, int column, char[] chars, int start, int end);
+
+	/**
+	 * Binds the value staged in column of a row of the batch as parameter index of the statement
+	 */
+	abstract void bind(PreparedStatement stmt, int index, ColumnBatch batch, int row, int column) throws SQLException;
+
+	/**
+	 * Inserts the string as-is
+	 */
+	static final class TextBinder extends ColumnBinder {
+		@Override
+		void bind(PreparedStatement stmt, int index, char[] chars, int start, int end) throws SQLException {
+			stmt.setString(index, new String(chars, start, end - start));
+		}
+
+		@Override
+		Storage storage() {
+			return Storage.ARENA;
+		}
+
+		@Override
+		void stage(ColumnBatch batch, int column, char[] chars, int start, int end) {
+			batch.putChars(column, chars, start, end);
+		}
+
+		@Override
+		void bind(PreparedStatement stmt, int index, ColumnBatch batch, int row, int column) throws SQLException {
+			stmt.setString(index, batch.getString(row, column));
+		}
+	}
+
+	/**
+	 * Parses a 64 bit integer, ignoring surrounding whitespace
+	 */
+	static final class IntegerBinder extends ColumnBinder {
+		@Override
+		void bind(PreparedStatement stmt, int index, char[] chars, int start, int end) throws SQLException {
+			stmt.setLong(index, parseLong(chars, start, end));
+		}
+
+		@Override
+		Storage storage() {
+			return Storage.LONG;
+		}
+
+		@Override
+		void stage(ColumnBatch batch, int column, char[] chars, int start, int end) {
+			batch.putLong(column, parseLong(chars, start, end));
+		}
+
+		@Override
+		void bind(PreparedStatement stmt, int index, ColumnBatch batch, int row, int column) throws SQLException {
+			stmt.setLong(index, batch.getLong(row, column));
+		}
+
+		static long parseLong(char[] chars, int start, int end) {
+			int from = start;
+			int to = end;
+			while(from < to && Character.isWhitespace(chars[from]))
+				from++;
+			while(to > from && Character.isWhitespace(chars[to - 1]))
+				to--;
+			boolean negative = false;
+			if(from < to && (chars[from] == '-' || chars[from] == '+')) {
+				negative = chars[from] == '-';
+				from++;
+			}
+			if(from == to)
+				throw invalid("INTEGER", chars, start, end);
+			//accumulates negatively so that Long.MIN_VALUE can be represented
+			long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+			long value = 0;
+			for(int i = from; i < to; i++) {
+				int digit = chars[i] - '0';
+				if(digit < 0 || digit > 9 || value < limit / 10)
+					throw invalid("INTEGER", chars, start, end);
+				value *= 10;
+				if(value < limit + digit)
+					throw invalid("INTEGER", chars, start, end);
+				value -= digit;
+			}
+			return negative ? value : -value;
+		}
+	}
+
+	/**
+	 * Ignores every character other than digits, '.' and '-' and parses the rest as a double
+	 */
+	static final class RealBinder extends ColumnBinder {
+
+		//powers of ten that are exact doubles
+		private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+		};
+		//largest mantissa that is an exact double
+		private static final long MAX_EXACT = 1L << 53;
+
+		@Override
+		void bind(PreparedStatement stmt, int index, char[] chars, int start, int end) throws SQLException {
+			stmt.setDouble(index, parseReal(chars, start, end));
+		}
+
+		@Override
+		Storage storage() {
+			return Storage.DOUBLE;
+		}
+
+		@Override
+		void stage(ColumnBatch batch, int column, char[] chars, int start, int end) {
+			batch.putDouble(column, parseReal(chars, start, end));
+		}
+
+		@Override
+		void bind(PreparedStatement stmt, int index, ColumnBatch batch, int row, int column) throws SQLException {
+			stmt.setDouble(index, batch.getDouble(row, column));
+		}
+
+		static double parseReal(char[] chars, int start, int end) {
+			boolean negative = false;
+			boolean kept = false;
+			boolean point = false;
+			boolean digits = false;
+			boolean exact = true;
+			long mantissa = 0;
+			int fractionDigits = 0;
+			for(int i = start; i < end; i++) {
+				char c = chars[i];
+				if(c >= '0' && c <= '9') {
+					digits = true;
+					if(mantissa < MAX_EXACT / 10) {
+						mantissa = mantissa * 10 + (c - '0');
+						if(point)
+							fractionDigits++;
+					}
+					else
+						exact = false;
+				}
+				else if(c == '.') {
+					if(point)
+						throw invalid("REAL", chars, start, end);
+					point = true;
+				}
+				else if(c == '-') {
+					//only a leading minus sign is valid
+					if(kept)
+						throw invalid("REAL", chars, start, end);
+					negative = true;
+				}
+				else
+					continue;
+				kept = true;
+			}
+			if(!digits)
+				throw invalid("REAL", chars, start, end);
+			if(!exact || fractionDigits >= POWERS_OF_TEN.length)
+				return slowParse(chars, start, end);
+			double value = mantissa / POWERS_OF_TEN[fractionDigits];
+			return negative ? -value : value;
+		}
+
+		//Parses values with more significant digits than a double holds exactly
+		private static double slowParse(char[] chars, int start, int end) {
+			StringBuilder kept = new StringBuilder(end - start);
+			for(int i = start; i < end; i++) {
+				char c = chars[i];
+				if((c >= '0' && c <= '9') || c == '.' || c == '-')
+					kept.append(c);
+			}
+			return Double.parseDouble(kept.toString());
+		}
+	}
+
+	/**
+	 * Accepts "true" or "false", ignoring case
+	 */
+	static final class BooleanBinder extends ColumnBinder {
+		@Override
+		void bind(PreparedStatement stmt, int index, char[] chars, int start, int end) throws SQLException {
+			stmt.setBoolean(index, parseBoolean(chars, start, end));
+		}
+
+		//staged as 1 or 0
+		@Override
+		Storage storage() {
+			return Storage.LONG;
+		}
+
+		@Override
+		void stage(ColumnBatch batch, int column, char[] chars, int start, int end) {
+			batch.putLong(column, parseBoolean(chars, start, end) ? 1 : 0);
+		}
+
+		@Override
+		void bind(PreparedStatement stmt, int index, ColumnBatch batch, int row, int column) throws SQLException {
+			stmt.setBoolean(index, batch.getLong(row, column) != 0);
+		}
+
+		static boolean parseBoolean(char[] chars, int start, int end) {
+			if(matchesIgnoreCase(chars, start, end, "true"))
+				return true;
+			if(matchesIgnoreCase(chars, start, end, "false"))
+				return false;
+			throw invalid("BOOLEAN", chars, start, end);
+		}
+	}
+
+	/**
+	 * Decodes the base64 data following "png;base64," into a byte array, which must hold a PNG image
+	 * The data is decoded straight from the char range; values the fast path rejects are decoded again
+	 * with java.util.Base64 so they fail with its message.
+	 */
+	static final class Png64Binder extends ColumnBinder {
+
+		private static final String MARKER = "png;base64,";
+		private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+		//value of every base64 digit, -1 for other characters
+		private static final int[] DIGITS = new int[128];
+		static {
+			Arrays.fill(DIGITS, -1);
+			String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+			for(int i = 0; i < alphabet.length(); i++)
+				DIGITS[alphabet.charAt(i)] = i;
+		}
+
+		@Override
+		void bind(PreparedStatement stmt, int index, char[] chars, int start, int end) throws SQLException {
+			stmt.setBytes(index, decode(chars, start, end));
+		}
+
+		@Override
+		Storage storage() {
+			return Storage.ARENA;
+		}
+
+		@Override
+		void stage(ColumnBatch batch, int column, char[] chars, int start, int end) {
+			int data = dataStart(chars, start, end);
+			int length = decodedLength(chars, data, end);
+			byte[] image = length < 0 ? null : batch.byteBuffer(length);
+			if(image == null || !decode(chars, data, end, image)) {
+				image = slowDecode(chars, data, end);
+				length = image.length;
+			}
+			checkSignature(image, length);
+			batch.putBytes(column, image, length);
+		}
+
+		@Override
+		void bind(PreparedStatement stmt, int index, ColumnBatch batch, int row, int column) throws SQLException {
+			stmt.setBytes(index, batch.getBytes(row, column));
+		}
+
+		static byte[] decode(char[] chars, int start, int end) {
+			int data = dataStart(chars, start, end);
+			int length = decodedLength(chars, data, end);
+			byte[] image = length < 0 ? null : new byte[length];
+			if(image == null || !decode(chars, data, end, image))
+				image = slowDecode(chars, data, end);
+			checkSignature(image, image.length);
+			return image;
+		}
+
+		//Returns the index of the base64 data in chars[start, end)
+		private static int dataStart(char[] chars, int start, int end) {
+			int data = indexOf(chars, start, end, MARKER);
+			if(data < 0)
+				throw invalid("PNG64", chars, start, end);
+			return data + MARKER.length();
+		}
+
+		//Returns the number of bytes encoded by chars[from, to), or -1 if its length or padding is not valid
+		private static int decodedLength(char[] chars, int from, int to) {
+			int n = to - from;
+			int padding = 0;
+			while(padding < 2 && padding < n && chars[to - 1 - padding] == '=')
+				padding++;
+			if(padding > 0 && n % 4 != 0)
+				return -1;
+			int digits = n - padding;
+			if(digits % 4 == 1)
+				return -1;
+			return digits / 4 * 3 + Math.max(0, digits % 4 - 1);
+		}
+
+		//Decodes chars[from, to) into image, which has the length given by decodedLength
+		//Returns false if a character other than the padding is not a base64 digit
+		private static boolean decode(char[] chars, int from, int to, byte[] image) {
+			int bits = 0;
+			int held = 0;
+			int out = 0;
+			for(int i = from; i < to; i++) {
+				char c = chars[i];
+				if(c == '=')
+					break;
+				int digit = c < 128 ? DIGITS[c] : -1;
+				if(digit < 0)
+					return false;
+				//only the low bits that are not written out yet matter
+				bits = bits << 6 | digit;
+				held += 6;
+				if(held >= 8) {
+					held -= 8;
+					image[out++] = (byte) (bits >> held);
+				}
+			}
+			return out == image.length;
+		}
+
+		//Decodes with java.util.Base64, throwing its IllegalArgumentException for invalid data
+		private static byte[] slowDecode(char[] chars, int from, int to) {
+			byte[] ascii = new byte[to - from];
+			for(int i = 0; i < ascii.length; i++) {
+				char c = chars[from + i];
+				//non-ASCII characters are never valid base64
+				ascii[i] = c < 128 ? (byte) c : (byte) '!';
+			}
+			return Base64.getDecoder().decode(ascii);
+		}
+
+		private static void checkSignature(byte[] image, int length) {
+			boolean png = length >= SIGNATURE.length;
+			for(int i = 0; png && i < SIGNATURE.length; i++)
+				png = image[i] == SIGNATURE[i];
+			if(!png)
+				throw new IllegalArgumentException("Invalid PNG64 value: the data is not a PNG image");
+		}
+	}
+
+	/**
+	 * Parses dates and timestamps into days or milliseconds since 1970-01-01, staged as longs
+	 * Without a pattern, values are read as ISO-8601 by hand, computing the day from the year, month and day
+	 * without creating any object. With a pattern they are parsed by a DateTimeFormatter, in front of which
+	 * a small cache keeps the value of recently seen text, as dates and timestamps often repeat in a column.
+	 * Surrounding whitespace is ignored.
+	 */
+	abstract static class TemporalBinder extends ColumnBinder {
+
+		static final long MILLIS_PER_DAY = 86400000L;
+		//returned by parseIso for text that is not a valid value
+		static final long INVALID = Long.MIN_VALUE;
+		private static final int CACHE_SIZE = 256;
+
+		private static final class Entry {
+			final char[] text;
+			final long value;
+
+			Entry(char[] text, long value) {
+				this.text = text;
+				this.value = value;
+			}
+		}
+
+		private final String type;
+		//null for ISO-8601
+		final DateTimeFormatter formatter;
+		//entries are immutable, so threads racing on a slot only lose a cached value
+		private final Entry[] cache;
+
+		TemporalBinder(String type, String pattern) {
+			this.type = type;
+			formatter = pattern == null ? null : DateTimeFormatter.ofPattern(pattern);
+			cache = pattern == null ? null : new Entry[CACHE_SIZE];
+		}
+
+		/**
+		 * @return the number of days or milliseconds of the non-empty value chars[start, end)
+		 */
+		long parse(char[] chars, int start, int end) {
+			int from = start;
+			int to = end;
+			while(from < to && Character.isWhitespace(chars[from]))
+				from++;
+			while(to > from && Character.isWhitespace(chars[to - 1]))
+				to--;
+			if(formatter == null) {
+				long value = parseIso(chars, from, to);
+				if(value == INVALID)
+					throw invalid(type, chars, start, end);
+				return value;
+			}
+			int hash = 0;
+			for(int i = from; i < to; i++)
+				hash = 31 * hash + chars[i];
+			int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+			Entry entry = cache[slot];
+			if(entry != null && entry.text.length == to - from && matches(entry.text, chars, from))
+				return entry.value;
+			long value;
+			try {
+				value = parse(CharBuffer.wrap(chars, from, to - from));
+			}
+			catch(DateTimeException e) {
+				throw invalid(type, chars, start, end);
+			}
+			cache[slot] = new Entry(Arrays.copyOfRange(chars, from, to), value);
+			return value;
+		}
+
+		private static boolean matches(char[] text, char[] chars, int from) {
+			for(int i = 0; i < text.length; i++)
+				if(text[i] != chars[from + i])
+					return false;
+			return true;
+		}
+
+		/**
+		 * @return the value of the ISO-8601 text chars[from, to), or INVALID
+		 */
+		abstract long parseIso(char[] chars, int from, int to);
+
+		/**
+		 * Parses text with the formatter
+		 */
+		abstract long parse(CharSequence text);
+
+		/**
+		 * @return the value as ISO-8601 text
+		 */
+		abstract String format(long value);
+
+		@Override
+		void bind(PreparedStatement stmt, int index, char[] chars, int start, int end) throws SQLException {
+			stmt.setLong(index, parse(chars, start, end));
+		}
+
+		@Override
+		Storage storage() {
+			return Storage.LONG;
+		}
+
+		@Override
+		void stage(ColumnBatch batch, int column, char[] chars, int start, int end) {
+			batch.putLong(column, parse(chars, start, end));
+		}
+
+		@Override
+		void bind(PreparedStatement stmt, int index, ColumnBatch batch, int row, int column) throws SQLException {
+			stmt.setLong(index, batch.getLong(row, column));
+		}
+
+		/**
+		 * @return the day of yyyy-MM-dd at chars[from] counted from 1970-01-01, or INVALID
+		 */
+		static long isoDate(char[] chars, int from, int to) {
+			if(to - from < 10 || chars[from + 4] != '-' || chars[from + 7] != '-')
+				return INVALID;
+			int year = digits(chars, from, 4);
+			int month = digits(chars, from + 5, 2);
+			int day = digits(chars, from + 8, 2);
+			if(year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month))
+				return INVALID;
+			return epochDay(year, month, day);
+		}
+
+		//Returns the number written by the n digits at chars[i], or -1
+		static int digits(char[] chars, int i, int n) {
+			int value = 0;
+			for(int j = i; j < i + n; j++) {
+				int digit = chars[j] - '0';
+				if(digit < 0 || digit > 9)
+					return -1;
+				value = value * 10 + digit;
+			}
+			return value;
+		}
+
+		static int lengthOfMonth(int year, int month) {
+			if(month == 2)
+				return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+			return 30 + ((month + month / 8) & 1);
+		}
+
+		/**
+		 * @return the day of a date of the proleptic Gregorian calendar, counted from 1970-01-01
+		 */
+		static long epochDay(long year, int month, int day) {
+			//counts from March 1st, so the leap day ends the year
+			year -= month <= 2 ? 1 : 0;
+			long era = Math.floorDiv(year, 400);
+			long yearOfEra = year - era * 400;
+			long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+			long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+			return era * 146097 + dayOfEra - 719468;
+		}
+
+		/**
+		 * @return the date of a day counted from 1970-01-01, as year * 10000 + month * 100 + day
+		 */
+		static long civil(long epochDay) {
+			long z = epochDay + 719468;
+			long era = Math.floorDiv(z, 146097);
+			long dayOfEra = z - era * 146097;
+			long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+			long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+			long shifted = (5 * dayOfYear + 2) / 153;
+			long day = dayOfYear - (153 * shifted + 2) / 5 + 1;
+			long month = shifted < 10 ? shifted + 3 : shifted - 9;
+			long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+			return year * 10000 + month * 100 + day;
+		}
+	}
+
+	/**
+	 * Stores the number of days since 1970-01-01; ISO-8601 values are yyyy-MM-dd
+	 */
+	static final class DateBinder extends TemporalBinder {
+
+		DateBinder(String pattern) {
+			super("DATE", pattern);
+		}
+
+		@Override
+		long parseIso(char[] chars, int from, int to) {
+			return to - from == 10 ? isoDate(chars, from, to) : INVALID;
+		}
+
+		@Override
+		long parse(CharSequence text) {
+			return LocalDate.from(formatter.parse(text)).toEpochDay();
+		}
+
+		@Override
+		String format(long value) {
+			return LocalDate.ofEpochDay(value).toString();
+		}
+	}
+
+	/**
+	 * Stores the number of milliseconds since 1970-01-01T00:00Z
+	 * ISO-8601 values are yyyy-MM-dd, optionally followed by 'T' or a space, HH:mm, optional seconds with up to
+	 * nine fraction digits, and Z or an offset such as +01:00; times without an offset are taken as UTC.
+	 * Fractions of a millisecond are dropped.
+	 */
+	static final class TimestampBinder extends TemporalBinder {
+
+		TimestampBinder(String pattern) {
+			super("TIMESTAMP", pattern);
+		}
+
+		@Override
+		long parseIso(char[] chars, int from, int to) {
+			long day = isoDate(chars, from, to);
+			int i = from + 10;
+			if(day == INVALID || i == to)
+				return day == INVALID ? INVALID : day * MILLIS_PER_DAY;
+			char separator = chars[i];
+			if((separator != 'T' && separator != 't' && separator != ' ') || to - i < 6 || chars[i + 3] != ':')
+				return INVALID;
+			int hour = digits(chars, i + 1, 2);
+			int minute = digits(chars, i + 4, 2);
+			int second = 0;
+			int millis = 0;
+			i += 6;
+			if(i < to && chars[i] == ':') {
+				if(to - i < 3)
+					return INVALID;
+				second = digits(chars, i + 1, 2);
+				i += 3;
+				if(i < to && (chars[i] == '.' || chars[i] == ',')) {
+					int n = 0;
+					for(i++; i < to && chars[i] >= '0' && chars[i] <= '9'; i++, n++)
+						if(n < 3)
+							millis = millis * 10 + (chars[i] - '0');
+					if(n == 0 || n > 9)
+						return INVALID;
+					for(; n < 3; n++)
+						millis *= 10;
+				}
+			}
+			if(hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59)
+				return INVALID;
+			int offset = 0;
+			if(i < to && (chars[i] == 'Z' || chars[i] == 'z'))
+				i++;
+			else if(i < to && (chars[i] == '+' || chars[i] == '-')) {
+				int hours = to - i >= 3 ? digits(chars, i + 1, 2) : -1;
+				int minutes = 0;
+				int j = i + 3;
+				if(j < to && chars[j] == ':')
+					j++;
+				if(j < to) {
+					minutes = to - j == 2 ? digits(chars, j, 2) : -1;
+					j += 2;
+				}
+				if(hours < 0 || hours > 18 || minutes < 0 || minutes > 59)
+					return INVALID;
+				offset = (chars[i] == '-' ? -1 : 1) * (hours * 60 + minutes);
+				i = j;
+			}
+			if(i != to)
+				return INVALID;
+			return day * MILLIS_PER_DAY + hour * 3600000L + minute * 60000L + second * 1000L + millis - offset * 60000L;
+		}
+
+		//Local times are taken as UTC, and dates as their midnight
+		@Override
+		long parse(CharSequence text) {
+			TemporalAccessor parsed = formatter.parseBest(text, ZonedDateTime::from, LocalDateTime::from, LocalDate::from);
+			if(parsed instanceof ZonedDateTime)
+				return ((ZonedDateTime) parsed).toInstant().toEpochMilli();
+			if(parsed instanceof LocalDateTime)
+				return ((LocalDateTime) parsed).toInstant(ZoneOffset.UTC).toEpochMilli();
+			return ((LocalDate) parsed).toEpochDay() * MILLIS_PER_DAY;
+		}
+
+		@Override
+		String format(long value) {
+			return Instant.ofEpochMilli(value).toString();
+		}
+	}
+
+	//Compares chars[start, end) with a lower case word, ignoring case
+	static boolean matchesIgnoreCase(char[] chars, int start, int end, String word) {
+		if(end - start != word.length())
+			return false;
+		for(int i = 0; i < word.length(); i++)
+			if(Character.toLowerCase(chars[start + i]) != word.charAt(i))
+				return false;
+		return true;
+	}
+
+	//Returns the index of the first occurrence of word in chars[start, end), or -1
+	static int indexOf(char[] chars, int start, int end, String word) {
+		outer:
+		for(int i = start; i <= end - word.length(); i++) {
+			for(int j = 0; j < word.length(); j++)
+				if(chars[i + j] != word.charAt(j))
+					continue outer;
+			return i;
+		}
+		return -1;
+	}
+
+	private static IllegalArgumentException invalid(String type, char[] chars, int start, int end) {
+		return new IllegalArgumentException("Invalid " + type + " value: " + new String(chars, start, end - start));
+	}
+}
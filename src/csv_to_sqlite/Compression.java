@@ -0,0 +1,78 @@
+package csv_to_sqlite;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ *
+ * Compression formats of an input csv, detected from the magic bytes at the start of the file
+ * - GZIP: read with java.util.zip, including files of several concatenated members
+ * - ZSTD: read with the ZstdInputStream of zstd-jni (com.github.luben:zstd-jni), which must be on the classpath;
+ *   it is loaded by reflection so the converter runs without it for other inputs
+ */
+enum Compression {
+	NONE, GZIP, ZSTD;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final String ZSTD_STREAM = "com.github.luben.zstd.ZstdInputStream";
+
+	/**
+	 * @return the compression of the file, NONE if it does not start with the magic bytes of a known format
+	 */
+	static Compression detect(String path) throws IOException {
+		byte[] magic = new byte[4];
+		int length = 0;
+		try (InputStream in = new FileInputStream(path)) {
+			int read;
+			while(length < magic.length && (read = in.read(magic, length, magic.length - length)) > 0)
+				length += read;
+		}
+		if(length >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b)
+			return GZIP;
+		if(length >= 4 && (magic[0] & 0xff) == 0x28 && (magic[1] & 0xff) == 0xb5 && (magic[2] & 0xff) == 0x2f
+				&& (magic[3] & 0xff) == 0xfd)
+			return ZSTD;
+		return NONE;
+	}
+
+	/**
+	 * Returns a stream of the decompressed bytes of in, a stream of the compressed file
+	 */
+	InputStream open(InputStream in) throws IOException {
+		try {
+			switch(this) {
+			case GZIP:
+				return new GZIPInputStream(in, BUFFER_SIZE);
+			case ZSTD:
+				return zstd(new BufferedInputStream(in, BUFFER_SIZE));
+			default:
+				return in;
+			}
+		}
+		catch(IOException | RuntimeException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	private static InputStream zstd(InputStream in) throws IOException {
+		try {
+			return (InputStream) Class.forName(ZSTD_STREAM).getConstructor(InputStream.class).newInstance(in);
+		}
+		catch(ClassNotFoundException e) {
+			throw new IOException("Reading a zstd compressed csv requires zstd-jni on the classpath", e);
+		}
+		catch(InvocationTargetException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Failed to open the zstd stream: " + e.getCause(), e.getCause());
+		}
+		catch(ReflectiveOperationException e) {
+			throw new IOException("Failed to open the zstd stream: " + e, e);
+		}
+	}
+}
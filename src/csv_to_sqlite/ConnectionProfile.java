@@ -0,0 +1,165 @@
+package csv_to_sqlite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ * A named set of SQLite pragmas applied to a connection by Database.applyProfile
+ * - bulkLoad() trades durability for speed while a csv is loaded: a write-ahead log that is not synced,
+ *   a large page cache, temporary data kept in memory and larger pages for new databases
+ * - durable() restores the SQLite defaults: a rollback journal synced on every commit
+ * The values can be changed with the setters; a page size of 0 or a cache size of 0 leaves the setting as it is.
+ */
+public class ConnectionProfile {
+
+	private static final List<String> JOURNAL_MODES = Arrays.asList("DELETE", "TRUNCATE", "PERSIST", "MEMORY", "WAL", "OFF");
+	private static final List<String> SYNCHRONOUS = Arrays.asList("OFF", "NORMAL", "FULL", "EXTRA");
+	private static final List<String> TEMP_STORES = Arrays.asList("DEFAULT", "FILE", "MEMORY");
+
+	private final String name;
+	private String journalMode;
+	private String synchronous;
+	//page cache size as in PRAGMA cache_size: pages if positive, KiB if negative
+	private int cacheSize;
+	private String tempStore;
+	//page size in bytes, only takes effect before the first table of a database is created
+	private int pageSize;
+	private boolean exclusiveLocking;
+
+	public ConnectionProfile(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Profile used while loading a csv
+	 * journal_mode=WAL keeps the savepoints Table rolls back to when a batch fails; with
+	 * journal_mode=OFF a failing batch may leave the table in an undefined state.
+	 */
+	public static ConnectionProfile bulkLoad() {
+		return new ConnectionProfile("bulk load")
+				.setJournalMode("WAL")
+				.setSynchronous("OFF")
+				.setCacheSize(-256 * 1024)
+				.setTempStore("MEMORY")
+				.setPageSize(32 * 1024)
+				.setExclusiveLocking(false);
+	}
+
+	/**
+	 * Profile restored after a load, matching the SQLite defaults
+	 */
+	public static ConnectionProfile durable() {
+		return new ConnectionProfile("durable")
+				.setJournalMode("DELETE")
+				.setSynchronous("FULL")
+				.setCacheSize(-2000)
+				.setTempStore("DEFAULT")
+				.setPageSize(0)
+				.setExclusiveLocking(false);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param journalMode: DELETE, TRUNCATE, PERSIST, MEMORY, WAL or OFF
+	 */
+	public ConnectionProfile setJournalMode(String journalMode) {
+		this.journalMode = check("journal_mode", journalMode, JOURNAL_MODES);
+		return this;
+	}
+
+	public String getJournalMode() {
+		return journalMode;
+	}
+
+	/**
+	 * @param synchronous: OFF, NORMAL, FULL or EXTRA
+	 */
+	public ConnectionProfile setSynchronous(String synchronous) {
+		this.synchronous = check("synchronous", synchronous, SYNCHRONOUS);
+		return this;
+	}
+
+	public String getSynchronous() {
+		return synchronous;
+	}
+
+	/**
+	 * @param cacheSize: number of pages if positive, or KiB of memory if negative
+	 */
+	public ConnectionProfile setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+		return this;
+	}
+
+	public int getCacheSize() {
+		return cacheSize;
+	}
+
+	/**
+	 * @param tempStore: DEFAULT, FILE or MEMORY
+	 */
+	public ConnectionProfile setTempStore(String tempStore) {
+		this.tempStore = check("temp_store", tempStore, TEMP_STORES);
+		return this;
+	}
+
+	public String getTempStore() {
+		return tempStore;
+	}
+
+	/**
+	 * @param pageSize: a power of two between 512 and 65536, or 0 to keep the page size of the database
+	 */
+	public ConnectionProfile setPageSize(int pageSize) {
+		if(pageSize != 0 && (pageSize < 512 || pageSize > 65536 || Integer.bitCount(pageSize) != 1))
+			throw new IllegalArgumentException("Invalid page_size: " + pageSize);
+		this.pageSize = pageSize;
+		return this;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * @param exclusiveLocking: whether the connection keeps its lock on the database file until the profile is replaced
+	 */
+	public ConnectionProfile setExclusiveLocking(boolean exclusiveLocking) {
+		this.exclusiveLocking = exclusiveLocking;
+		return this;
+	}
+
+	public boolean isExclusiveLocking() {
+		return exclusiveLocking;
+	}
+
+	/**
+	 * @return the pragmas of this profile in the order they have to be executed;
+	 * 		the page size is set before the journal mode since it cannot change once the database uses a write-ahead log
+	 */
+	String[] getPragmas() {
+		List<String> pragmas = new ArrayList<String>();
+		if(pageSize != 0)
+			pragmas.add("PRAGMA page_size=" + pageSize);
+		pragmas.add("PRAGMA locking_mode=" + (exclusiveLocking ? "EXCLUSIVE" : "NORMAL"));
+		pragmas.add("PRAGMA journal_mode=" + journalMode);
+		pragmas.add("PRAGMA synchronous=" + synchronous);
+		if(cacheSize != 0)
+			pragmas.add("PRAGMA cache_size=" + cacheSize);
+		pragmas.add("PRAGMA temp_store=" + tempStore);
+		return pragmas.toArray(new String[0]);
+	}
+
+	//Pragma values are written into the statement, so only the documented keywords are accepted
+	private static String check(String pragma, String value, List<String> valid) {
+		String upper = value.toUpperCase();
+		if(!valid.contains(upper))
+			throw new IllegalArgumentException("Invalid " + pragma + ": " + value);
+		return upper;
+	}
+}
@@ -0,0 +1,692 @@
+package csv_to_sqlite;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ *
+ * Settings used by CsvToSQLite.convert
+ * The defaults are used by convert(String directory, String csvFile)
+ */
+public class ConvertOptions {
+
+	//number of rows sent to the database per batch
+	private int batchSize = 1000;
+	//approximate bytes of row text after which a batch is sent early, 0 for no limit
+	private long batchBytes = 64L << 20;
+	//number of executed batches between commits
+	private int commitInterval = 100;
+	//encoding of the input csv
+	private Charset charset = StandardCharsets.UTF_8;
+	//read the input through MappedCsvFile instead of a stream
+	private boolean memoryMapped = true;
+	//size and number of the buffers a compressed input is decompressed into
+	private int decompressBufferSize = 1 << 20;
+	private int decompressBuffers = 4;
+	//threads parsing the csv, 1 parses on the writing thread
+	private int parseThreads = 1;
+	//approximate size in bytes of the regions parsed by each task
+	private long chunkSize = 8L << 20;
+	//number of parsed regions that may wait for the writer, 0 for twice the number of parse threads
+	private int queueCapacity = 0;
+	//number of leading records used to infer the column types
+	private int sampleSize = 1000;
+	//column types given by the caller instead of being inferred
+	private String[] columnTypes = null;
+	//ask for the column types with TypePrompt instead of inferring them
+	private boolean promptForTypes = false;
+	//approximate number of characters per bad csv file, 0 for a single file
+	private long rejectRotateSize = 0;
+	//compress the bad csv files
+	private boolean rejectGzip = false;
+	//pragmas applied to the connection while the csv is loaded, null to keep the SQLite defaults
+	private ConnectionProfile loadProfile = ConnectionProfile.bulkLoad();
+	//constraint or index of each column by name, built after the rows are loaded
+	private Map<String, Variable.Index> indexes = new HashMap<String, Variable.Index>();
+	//load into a staging table and copy the rows into the table sorted by the primary key
+	private boolean presort = false;
+	//store the progress of the load with every commit
+	private boolean checkpoints = true;
+	//continue an interrupted load from its last checkpoint
+	private boolean resume = false;
+	//add the rows to an existing table with the same columns
+	private boolean append = false;
+	//add the rows to the table, replacing the rows with the same key
+	private boolean upsert = false;
+	//pool shared by the parse pipelines of concurrent loads, null for a pool per load
+	private ForkJoinPool parsePool = null;
+	//milliseconds between progress lines, 0 for none
+	private long progressInterval = 10000;
+	//store the images of PNG64 columns once per content in a side table
+	private boolean deduplicateImages = false;
+	//number of database files the rows are spread over, 1 for a single file
+	private int shards = 1;
+	//column whose value chooses the shard of a row, null to deal rows out in turn
+	private String shardKey = null;
+	//copy the shards into one database once loaded instead of leaving them with a view script
+	private boolean mergeShards = true;
+	//gather the statistics of every column into the _profile table
+	private boolean profile = false;
+	//store the values of low-cardinality TEXT columns once, in side tables, and their ids in the columns
+	private boolean dictionaryEncoding = false;
+	//number of distinct values a dictionary encoded column may have before it falls back to TEXT
+	private int dictionaryLimit = 10000;
+	//skip the rows repeating an earlier row of the csv
+	private boolean deduplicateRows = false;
+	//columns two rows are compared on, null for the whole row
+	private String[] duplicateKey = null;
+	//bytes of the set of row hashes kept in memory before it is spilled to disk
+	private long duplicateMemory = 64L << 20;
+	//write the duplicate rows to the bad csv
+	private boolean rejectDuplicates = false;
+	//java.time patterns of the values of DATE and TIMESTAMP columns, null for ISO-8601
+	private String datePattern = null;
+	private String timestampPattern = null;
+	//lay the table out for its readers once loaded, see LayoutOptimizer
+	private boolean blobsLast = false;
+	private boolean withoutRowid = false;
+	private boolean strictTables = false;
+	private boolean analyze = false;
+	private boolean compactCopy = false;
+
+	public ConvertOptions() {
+	}
+
+	//Copies every setting of other
+	ConvertOptions(ConvertOptions other) {
+		batchSize = other.batchSize;
+		batchBytes = other.batchBytes;
+		commitInterval = other.commitInterval;
+		charset = other.charset;
+		memoryMapped = other.memoryMapped;
+		decompressBufferSize = other.decompressBufferSize;
+		decompressBuffers = other.decompressBuffers;
+		parseThreads = other.parseThreads;
+		chunkSize = other.chunkSize;
+		queueCapacity = other.queueCapacity;
+		sampleSize = other.sampleSize;
+		columnTypes = other.columnTypes;
+		promptForTypes = other.promptForTypes;
+		rejectRotateSize = other.rejectRotateSize;
+		rejectGzip = other.rejectGzip;
+		loadProfile = other.loadProfile;
+		indexes = new HashMap<String, Variable.Index>(other.indexes);
+		presort = other.presort;
+		checkpoints = other.checkpoints;
+		resume = other.resume;
+		append = other.append;
+		upsert = other.upsert;
+		parsePool = other.parsePool;
+		progressInterval = other.progressInterval;
+		deduplicateImages = other.deduplicateImages;
+		shards = other.shards;
+		shardKey = other.shardKey;
+		mergeShards = other.mergeShards;
+		profile = other.profile;
+		dictionaryEncoding = other.dictionaryEncoding;
+		dictionaryLimit = other.dictionaryLimit;
+		deduplicateRows = other.deduplicateRows;
+		duplicateKey = other.duplicateKey;
+		duplicateMemory = other.duplicateMemory;
+		rejectDuplicates = other.rejectDuplicates;
+		datePattern = other.datePattern;
+		timestampPattern = other.timestampPattern;
+		blobsLast = other.blobsLast;
+		withoutRowid = other.withoutRowid;
+		strictTables = other.strictTables;
+		analyze = other.analyze;
+		compactCopy = other.compactCopy;
+	}
+
+	/**
+	 * @param batchSize: number of rows per insert batch, 1 inserts rows one at a time
+	 */
+	public ConvertOptions setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+		return this;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @param batchBytes: approximate size of the rows of a batch, as UTF-16 text, after which it is sent before
+	 *		it holds getBatchSize() rows; bounds the memory held by rows with large images. 64 MB by default, 0 for no limit
+	 */
+	public ConvertOptions setBatchBytes(long batchBytes) {
+		this.batchBytes = Math.max(0, batchBytes);
+		return this;
+	}
+
+	public long getBatchBytes() {
+		return batchBytes;
+	}
+
+	/**
+	 * @param commitInterval: number of executed batches between commits
+	 */
+	public ConvertOptions setCommitInterval(int commitInterval) {
+		this.commitInterval = Math.max(1, commitInterval);
+		return this;
+	}
+
+	public int getCommitInterval() {
+		return commitInterval;
+	}
+
+	/**
+	 * @param charset: the encoding of the input csv, UTF-8 by default
+	 */
+	public ConvertOptions setCharset(Charset charset) {
+		this.charset = charset;
+		return this;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * @param memoryMapped: whether the input csv is read through memory-mapped buffers
+	 */
+	public ConvertOptions setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+		return this;
+	}
+
+	public boolean isMemoryMapped() {
+		return memoryMapped;
+	}
+
+	/**
+	 * @param decompressBufferSize: size in bytes of each buffer of decompressed input, see DecompressingInputStream
+	 */
+	public ConvertOptions setDecompressBufferSize(int decompressBufferSize) {
+		this.decompressBufferSize = Math.max(1, decompressBufferSize);
+		return this;
+	}
+
+	public int getDecompressBufferSize() {
+		return decompressBufferSize;
+	}
+
+	/**
+	 * @param decompressBuffers: number of buffers the decompressing thread may fill ahead of the parser
+	 */
+	public ConvertOptions setDecompressBuffers(int decompressBuffers) {
+		this.decompressBuffers = Math.max(2, decompressBuffers);
+		return this;
+	}
+
+	public int getDecompressBuffers() {
+		return decompressBuffers;
+	}
+
+	/**
+	 * @param parseThreads: number of threads parsing the csv; with more than one, memory-mapped files are
+	 *		loaded through ParsePipeline while the calling thread only writes to the database. Files that cannot be
+	 *		split into regions, see MappedCsvFile.split, are read by the calling thread alone
+	 */
+	public ConvertOptions setParseThreads(int parseThreads) {
+		this.parseThreads = Math.max(1, parseThreads);
+		return this;
+	}
+
+	public int getParseThreads() {
+		return parseThreads;
+	}
+
+	/**
+	 * @param chunkSize: approximate size in bytes of the regions parsed by one task
+	 */
+	public ConvertOptions setChunkSize(long chunkSize) {
+		this.chunkSize = Math.max(1, chunkSize);
+		return this;
+	}
+
+	public long getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @param queueCapacity: number of parsed regions that may wait for the writer
+	 */
+	public ConvertOptions setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = Math.max(0, queueCapacity);
+		return this;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity > 0 ? queueCapacity : 2 * parseThreads;
+	}
+
+	/**
+	 * @param sampleSize: number of records after the header used by TypeInference
+	 */
+	public ConvertOptions setSampleSize(int sampleSize) {
+		this.sampleSize = Math.max(1, sampleSize);
+		return this;
+	}
+
+	public int getSampleSize() {
+		return sampleSize;
+	}
+
+	/**
+	 * @param columnTypes: the type of every column in order, or null to infer them
+	 */
+	public ConvertOptions setColumnTypes(String[] columnTypes) {
+		this.columnTypes = columnTypes;
+		return this;
+	}
+
+	public String[] getColumnTypes() {
+		return columnTypes;
+	}
+
+	/**
+	 * @param promptForTypes: whether to ask for the column types with the TypePrompt dialog
+	 */
+	public ConvertOptions setPromptForTypes(boolean promptForTypes) {
+		this.promptForTypes = promptForTypes;
+		return this;
+	}
+
+	public boolean isPromptForTypes() {
+		return promptForTypes;
+	}
+
+	/**
+	 * @param rejectRotateSize: approximate number of characters after which a new bad csv file is started, 0 to never rotate
+	 */
+	public ConvertOptions setRejectRotateSize(long rejectRotateSize) {
+		this.rejectRotateSize = Math.max(0, rejectRotateSize);
+		return this;
+	}
+
+	public long getRejectRotateSize() {
+		return rejectRotateSize;
+	}
+
+	/**
+	 * @param rejectGzip: whether the bad csv files are gzip compressed
+	 */
+	public ConvertOptions setRejectGzip(boolean rejectGzip) {
+		this.rejectGzip = rejectGzip;
+		return this;
+	}
+
+	public boolean isRejectGzip() {
+		return rejectGzip;
+	}
+
+	/**
+	 * @param loadProfile: the pragmas used while loading, ConnectionProfile.bulkLoad() by default,
+	 *		or null to load with the SQLite defaults
+	 */
+	public ConvertOptions setLoadProfile(ConnectionProfile loadProfile) {
+		this.loadProfile = loadProfile;
+		return this;
+	}
+
+	public ConnectionProfile getLoadProfile() {
+		return loadProfile;
+	}
+
+	/**
+	 * @param column: the name of a column in the csv header
+	 * @param index: the constraint or index on the column; indexes are created after every row has been inserted
+	 */
+	public ConvertOptions setIndex(String column, Variable.Index index) {
+		indexes.put(column, index);
+		return this;
+	}
+
+	/**
+	 * @return the index of the named column, Index.NONE if none was set
+	 */
+	public Variable.Index getIndex(String column) {
+		Variable.Index index = indexes.get(column);
+		return index == null ? Variable.Index.NONE : index;
+	}
+
+	/**
+	 * @param presort: whether rows are first loaded into a staging table and then copied into the table
+	 *		in primary key order, so the primary key is built by appending; ignored for tables without a primary key
+	 */
+	public ConvertOptions setPresort(boolean presort) {
+		this.presort = presort;
+		return this;
+	}
+
+	public boolean isPresort() {
+		return presort;
+	}
+
+	/**
+	 * @param checkpoints: whether every commit also stores how far the csv has been read, so an interrupted
+	 *		load can be resumed; the checkpoint is removed when the load finishes
+	 */
+	public ConvertOptions setCheckpoints(boolean checkpoints) {
+		this.checkpoints = checkpoints;
+		return this;
+	}
+
+	public boolean isCheckpoints() {
+		return checkpoints;
+	}
+
+	/**
+	 * @param resume: whether a load of the same table that was interrupted continues from its last checkpoint
+	 *		instead of being refused because the table already exists
+	 */
+	public ConvertOptions setResume(boolean resume) {
+		this.resume = resume;
+		return this;
+	}
+
+	public boolean isResume() {
+		return resume;
+	}
+
+	/**
+	 * @param append: whether the rows of the csv are added to the table when it already exists, instead of the
+	 *		load being refused; the header of the csv must name the columns of the table, in order
+	 */
+	public ConvertOptions setAppend(boolean append) {
+		this.append = append;
+		return this;
+	}
+
+	/**
+	 * @return whether the rows are added to an existing table, with setAppend or setUpsert
+	 */
+	public boolean isAppend() {
+		return append || upsert;
+	}
+
+	/**
+	 * @param upsert: whether the rows are added to the table as with setAppend, a row whose key is already in the table
+	 *		updating that row instead; of several rows with the same key the last one wins. The key is given by the
+	 *		PRIMARY_KEY columns (see setIndex), or else the declared primary key of the table or the unique index
+	 *		<table>_pk an earlier load built for its PRIMARY_KEY columns, and is indexed as unique before the rows are loaded. With setPresort, the rows are loaded into a staging table first and merged into
+	 *		the table with one statement, which is faster for large deltas
+	 */
+	public ConvertOptions setUpsert(boolean upsert) {
+		this.upsert = upsert;
+		return this;
+	}
+
+	public boolean isUpsert() {
+		return upsert;
+	}
+
+	/**
+	 * @param parsePool: the pool running the parse tasks of every pipelined load using these options,
+	 *		or null to start a pool of getParseThreads() threads for each load; the pool is never shut down by a load
+	 */
+	public ConvertOptions setParsePool(ForkJoinPool parsePool) {
+		this.parsePool = parsePool;
+		return this;
+	}
+
+	public ForkJoinPool getParsePool() {
+		return parsePool;
+	}
+
+	/**
+	 * @param progressInterval: milliseconds between the progress lines printed while a csv is loaded,
+	 *		10 seconds by default, 0 to print none; see IngestMetrics
+	 */
+	public ConvertOptions setProgressInterval(long progressInterval) {
+		this.progressInterval = Math.max(0, progressInterval);
+		return this;
+	}
+
+	public long getProgressInterval() {
+		return progressInterval;
+	}
+
+	/**
+	 * @param deduplicateImages: whether the images of PNG64 columns are stored once per content in the table
+	 *		<table>_images(hash, image), the columns holding the SHA-256 hash of their image; see ImageStore
+	 */
+	public ConvertOptions setDeduplicateImages(boolean deduplicateImages) {
+		this.deduplicateImages = deduplicateImages;
+		return this;
+	}
+
+	public boolean isDeduplicateImages() {
+		return deduplicateImages;
+	}
+
+	/**
+	 * @param shards: number of database files <table>-shard-1.db... the rows of convert are written to, each by
+	 *		its own thread, so more than one core inserts; see ShardedLoad. 1 by default, for a single database
+	 */
+	public ConvertOptions setShards(int shards) {
+		this.shards = Math.max(1, shards);
+		return this;
+	}
+
+	public int getShards() {
+		return shards;
+	}
+
+	/**
+	 * @param shardKey: the column whose text chooses the shard of a row, so rows with the same key share a shard;
+	 *		null by default, dealing the rows out to the shards in turn
+	 */
+	public ConvertOptions setShardKey(String shardKey) {
+		this.shardKey = shardKey;
+		return this;
+	}
+
+	public String getShardKey() {
+		return shardKey;
+	}
+
+	/**
+	 * @param mergeShards: whether the shards are copied into <table>.db and deleted once loaded (the default),
+	 *		or left in place with the script <table>-shards.sql attaching them under a UNION ALL view
+	 */
+	public ConvertOptions setMergeShards(boolean mergeShards) {
+		this.mergeShards = mergeShards;
+		return this;
+	}
+
+	public boolean isMergeShards() {
+		return mergeShards;
+	}
+
+	/**
+	 * @param profile: whether the values of every column are profiled while the rows are loaded, in the same pass,
+	 *		and the statistics stored in the _profile table of the database; see TableProfile. A resumed load
+	 *		saves no profile, since the rows loaded before the interruption are not profiled again
+	 */
+	public ConvertOptions setProfile(boolean profile) {
+		this.profile = profile;
+		return this;
+	}
+
+	public boolean isProfile() {
+		return profile;
+	}
+
+	/**
+	 * @param dictionaryEncoding: whether the TEXT columns of a new table whose values repeat in the sample, with at most
+	 *		getDictionaryLimit() distinct values, are stored as INTEGER ids of their values, kept once in the table
+	 *		<table>_<column>_dict(id, value); the view <table>_view shows the values. See ValueDictionary
+	 */
+	public ConvertOptions setDictionaryEncoding(boolean dictionaryEncoding) {
+		this.dictionaryEncoding = dictionaryEncoding;
+		return this;
+	}
+
+	public boolean isDictionaryEncoding() {
+		return dictionaryEncoding;
+	}
+
+	/**
+	 * @param dictionaryLimit: number of distinct values a dictionary encoded column may have, and keep in memory;
+	 *		a column found to have more is decoded back to TEXT once loaded. 10000 by default
+	 */
+	public ConvertOptions setDictionaryLimit(int dictionaryLimit) {
+		this.dictionaryLimit = Math.max(1, dictionaryLimit);
+		return this;
+	}
+
+	public int getDictionaryLimit() {
+		return dictionaryLimit;
+	}
+
+	/**
+	 * @param deduplicateRows: whether the rows repeating an earlier row of the csv, on getDuplicateKey(), are skipped
+	 *		instead of inserted, keeping the first one; only rows passing the type check count. A resumed or appended
+	 *		load also skips the rows repeating a row of the table, except an upsert into the table. See DuplicateFilter
+	 */
+	public ConvertOptions setDeduplicateRows(boolean deduplicateRows) {
+		this.deduplicateRows = deduplicateRows;
+		return this;
+	}
+
+	public boolean isDeduplicateRows() {
+		return deduplicateRows;
+	}
+
+	/**
+	 * @param duplicateKey: the columns whose converted values must match for a row to repeat another, null
+	 *		(the default) for the whole row
+	 */
+	public ConvertOptions setDuplicateKey(String[] duplicateKey) {
+		this.duplicateKey = duplicateKey;
+		return this;
+	}
+
+	public String[] getDuplicateKey() {
+		return duplicateKey;
+	}
+
+	/**
+	 * @param duplicateMemory: bytes of the off-heap set of row hashes, 64 MB by default; once 3/4 full, it is spilled
+	 *		to a sorted file next to the database. A Bloom filter of a quarter of that comes on top
+	 */
+	public ConvertOptions setDuplicateMemory(long duplicateMemory) {
+		this.duplicateMemory = Math.max(16 << 10, duplicateMemory);
+		return this;
+	}
+
+	public long getDuplicateMemory() {
+		return duplicateMemory;
+	}
+
+	/**
+	 * @param rejectDuplicates: whether duplicate rows are also written to the bad csv and counted as failed,
+	 *		false by default
+	 */
+	public ConvertOptions setRejectDuplicates(boolean rejectDuplicates) {
+		this.rejectDuplicates = rejectDuplicates;
+		return this;
+	}
+
+	public boolean isRejectDuplicates() {
+		return rejectDuplicates;
+	}
+
+	/**
+	 * @param datePattern: the DateTimeFormatter pattern of the values of DATE columns, such as "dd/MM/yyyy", which are
+	 *		stored as the number of days since 1970-01-01. null (the default) reads yyyy-MM-dd without a formatter
+	 */
+	public ConvertOptions setDatePattern(String datePattern) {
+		this.datePattern = datePattern;
+		return this;
+	}
+
+	public String getDatePattern() {
+		return datePattern;
+	}
+
+	/**
+	 * @param timestampPattern: the DateTimeFormatter pattern of the values of TIMESTAMP columns, which are stored as
+	 *		the number of milliseconds since 1970-01-01T00:00Z, times without a zone being taken as UTC. null (the default)
+	 *		reads ISO-8601 date-times such as 2020-01-31T12:30:00.250+01:00 without a formatter
+	 */
+	public ConvertOptions setTimestampPattern(String timestampPattern) {
+		this.timestampPattern = timestampPattern;
+		return this;
+	}
+
+	public String getTimestampPattern() {
+		return timestampPattern;
+	}
+
+	/**
+	 * @param blobsLast: whether the PNG64 columns of the table are moved behind the other columns once loaded, so reads
+	 *		of the other columns do not follow the overflow pages of the images. Appended csv files may keep their order.
+	 *		false by default. See LayoutOptimizer
+	 */
+	public ConvertOptions setBlobsLast(boolean blobsLast) {
+		this.blobsLast = blobsLast;
+		return this;
+	}
+
+	public boolean isBlobsLast() {
+		return blobsLast;
+	}
+
+	/**
+	 * @param withoutRowid: whether the PRIMARY_KEY columns are declared as the primary key of the table once loaded,
+	 *		making a table of small rows with a short key a WITHOUT ROWID table and a single INTEGER key the rowid.
+	 *		false by default. See LayoutOptimizer
+	 */
+	public ConvertOptions setWithoutRowid(boolean withoutRowid) {
+		this.withoutRowid = withoutRowid;
+		return this;
+	}
+
+	public boolean isWithoutRowid() {
+		return withoutRowid;
+	}
+
+	/**
+	 * @param strictTables: whether the table is made STRICT once loaded, when SQLite supports it (3.37.0 and later) and
+	 *		every column is INTEGER, REAL or TEXT. false by default. See LayoutOptimizer
+	 */
+	public ConvertOptions setStrictTables(boolean strictTables) {
+		this.strictTables = strictTables;
+		return this;
+	}
+
+	public boolean isStrictTables() {
+		return strictTables;
+	}
+
+	/**
+	 * @param analyze: whether ANALYZE and PRAGMA optimize run on the table once loaded, false by default
+	 */
+	public ConvertOptions setAnalyze(boolean analyze) {
+		this.analyze = analyze;
+		return this;
+	}
+
+	public boolean isAnalyze() {
+		return analyze;
+	}
+
+	/**
+	 * @param compactCopy: whether a defragmented copy of the database is written to <db>-compact.db with VACUUM INTO
+	 *		once loaded, replacing the copy of an earlier load. false by default
+	 */
+	public ConvertOptions setCompactCopy(boolean compactCopy) {
+		this.compactCopy = compactCopy;
+		return this;
+	}
+
+	public boolean isCompactCopy() {
+		return compactCopy;
+	}
+}
@@ -0,0 +1,203 @@
+package csv_to_sqlite;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ *
+ * Converts many csv files concurrently, such as a directory of daily exports
+ * - The files are grouped by the table they are loaded into, named by CsvToSQLite.parseFileName unless set with
+ *   setTableNames; every table gets its own database <table>.db in the output directory, as with convert
+ * - A group is loaded by a single writer thread, so no database ever has two writers. Its files are loaded in name
+ *   order and appended to one table, so the hourly partitions of a day all end up in the same table
+ * - The groups are started largest first on setWriters threads, so the longest loads do not start last
+ * - With more than one parse thread, the pipelines of all writers parse on one shared pool
+ * - Every loaded file is recorded in its database (see Database.recordLoadedFile) and skipped by later runs,
+ *   so converting the same directory again only loads the new files
+ * When every group is done, the outcome of each file is written to run-summary-<time>.csv in the output directory.
+ */
+public class ConvertScheduler {
+
+	private static final DateTimeFormatter SUMMARY_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+	private final String directory;
+	private final ConvertOptions options;
+	private int writers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	private Function<String, String> tableNames = CsvToSQLite::parseFileName;
+
+	/**
+	 * @param directory: the directory of the databases, summaries, logs and bad csv files
+	 * @param options: the settings of every load; the files after the first of a table are always appended
+	 */
+	public ConvertScheduler(String directory, ConvertOptions options) {
+		this.directory = directory;
+		this.options = options;
+	}
+
+	/**
+	 * @param writers: number of databases loaded at the same time, half the available processors by default
+	 */
+	public ConvertScheduler setWriters(int writers) {
+		this.writers = Math.max(1, writers);
+		return this;
+	}
+
+	/**
+	 * @param tableNames: gives the table of a csv from its absolute path, for example
+	 *		path -> CsvToSQLite.parseFileName(path).replaceAll("_\\d{10}$", "") for files named events_2020010100.csv
+	 */
+	public ConvertScheduler setTableNames(Function<String, String> tableNames) {
+		this.tableNames = tableNames;
+		return this;
+	}
+
+	/**
+	 * Converts the regular files of inputDirectory whose names match glob, for example "*.csv"
+	 */
+	public RunSummary convertDirectory(String inputDirectory, String glob) throws IOException, InterruptedException {
+		List<String> files = new ArrayList<String>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(inputDirectory), glob)) {
+			for(Path file : stream)
+				if(Files.isRegularFile(file))
+					files.add(file.toString());
+		}
+		return convert(files);
+	}
+
+	/**
+	 * Converts the given csv files and writes the run summary
+	 * @return the outcome of every file
+	 */
+	public RunSummary convert(List<String> csvFiles) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		Map<String, List<Path>> groups = new HashMap<String, List<Path>>();
+		Map<String, Long> sizes = new HashMap<String, Long>();
+		for(String csvFile : csvFiles) {
+			Path path = Paths.get(csvFile).toAbsolutePath().normalize();
+			String table = tableNames.apply(path.toString());
+			groups.computeIfAbsent(table, name -> new ArrayList<Path>()).add(path);
+			sizes.merge(table, path.toFile().length(), Long::sum);
+		}
+		List<String> order = new ArrayList<String>(groups.keySet());
+		order.sort(Comparator.comparing((String table) -> sizes.get(table)).reversed());
+
+		ConvertOptions loadOptions = new ConvertOptions(options);
+		ForkJoinPool parsePool = null;
+		if(options.getParsePool() == null && options.getParseThreads() > 1) {
+			parsePool = new ForkJoinPool(options.getParseThreads());
+			loadOptions.setParsePool(parsePool);
+		}
+		AtomicInteger threads = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(writers, order.size())),
+				task -> new Thread(task, "csv-writer-" + threads.incrementAndGet()));
+		RunSummary summary = new RunSummary();
+		try {
+			List<Future<List<RunSummary.Entry>>> results = new ArrayList<Future<List<RunSummary.Entry>>>();
+			for(String table : order) {
+				List<Path> files = groups.get(table);
+				files.sort(null);
+				results.add(executor.submit(() -> convertGroup(table, files, loadOptions)));
+			}
+			for(Future<List<RunSummary.Entry>> result : results)
+				summary.addAll(result.get());
+		}
+		catch(ExecutionException e) {
+			throw new IOException("Failed to convert: " + e.getCause(), e.getCause());
+		}
+		finally {
+			executor.shutdownNow();
+			if(parsePool != null)
+				parsePool.shutdown();
+		}
+		summary.setMillis((System.nanoTime() - start) / 1000000);
+		summary.write(Paths.get(directory + "run-summary-" + LocalDateTime.now().format(SUMMARY_TIME) + ".csv"));
+		System.out.println(summary);
+		return summary;
+	}
+
+	//Loads the files of one table one after the other into its database, on the calling writer thread
+	private List<RunSummary.Entry> convertGroup(String table, List<Path> files, ConvertOptions options) {
+		List<RunSummary.Entry> entries = new ArrayList<RunSummary.Entry>();
+		String dbName = table + ".db";
+		Database db = new Database(directory, dbName, options.getLoadProfile());
+		try {
+			//the file of an interrupted load is resumed before the others are added
+			IngestProgress progress = db.getProgress(table);
+			if(progress != null && options.isResume()) {
+				Path interrupted = Paths.get(progress.getCsvPath()).toAbsolutePath().normalize();
+				if(files.remove(interrupted))
+					files.add(0, interrupted);
+			}
+			Set<String> loaded = db.getLoadedFiles(table);
+			boolean append = options.isAppend() || !loaded.isEmpty();
+			String failed = null;
+			for(Path file : files) {
+				RunSummary.Entry entry = new RunSummary.Entry(file.toString(), table, directory + dbName, file.toFile().length());
+				entries.add(entry);
+				if(failed != null) {
+					entry.failed("Not loaded after the failure of " + failed, 0);
+					continue;
+				}
+				if(loaded.contains(file.toString())) {
+					entry.skipped("Already loaded into " + table);
+					continue;
+				}
+				long start = System.nanoTime();
+				String refused = CsvToSQLite.refusal(db, table, options, append);
+				try {
+					if(refused != null)
+						throw new IllegalStateException(refused);
+					LoadStats stats = CsvToSQLite.load(db, table, file.toString(), options, append, true);
+					entry.loaded(stats, (System.nanoTime() - start) / 1000000);
+					append = true;
+				}
+				catch(Exception e) {
+					//keeps the rows of the last checkpoint, so the load can be resumed before more files are added
+					db.rollback();
+					System.out.println(file + ": " + e);
+					entry.failed(e.getMessage(), (System.nanoTime() - start) / 1000000);
+					failed = file.getFileName().toString();
+				}
+			}
+		}
+		finally {
+			CsvToSQLite.close(db, options);
+		}
+		return entries;
+	}
+
+	/**
+	 * Converts a directory of csv files
+	 * Arguments: directory inputDirectory [glob] [writers], glob *.csv and half the processors by default
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length < 2) {
+			System.out.println("Usage: ConvertScheduler directory inputDirectory [glob] [writers]");
+			return;
+		}
+		String directory = args[0].endsWith(File.separator) ? args[0] : args[0] + File.separator;
+		ConvertScheduler scheduler = new ConvertScheduler(directory, new ConvertOptions());
+		if(args.length > 3)
+			scheduler.setWriters(Integer.parseInt(args[3]));
+		scheduler.convertDirectory(args[1], args.length > 2 ? args[2] : "*.csv");
+	}
+}
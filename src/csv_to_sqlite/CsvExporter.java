@@ -0,0 +1,586 @@
+package csv_to_sqlite;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ *
+ * Writes a table back to a csv file that CsvToSQLite reads into the same values
+ * - Columns are read by index and written by their declared type: INTEGER and REAL values are formatted straight
+ *   into the line buffer, REAL in plain decimal notation since the importer does not read exponents, BOOLEAN
+ *   as true or false, DATE and TIMESTAMP as ISO-8601 text (read back into the same values when no date or timestamp
+ *   pattern is set) and PNG64 as a "data:image/png;base64," value. Images deduplicated into <table>_images
+ *   are written in place of their hash, and the values of dictionary encoded columns in place of their id.
+ *   Other types are written as text.
+ * - Values are quoted the way the tokenizer reads them: when they contain a comma, a quote or a line break,
+ *   or consist only of whitespace. NULL is written as an empty field, so an empty string also reads back as NULL.
+ * - The file is written through a buffered FileChannel, gzip compressed if enabled.
+ * - With several threads the table is split into rowid ranges, each read on its own read only connection into
+ *   its own part file; the parts are then appended to the output in rowid order. A compressed output is a series
+ *   of gzip members, which gzip and CsvToSQLite read as one stream. The ranges are read in separate transactions,
+ *   so the table should not be written to during the export. Tables without a rowid are exported by one thread.
+ */
+public class CsvExporter {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final String PNG_PREFIX = "data:image/png;base64,";
+	private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+	//largest mantissa the importer divides by a power of ten exactly, see RealBinder
+	private static final long MAX_MANTISSA = (1L << 53) / 10;
+	private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9};
+
+	enum Format {TEXT, INTEGER, REAL, BOOLEAN, DATE, TIMESTAMP, PNG64}
+
+	private final String url;
+	private int fetchSize = 10000;
+	private int threads = 1;
+	private boolean gzip = false;
+	private Charset charset = StandardCharsets.UTF_8;
+
+	/**
+	 * @param directory: name of directory containing the database
+	 * @param dbName: name of the database, with or without ".db"
+	 */
+	public CsvExporter(String directory, String dbName) {
+		directory = directory.endsWith("/") ? directory : directory + "/";
+		dbName = dbName.endsWith(".db") ? dbName : dbName + ".db";
+		this.url = "jdbc:sqlite:" + directory + dbName;
+	}
+
+	/**
+	 * @param fetchSize: number of rows the driver is asked to fetch at a time
+	 */
+	public CsvExporter setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+		return this;
+	}
+
+	/**
+	 * @param threads: number of rowid ranges read and written in parallel
+	 */
+	public CsvExporter setThreads(int threads) {
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * @param gzip: whether to compress the output; the path is used as given
+	 */
+	public CsvExporter setGzip(boolean gzip) {
+		this.gzip = gzip;
+		return this;
+	}
+
+	public CsvExporter setCharset(Charset charset) {
+		this.charset = charset;
+		return this;
+	}
+
+	/**
+	 * Writes every row of a table with a header line to csvPath, replacing the file if it exists
+	 * @return the number of rows written
+	 */
+	public long export(String tableName, String csvPath) throws SQLException, IOException {
+		long start = System.currentTimeMillis();
+		String[] names;
+		Format[] formats;
+		String select;
+		long[][] ranges;
+		try (Connection conn = open()) {
+			StatementCache statements = new StatementCache(conn, 2);
+			SchemaCatalog catalog = new SchemaCatalog(statements);
+			SchemaCatalog.TableSchema schema = catalog.get(tableName);
+			if(schema == null)
+				throw new SQLException("no such table: " + tableName);
+			names = schema.names;
+			formats = new Format[names.length];
+			for(int i = 0; i < names.length; i++)
+				formats[i] = format(schema.types[i]);
+			boolean images = catalog.get(tableName + "_images") != null;
+			boolean[] encoded = new boolean[names.length];
+			for(int i = 0; i < names.length; i++) {
+				encoded[i] = catalog.get(ValueDictionary.sideTable(tableName, names[i])) != null;
+				if(encoded[i])
+					formats[i] = Format.TEXT;
+			}
+			statements.clear();
+			select = selectSql(tableName, names, formats, images, encoded);
+			ranges = threads > 1 ? ranges(conn, tableName, threads) : null;
+		}
+		Path output = Paths.get(csvPath);
+		long rows;
+		if(ranges == null)
+			rows = exportRange(select, null, names, formats, output);
+		else
+			rows = exportParallel(select, ranges, names, formats, output);
+		System.out.println("Exported " + rows + " rows of " + tableName + " to " + csvPath + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		return rows;
+	}
+
+	private long exportParallel(String select, long[][] ranges, String[] names, Format[] formats, Path output)
+			throws SQLException, IOException {
+		String rangeSelect = select + " WHERE rowid BETWEEN ? AND ? ORDER BY rowid";
+		List<Path> parts = new ArrayList<Path>();
+		AtomicInteger count = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(ranges.length,
+				task -> new Thread(task, "csv-export-" + count.incrementAndGet()));
+		try {
+			List<Future<Long>> results = new ArrayList<Future<Long>>();
+			for(int i = 0; i < ranges.length; i++) {
+				Path part = Paths.get(output + ".part-" + (i + 1));
+				parts.add(part);
+				long[] range = ranges[i];
+				String[] header = i == 0 ? names : null;
+				results.add(executor.submit(() -> exportRange(rangeSelect, range, header, formats, part)));
+			}
+			long rows = 0;
+			for(Future<Long> result : results)
+				rows += result.get();
+			try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				for(Path part : parts) {
+					try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+						long size = in.size();
+						for(long position = 0; position < size; )
+							position += in.transferTo(position, size - position, out);
+					}
+				}
+			}
+			return rows;
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Export interrupted", e);
+		}
+		catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof SQLException)
+				throw (SQLException) cause;
+			if(cause instanceof IOException)
+				throw (IOException) cause;
+			throw new IllegalStateException(cause);
+		}
+		finally {
+			executor.shutdownNow();
+			for(Path part : parts)
+				Files.deleteIfExists(part);
+		}
+	}
+
+	/**
+	 * Writes the rows of a rowid range, or of the whole table if range is null, to path
+	 * @param header: the column names to write first, or null
+	 */
+	private long exportRange(String sql, long[] range, String[] header, Format[] formats, Path path)
+			throws SQLException, IOException {
+		long rows = 0;
+		try (Connection conn = open();
+				PreparedStatement stmt = conn.prepareStatement(sql);
+				LineWriter out = new LineWriter(path)) {
+			if(header != null) {
+				for(int i = 0; i < header.length; i++) {
+					if(i > 0)
+						out.append(',');
+					out.appendText(header[i]);
+				}
+				out.append('\n');
+			}
+			if(range != null) {
+				stmt.setLong(1, range[0]);
+				stmt.setLong(2, range[1]);
+			}
+			stmt.setFetchSize(fetchSize);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while(rs.next()) {
+					for(int i = 0; i < formats.length; i++) {
+						if(i > 0)
+							out.append(',');
+						writeValue(rs, i + 1, formats[i], out);
+					}
+					out.append('\n');
+					rows++;
+				}
+			}
+		}
+		return rows;
+	}
+
+	private static void writeValue(ResultSet rs, int index, Format format, LineWriter out) throws SQLException, IOException {
+		switch(format) {
+		case INTEGER:
+			long l = rs.getLong(index);
+			if(!rs.wasNull())
+				out.appendLong(l);
+			break;
+		case REAL:
+			double d = rs.getDouble(index);
+			if(!rs.wasNull())
+				out.appendReal(d);
+			break;
+		case BOOLEAN:
+			long b = rs.getLong(index);
+			if(!rs.wasNull())
+				out.appendText(b != 0 ? "true" : "false");
+			break;
+		case DATE:
+			long day = rs.getLong(index);
+			if(!rs.wasNull())
+				out.appendDate(day);
+			break;
+		case TIMESTAMP:
+			long millis = rs.getLong(index);
+			if(!rs.wasNull())
+				out.appendTimestamp(millis);
+			break;
+		case PNG64:
+			byte[] image = rs.getBytes(index);
+			if(image != null)
+				out.appendPng64(image);
+			break;
+		default:
+			String s = rs.getString(index);
+			if(s != null)
+				out.appendText(s);
+		}
+	}
+
+	private Connection open() throws SQLException {
+		Properties properties = new Properties();
+		//SQLITE_OPEN_READONLY
+		properties.setProperty("open_mode", "1");
+		return DriverManager.getConnection(url, properties);
+	}
+
+	private static Format format(String type) {
+		ColumnBinder binder = ColumnBinder.forType(type);
+		if(binder == ColumnBinder.INTEGER)
+			return Format.INTEGER;
+		if(binder == ColumnBinder.REAL)
+			return Format.REAL;
+		if(binder == ColumnBinder.BOOLEAN)
+			return Format.BOOLEAN;
+		if(binder == ColumnBinder.DATE)
+			return Format.DATE;
+		if(binder == ColumnBinder.TIMESTAMP)
+			return Format.TIMESTAMP;
+		if(binder == ColumnBinder.PNG64)
+			return Format.PNG64;
+		return Format.TEXT;
+	}
+
+	//Selects the columns in table order, replacing the hashes of deduplicated images by their image
+	//and the ids of dictionary encoded columns by their value
+	static String selectSql(String tableName, String[] names, Format[] formats, boolean images, boolean[] encoded) {
+		return selectSql(tableName, tableName, names, formats, images, encoded);
+	}
+
+	//Same as selectSql for the rows of fromTable, whose images and dictionaries are those of tableName
+	static String selectSql(String tableName, String fromTable, String[] names, Format[] formats, boolean images,
+			boolean[] encoded) {
+		StringBuilder sql = new StringBuilder("SELECT ");
+		for(int i = 0; i < names.length; i++) {
+			if(i > 0)
+				sql.append(", ");
+			String column = "t.\"" + names[i].replace("\"", "\"\"") + "\"";
+			//the NUMERIC affinity of a PNG64 column would be applied to hash, which keeps the lookup off its index
+			if(images && formats[i] == Format.PNG64)
+				sql.append("coalesce((SELECT image FROM ").append(tableName).append("_images WHERE hash = CAST(")
+						.append(column).append(" AS BLOB)), ").append(column).append(')');
+			else if(encoded[i])
+				sql.append("(SELECT value FROM ").append(ValueDictionary.sideTable(tableName, names[i])).append(" WHERE id = ")
+						.append(column).append(')');
+			else
+				sql.append(column);
+		}
+		return sql.append(" FROM ").append(fromTable).append(" t").toString();
+	}
+
+	/**
+	 * Splits the rowids of the table into at most parts ranges of equal width
+	 * @return the ranges as {first, last}, or null if the table has no rowid or no rows
+	 */
+	private static long[][] ranges(Connection conn, String tableName, int parts) throws SQLException {
+		long min, max;
+		try (PreparedStatement stmt = conn.prepareStatement("SELECT min(rowid), max(rowid) FROM " + tableName);
+				ResultSet rs = stmt.executeQuery()) {
+			rs.next();
+			min = rs.getLong(1);
+			if(rs.wasNull())
+				return null;
+			max = rs.getLong(2);
+		}
+		catch(SQLException e) {
+			//WITHOUT ROWID table
+			return null;
+		}
+		long width = (max - min) / parts + 1;
+		List<long[]> ranges = new ArrayList<long[]>();
+		for(int i = 0; i < parts && min + i * width <= max; i++) {
+			long first = min + i * width;
+			ranges.add(new long[] {first, i == parts - 1 ? max : Math.min(max, first + width - 1)});
+		}
+		return ranges.toArray(new long[0][]);
+	}
+
+	/**
+	 * Formats the values of the lines into a char buffer written to the file when full
+	 */
+	private final class LineWriter implements AutoCloseable {
+
+		private final Writer out;
+		private char[] buffer = new char[BUFFER_SIZE];
+		private int length;
+
+		LineWriter(Path path) throws IOException {
+			FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+			if(gzip)
+				stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+			out = new OutputStreamWriter(stream, charset);
+		}
+
+		void append(char c) throws IOException {
+			reserve(1);
+			buffer[length++] = c;
+		}
+
+		void appendLong(long value) throws IOException {
+			reserve(20);
+			if(value == Long.MIN_VALUE) {
+				"-9223372036854775808".getChars(0, 20, buffer, length);
+				length += 20;
+				return;
+			}
+			if(value < 0) {
+				buffer[length++] = '-';
+				value = -value;
+			}
+			int digits = 1;
+			for(long v = value; v >= 10; v /= 10)
+				digits++;
+			for(int i = length + digits - 1; i >= length; i--) {
+				buffer[i] = (char) ('0' + value % 10);
+				value /= 10;
+			}
+			length += digits;
+		}
+
+		/**
+		 * Writes the shortest decimal with up to 9 fraction digits that the importer reads back exactly,
+		 * otherwise Double.toString without its exponent
+		 */
+		void appendReal(double value) throws IOException {
+			boolean negative = value < 0 || (value == 0 && 1 / value < 0);
+			double abs = Math.abs(value);
+			if(abs < MAX_MANTISSA) {
+				for(int scale = 0; scale < POWERS_OF_TEN.length; scale++) {
+					double scaled = abs * POWERS_OF_TEN[scale];
+					if(scaled >= MAX_MANTISSA)
+						break;
+					long mantissa = Math.round(scaled);
+					if(mantissa / POWERS_OF_TEN[scale] == abs) {
+						appendDecimal(negative, mantissa, scale);
+						return;
+					}
+				}
+			}
+			String s = Double.toString(value);
+			if(s.indexOf('E') >= 0 && !Double.isNaN(value) && !Double.isInfinite(value))
+				s = BigDecimal.valueOf(value).toPlainString();
+			reserve(s.length());
+			s.getChars(0, s.length(), buffer, length);
+			length += s.length();
+		}
+
+		//Writes mantissa / 10^scale with at least one digit on each side of the point
+		private void appendDecimal(boolean negative, long mantissa, int scale) throws IOException {
+			reserve(32);
+			if(negative)
+				buffer[length++] = '-';
+			int digits = 1;
+			for(long v = mantissa; v >= 10; v /= 10)
+				digits++;
+			digits = Math.max(digits, scale + 1);
+			int end = length + digits + (scale == 0 ? 2 : 1);
+			int i = end - 1;
+			if(scale == 0) {
+				buffer[i--] = '0';
+				buffer[i--] = '.';
+			}
+			for(int d = 0; d < digits; d++) {
+				if(d == scale && scale > 0)
+					buffer[i--] = '.';
+				buffer[i--] = (char) ('0' + mantissa % 10);
+				mantissa /= 10;
+			}
+			length = end;
+		}
+
+		//Writes yyyy-MM-dd, through java.time for years before 0 or after 9999
+		void appendDate(long day) throws IOException {
+			long date = ColumnBinder.TemporalBinder.civil(day);
+			if(date < 0 || date >= 100000000) {
+				appendText(((ColumnBinder.TemporalBinder) ColumnBinder.DATE).format(day));
+				return;
+			}
+			reserve(10);
+			appendCivil(date);
+		}
+
+		//Writes yyyy-MM-ddTHH:mm:ss, the milliseconds if any and Z
+		void appendTimestamp(long millis) throws IOException {
+			long day = Math.floorDiv(millis, ColumnBinder.TemporalBinder.MILLIS_PER_DAY);
+			long time = millis - day * ColumnBinder.TemporalBinder.MILLIS_PER_DAY;
+			long date = ColumnBinder.TemporalBinder.civil(day);
+			if(date < 0 || date >= 100000000) {
+				appendText(((ColumnBinder.TemporalBinder) ColumnBinder.TIMESTAMP).format(millis));
+				return;
+			}
+			reserve(24);
+			appendCivil(date);
+			buffer[length++] = 'T';
+			appendDigits(time / 3600000, 2);
+			buffer[length++] = ':';
+			appendDigits(time / 60000 % 60, 2);
+			buffer[length++] = ':';
+			appendDigits(time / 1000 % 60, 2);
+			if(time % 1000 != 0) {
+				buffer[length++] = '.';
+				appendDigits(time % 1000, 3);
+			}
+			buffer[length++] = 'Z';
+		}
+
+		//Writes a date packed as year * 10000 + month * 100 + day
+		private void appendCivil(long date) {
+			appendDigits(date / 10000, 4);
+			buffer[length++] = '-';
+			appendDigits(date / 100 % 100, 2);
+			buffer[length++] = '-';
+			appendDigits(date % 100, 2);
+		}
+
+		private void appendDigits(long value, int digits) {
+			for(int i = length + digits - 1; i >= length; i--) {
+				buffer[i] = (char) ('0' + value % 10);
+				value /= 10;
+			}
+			length += digits;
+		}
+
+		void appendPng64(byte[] image) throws IOException {
+			reserve(PNG_PREFIX.length() + 2 + (image.length + 2) / 3 * 4);
+			//quoted for the comma of the data URI
+			buffer[length++] = '"';
+			PNG_PREFIX.getChars(0, PNG_PREFIX.length(), buffer, length);
+			length += PNG_PREFIX.length();
+			int full = image.length - image.length % 3;
+			for(int i = 0; i < full; i += 3) {
+				int bits = (image[i] & 0xff) << 16 | (image[i + 1] & 0xff) << 8 | (image[i + 2] & 0xff);
+				buffer[length++] = BASE64[bits >>> 18];
+				buffer[length++] = BASE64[(bits >>> 12) & 0x3f];
+				buffer[length++] = BASE64[(bits >>> 6) & 0x3f];
+				buffer[length++] = BASE64[bits & 0x3f];
+			}
+			if(full < image.length) {
+				int bits = (image[full] & 0xff) << 16;
+				if(full + 1 < image.length)
+					bits |= (image[full + 1] & 0xff) << 8;
+				buffer[length++] = BASE64[bits >>> 18];
+				buffer[length++] = BASE64[(bits >>> 12) & 0x3f];
+				buffer[length++] = full + 1 < image.length ? BASE64[(bits >>> 6) & 0x3f] : '=';
+				buffer[length++] = '=';
+			}
+			buffer[length++] = '"';
+		}
+
+		void appendText(String value) throws IOException {
+			boolean quote = true;
+			for(int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if(c == ',' || c == '"' || c == '\n' || c == '\r') {
+					quote = true;
+					break;
+				}
+				if(!Character.isWhitespace(c))
+					quote = false;
+			}
+			//empty values are quoted too, though they read back as NULL like an empty field
+			if(!quote) {
+				reserve(value.length());
+				value.getChars(0, value.length(), buffer, length);
+				length += value.length();
+				return;
+			}
+			reserve(2 * value.length() + 2);
+			buffer[length++] = '"';
+			for(int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if(c == '"')
+					buffer[length++] = '"';
+				buffer[length++] = c;
+			}
+			buffer[length++] = '"';
+		}
+
+		//Makes room for n more chars, writing out the buffer or growing it for a large value
+		private void reserve(int n) throws IOException {
+			if(length + n <= buffer.length)
+				return;
+			out.write(buffer, 0, length);
+			length = 0;
+			if(n > buffer.length)
+				buffer = new char[n];
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.write(buffer, 0, length);
+			length = 0;
+			out.close();
+		}
+	}
+
+	public static void main(String[] args) throws SQLException, IOException {
+		if(args.length < 3) {
+			System.out.println("Usage: CsvExporter database table csvPath [threads] [gzip]");
+			return;
+		}
+		File db = new File(args[0]);
+		CsvExporter exporter = new CsvExporter(db.getAbsoluteFile().getParent(), db.getName());
+		if(args.length > 3)
+			exporter.setThreads(Integer.parseInt(args[3]));
+		if(args.length > 4)
+			exporter.setGzip(Boolean.parseBoolean(args[4]));
+		exporter.export(args[1], args[2]);
+	}
+}
@@ -1,14 +1,22 @@
 package csv_to_sqlite;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.FileHandler;
 import java.util.logging.Logger;
 
@@ -19,6 +27,9 @@ import java.util.logging.Logger;
  */
 public class CsvToSQLite {
 
+	//one tokenizer per thread for readRow, so its buffers are reused between calls
+	private static final ThreadLocal<CsvTokenizer> rowTokenizer = ThreadLocal.withInitial(CsvTokenizer::new);
+
 	/**
 	 * Converts a comma-delimited string to an array of strings
 	 * Values containing commas should be surrounded by ""
@@ -27,100 +38,649 @@ public class CsvToSQLite {
 	 * @return a corresponding array of strings
 	 */
 	public static String[] readRow(String row) {
-		//buffer the beginning with a space so string split treats initial missing value as a column
-		if(row.startsWith(","))
-			row=" "+row;
-		//Handling internal commas
-		String[] quoteSplit=row.split("\"");
-		ArrayList<String> entryList=new ArrayList<String>();
-		boolean endcomma=false;
-		boolean prevcomma;
-		for(String multicol:quoteSplit) {
-			prevcomma=endcomma;
-			multicol=multicol.strip();
-			if(multicol.endsWith(",")) {
-				multicol=multicol.substring(0,multicol.length()-1);
-				endcomma=true;
-			}
-			else
-				endcomma=false;
-			if(multicol.startsWith(",")) 
-				multicol=multicol.substring(1);
-			if(prevcomma==true)
-				entryList.add(multicol);
-			else {
-				String[] colarray=multicol.split(",");
-				for(String col:colarray) {
-					if(col.matches("\\w{1,}"))
-						entryList.add("");
-					else
-						entryList.add(col);
-
-				}
-			}
+		CsvTokenizer tokenizer = rowTokenizer.get();
+		tokenizer.reset(row);
+		try {
+			if(!tokenizer.next())
+				return new String[] {""};
+		}
+		catch(IOException e) {
+			//cannot happen when reading from a string
+			throw new UncheckedIOException(e);
 		}
-		String[] entry=new String[entryList.size()];
-		for(int i = 0; i < entry.length; i++)
-			entry[i] = entryList.get(i);
-		return entry;
+		return tokenizer.getFields();
 	}
 	
 	
 	public static void csvToTable(Database db, String tableName, String csvPath) {
-		String row;
+		csvToTable(db, tableName, csvPath, new ConvertOptions());
+	}
+	
+	/**
+	 * Reads the csv at csvPath into a new table named tableName
+	 * Rows are inserted in batches of options.getBatchSize() and committed every options.getCommitInterval() batches
+	 * With options.isResume(), an interrupted load of the table continues from its last checkpoint instead.
+	 * With options.isAppend(), the rows are added to the table if it already exists.
+	 */
+	public static void csvToTable(Database db, String tableName, String csvPath, ConvertOptions options) {
+		try {
+			load(db, tableName, csvPath, options, options.isAppend(), false);
+		}
+		catch(Exception e) {
+			System.out.println(e);
+		}
+	}
+	
+	/**
+	 * Same as csvToTable, throwing the exception that ended the load
+	 * @param append: whether the rows are added to the table if it already exists
+	 * @param recordFile: whether the csv is recorded as loaded in the database, in the transaction of its last rows
+	 * @return the record counts of the load, or null if the csv is empty
+	 */
+	static LoadStats load(Database db, String tableName, String csvPath, ConvertOptions options, boolean append,
+			boolean recordFile) throws Exception {
 		Table table = null;
 		String[] header = null;
-		try (BufferedReader csvReader = new BufferedReader(new FileReader(csvPath))){
-			row=csvReader.readLine();
-			header=row.split(",");
-			TypePrompt prompt=new TypePrompt(header);
-			String[] varTypes = prompt.launchApp();
-			Variable[] cols=new Variable[header.length];
-			for(int i=0; i < cols.length; i++)
-				cols[i] = new Variable(header[i], varTypes[i]);
-			
-			table=db.createNewTable(tableName, cols);
-			
-			int numReceived = 0;
-			int numGood = 0;
-			int numBad = 0;
-			List<String[]> badEntries = new ArrayList<String[]>();
-			while ((row = csvReader.readLine()) != null) {
-				numReceived++;
-				String[] entry = readRow(row);
-				//if number of columns in entry is a match, insert into database
-				if(entry.length==header.length) {
-					try{
-						table.insert(entry);
-						numGood++;
-					}
-					catch (Exception e) {
-						badEntries.add(entry);
-						numBad++;
-					}
-				}
-				//otherwise, write entry to error csv
+		IngestMetrics metrics = new IngestMetrics(tableName, csvPath);
+		IngestProgress progress = options.isResume() ? db.getProgress(tableName) : null;
+		long startOffset = progress == null ? 0 : Math.max(0, progress.getByteOffset());
+		boolean mapped = options.getParseThreads() > 1 && options.isMemoryMapped() && Files.isRegularFile(Paths.get(csvPath))
+				&& Compression.detect(csvPath) == Compression.NONE && (progress == null || progress.getByteOffset() >= 0);
+		ParsePipeline split = !mapped ? null : progress == null ? ParsePipeline.open(csvPath, options, 0, 1)
+				: ParsePipeline.open(csvPath, options, progress.getByteOffset(), progress.getLineNumber());
+		boolean pipelined = split != null;
+		try (ParsePipeline pipeline = split;
+				CsvTokenizer csvReader = new CsvTokenizer(pipelined ? pipeline.firstRegion()
+						: openCsv(csvPath, options, startOffset, metrics))){
+			metrics.start(options.getProgressInterval());
+			//the regions of a pipelined load are measured by the tasks parsing them
+			if(!pipelined)
+				csvReader.setMetrics(metrics);
+			Variable[] cols;
+			String loadTable;
+			//key of an upsert, empty for a plain load
+			String[] key = new String[0];
+			//The sample used to choose the column types is inserted before the rest of the file is read
+			RecordBatch sample = new RecordBatch();
+			List<String> sampleRaw = new ArrayList<String>();
+			boolean appending = false;
+			if(progress == null) {
+				if(!csvReader.next()) {
+					System.out.println("The csv " + csvPath + " is empty");
+					return null;
+				}
+				header=csvReader.getFields();
+				appending = append && db.containsTable(tableName);
+			}
+			if(appending) {
+				//Adds to the table with the column types it was created with
+				cols = orderColumns(header, tableColumns(db, tableName, tableName, options), csvPath, tableName);
+				checkColumnTypes(cols, options, tableName);
+				if(options.isUpsert())
+					key = upsertKey(db, tableName, cols);
+				//a presorted upsert is merged into the table from a staging table once loaded
+				loadTable = options.isUpsert() && options.isPresort() ? tableName + "_staging" : tableName;
+				if(loadTable.equals(tableName))
+					table=db.selectTable(loadTable, cols);
 				else {
-					badEntries.add(entry);
-					numBad++;
+					db.dropTable(loadTable);
+					table=db.createNewTable(loadTable, cols, false);
+				}
+			}
+			else if(progress == null) {
+				while(sample.size() < options.getSampleSize() && csvReader.next()) {
+					sample.add(csvReader);
+					sampleRaw.add(csvReader.getRawRecord());
 				}
+				String[] varTypes = chooseTypes(header, sample, options);
+				cols=new Variable[header.length];
+				for(int i=0; i < cols.length; i++)
+					cols[i] = column(header[i], varTypes[i], options);
+				if(options.isDictionaryEncoding())
+					chooseDictionaryColumns(cols, sample, options.getDictionaryLimit());
+				
+				//Rows are loaded without constraints or indexes; with presort they go to a staging table first
+				String[] primaryKey = Database.columnsWith(cols, Variable.Index.PRIMARY_KEY);
+				if(options.isUpsert())
+					key = upsertKey(db, tableName, cols);
+				loadTable = options.isPresort() && primaryKey.length > 0 ? tableName + "_staging" : tableName;
+				if(!loadTable.equals(tableName))
+					db.dropTable(loadTable);
+				table=db.createNewTable(loadTable, cols, false);
+			}
+			else {
+				//Continues the table of the interrupted load with the column types it was created with
+				loadTable = progress.getLoadTable();
+				if(!csvPath.equals(progress.getCsvPath()))
+					System.out.println("Resuming the load of " + progress.getCsvPath() + " from " + csvPath);
+				//the columns of the table may be in another order than in the csv, see orderColumns
+				header = readHeader(csvPath, options);
+				cols = orderColumns(header, tableColumns(db, tableName, loadTable, options), csvPath, loadTable);
+				if(options.isUpsert())
+					key = upsertKey(db, tableName, cols);
+				table=db.selectTable(loadTable, cols);
+				if(!pipelined)
+					seek(csvReader, progress);
+				System.out.println("Resuming " + tableName + " at line " + progress.getLineNumber());
 			}
-			System.out.println(db.commit());
+			if(key.length > 0 && loadTable.equals(tableName)) {
+				//the key must be unique before the first row is upserted
+				indexKey(db, tableName, key);
+				table.setUpsertKey(key);
+			}
+			table.setBatchSize(options.getBatchSize());
+			table.setBatchBytes(options.getBatchBytes());
+			table.setMetrics(metrics);
+			if(options.isDeduplicateImages() && hasImages(cols))
+				table.setImageStore(db.openImageStore(tableName));
+			table.setDictionaries(openDictionaries(db, tableName, cols, options.getDictionaryLimit()));
 			
-			//Writes bad entries to a separate csv file
-			writeToCsv(db.getDirectory() + tableName + "-bad.csv", badEntries);
-			//Creates a log to record statistics
-			logStats(db.getDirectory() + tableName + ".log", numReceived, numGood, numBad);
-		}
-		catch(Exception e) {
-			System.out.println(e);
+			//Streams bad entries to a separate csv file as they occur
+			String rejectPath = db.getDirectory() + tableName + "-bad";
+			try (RejectWriter rejects = appending
+					? RejectWriter.append(rejectPath, header, options.getCharset(), options.getRejectRotateSize(), options.isRejectGzip())
+					: new RejectWriter(rejectPath, header, options.getCharset(), options.getRejectRotateSize(), options.isRejectGzip(),
+					progress == null ? 0 : progress.getRejectFile(), progress == null ? 0 : progress.getRejectOffset());
+					DuplicateFilter dedup = !options.isDeduplicateRows() ? null
+							: new DuplicateFilter(cols, duplicateKey(cols, options), options.getDuplicateMemory(), db.getDirectory())) {
+				LoadStats stats = new LoadStats();
+				stats.rejects = rejects;
+				stats.metrics = metrics;
+				stats.dedup = dedup;
+				stats.rejectDuplicates = options.isRejectDuplicates();
+				//the rows loaded before a checkpoint were profiled by the interrupted load, whose statistics are lost
+				if(options.isProfile() && progress == null)
+					stats.profile = new TableProfile(cols);
+				else if(options.isProfile())
+					System.out.println("The rows of " + tableName + " loaded before the interruption were not profiled; "
+							+ "the resumed load saves no profile");
+				if(progress != null) {
+					stats.received = progress.getReceived();
+					stats.good = progress.getGood();
+					stats.bad = progress.getBad();
+					//the records neither inserted nor rejected were duplicates, unless those are rejected too
+					if(dedup != null && !options.isRejectDuplicates())
+						stats.duplicates = stats.received - stats.good - stats.bad;
+				}
+				if(dedup != null && (progress != null || appending)) {
+					//an upsert in place mixes the rows it loaded with the rows the table had, which it replaces
+					if(progress != null && key.length > 0 && loadTable.equals(tableName))
+						throw new IllegalArgumentException("The rows upserted into " + tableName + " before the interruption "
+								+ "cannot be told from its earlier rows; resume without ConvertOptions.setDeduplicateRows");
+					if(key.length == 0 || !loadTable.equals(tableName))
+						db.addRows(tableName, loadTable, cols, dedup);
+				}
+				Checkpointer checkpoints = new Checkpointer(db, tableName, loadTable, csvPath, options.isCheckpoints());
+				long start = System.nanoTime();
+				insertSample(sample, sampleRaw, table, cols.length, stats);
+				if(pipelined)
+					pipeline.run(cols, progress == null ? 1 + sample.size() : 0, table, checkpoints, stats);
+				else
+					insertRows(csvReader, table, cols.length, options, checkpoints, stats);
+				stats.loadMillis = (System.nanoTime() - start) / 1000000;
+				
+				start = System.nanoTime();
+				buildIndexes(db, tableName, loadTable, cols, key, stats);
+				if(table.getDictionaries() != null) {
+					decodeOverflowed(db, tableName, table.getDictionaries(), options.getDictionaryLimit());
+					db.createDictionaryView(tableName);
+				}
+				long indexed = System.nanoTime();
+				metrics.add(IngestMetrics.Stage.INDEX, indexed - start);
+				db.clearProgress(tableName);
+				if(stats.profile != null)
+					db.saveProfile(tableName, stats.profile);
+				else if(options.isProfile())
+					db.clearProfile(tableName);
+				if(recordFile)
+					db.recordLoadedFile(tableName, csvPath, new File(csvPath).length(), stats.received, stats.good, stats.bad);
+				System.out.println(db.commit());
+				metrics.add(IngestMetrics.Stage.COMMIT, System.nanoTime() - indexed);
+				stats.indexMillis = (System.nanoTime() - start) / 1000000;
+				layOut(new Database[] {db}, tableName, cols, options, stats);
+				stats.publish();
+				metrics.finish();
+				if(table.getImageStore() != null)
+					System.out.println(table.getImageStore().getInserted() + " new images stored in "
+							+ table.getImageStore().getTableName());
+				for(int i = 0; table.getDictionaries() != null && i < cols.length; i++)
+					if(table.getDictionaries()[i] != null && !table.getDictionaries()[i].isOverflowed())
+						System.out.println(table.getDictionaries()[i].getInserted() + " new values of " + cols[i].getName()
+								+ " stored in " + table.getDictionaries()[i].getTableName());
+				
+				//Creates a log to record statistics, and a JSON report of the metrics next to it
+				logStats(db.getDirectory() + tableName + ".log", csvPath, stats);
+				metrics.writeJson(db.getDirectory() + tableName + "-metrics.json");
+				return stats;
+			}
 		}
 		finally {
+			metrics.finish();
 			if(table != null)
 				table.close();
 		}
 	}
 	
+	private static boolean hasImages(Variable[] cols) {
+		for(Variable col : cols)
+			if(col.getBinder() == ColumnBinder.PNG64)
+				return true;
+		return false;
+	}
+	
+	//A column with the index and the DATE or TIMESTAMP pattern given in the options
+	static Variable column(String name, String type, ConvertOptions options) {
+		Variable col = new Variable(name, type, options.getIndex(name));
+		if(type.equalsIgnoreCase("DATE"))
+			col.setPattern(options.getDatePattern());
+		else if(type.equalsIgnoreCase("TIMESTAMP"))
+			col.setPattern(options.getTimestampPattern());
+		return col;
+	}
+	
+	//Columns of an existing table, with the indexes given in the options
+	//Columns holding the ids of a dictionary of tableName are TEXT columns, whatever loadTable declares them as
+	private static Variable[] tableColumns(Database db, String tableName, String loadTable, ConvertOptions options) {
+		String[] names = db.getColumnNames(loadTable);
+		String[] varTypes = db.getColumnTypes(loadTable);
+		Variable[] cols = new Variable[names.length];
+		for(int i=0; i < cols.length; i++) {
+			boolean encoded = db.isDictionaryEncoded(tableName, names[i]);
+			cols[i] = column(names[i], encoded ? "TEXT" : varTypes[i], options);
+			cols[i].setDictionaryEncoded(encoded);
+		}
+		return cols;
+	}
+	
+	//Marks the TEXT columns whose values repeat in the sample, with at most limit distinct values, as dictionary encoded
+	private static void chooseDictionaryColumns(Variable[] cols, RecordBatch sample, int limit) {
+		for(int i = 0; i < cols.length; i++) {
+			if(!cols[i].getType().equalsIgnoreCase("TEXT"))
+				continue;
+			Set<String> distinct = new HashSet<String>();
+			int values = 0;
+			for(int row = 0; row < sample.size() && distinct.size() <= limit; row++) {
+				int start = sample.getFieldCount(row) == cols.length ? sample.getStart(row, i) : 0;
+				int end = sample.getFieldCount(row) == cols.length ? sample.getEnd(row, i) : 0;
+				if(start == end)
+					continue;
+				values++;
+				distinct.add(new String(sample.getChars(), start, end - start));
+			}
+			cols[i].setDictionaryEncoded(!distinct.isEmpty() && distinct.size() <= limit && 2 * distinct.size() <= values);
+		}
+	}
+	
+	//Indexes of the columns rows are deduplicated on, null for the whole row
+	private static int[] duplicateKey(Variable[] cols, ConvertOptions options) {
+		String[] key = options.getDuplicateKey();
+		if(key == null)
+			return null;
+		int[] columns = new int[key.length];
+		for(int i = 0; i < key.length; i++) {
+			columns[i] = -1;
+			for(int j = 0; j < cols.length; j++)
+				if(cols[j].getName().equalsIgnoreCase(key[i].trim()))
+					columns[i] = j;
+			if(columns[i] < 0)
+				throw new IllegalArgumentException("The duplicate key column " + key[i] + " is not a column of the csv");
+		}
+		return columns;
+	}
+	
+	//Opens the dictionaries of the encoded columns, returning null if no column is encoded
+	private static ValueDictionary[] openDictionaries(Database db, String tableName, Variable[] cols, int limit)
+			throws SQLException {
+		ValueDictionary[] dictionaries = null;
+		for(int i = 0; i < cols.length; i++) {
+			if(!cols[i].isDictionaryEncoded())
+				continue;
+			if(dictionaries == null)
+				dictionaries = new ValueDictionary[cols.length];
+			dictionaries[i] = db.openDictionary(tableName, cols[i].getName(), limit);
+		}
+		return dictionaries;
+	}
+	
+	//Decodes the encoded columns found to have more than limit distinct values back into TEXT
+	private static void decodeOverflowed(Database db, String tableName, ValueDictionary[] dictionaries, int limit)
+			throws SQLException {
+		String[] names = db.getColumnNames(tableName);
+		List<String> overflowed = new ArrayList<String>();
+		for(int i = 0; i < dictionaries.length; i++)
+			if(dictionaries[i] != null && dictionaries[i].isOverflowed())
+				overflowed.add(names[i]);
+		if(overflowed.isEmpty())
+			return;
+		System.out.println("More than " + limit + " distinct values in " + String.join(", ", overflowed)
+				+ ", storing them as TEXT");
+		for(ValueDictionary dictionary : dictionaries)
+			if(dictionary != null)
+				dictionary.close();
+		db.decodeColumns(tableName, overflowed.toArray(new String[0]));
+	}
+	
+	//Column types given in the options must be the types of the table the rows are added to
+	private static void checkColumnTypes(Variable[] cols, ConvertOptions options, String tableName) {
+		String[] types = options.getColumnTypes();
+		boolean match = types == null || types.length == cols.length;
+		for(int i = 0; types != null && match && i < cols.length; i++)
+			match = types[i].trim().equalsIgnoreCase(cols[i].getType());
+		if(!match)
+			throw new IllegalArgumentException("The column types " + String.join(",", types) + " do not match the columns of "
+					+ tableName);
+	}
+	
+	//The columns an upsert matches rows on: the PRIMARY_KEY columns of the options, or else the key of the table
+	private static String[] upsertKey(Database db, String tableName, Variable[] cols) {
+		String[] key = Database.columnsWith(cols, Variable.Index.PRIMARY_KEY);
+		if(key.length == 0 && db.containsTable(tableName))
+			key = db.getPrimaryKey(tableName);
+		if(key.length == 0)
+			throw new IllegalArgumentException("An upsert into " + tableName
+					+ " needs a key; mark its columns with ConvertOptions.setIndex(column, Variable.Index.PRIMARY_KEY)");
+		return key;
+	}
+	
+	//Makes sure the key of an upsert has a unique index, as required by ON CONFLICT
+	private static void indexKey(Database db, String tableName, String[] key) throws SQLException {
+		if(Arrays.equals(db.getPrimaryKey(tableName), key))
+			return;
+		try {
+			db.createIndex(tableName, tableName + "_pk", key, true);
+		}
+		catch (SQLException e) {
+			if(!isConstraintError(e))
+				throw e;
+			throw new SQLException("The rows of " + tableName + " are not unique on the key (" + String.join(", ", key) + ")", e);
+		}
+	}
+	
+	//An appended csv must have the columns of the table, in any order; returns the columns in the order of the csv
+	private static Variable[] orderColumns(String[] header, Variable[] cols, String csvPath, String tableName) {
+		Variable[] ordered = new Variable[cols.length];
+		boolean[] used = new boolean[cols.length];
+		boolean match = header.length == cols.length;
+		for(int i = 0; match && i < header.length; i++) {
+			for(int j = 0; j < cols.length && ordered[i] == null; j++) {
+				if(!used[j] && header[i].trim().equalsIgnoreCase(cols[j].getName())) {
+					ordered[i] = cols[j];
+					used[j] = true;
+				}
+			}
+			match = ordered[i] != null;
+		}
+		if(!match)
+			throw new IllegalArgumentException("The header of " + csvPath + " does not match the columns of " + tableName
+					+ ": " + String.join(",", header));
+		return ordered;
+	}
+	
+	//Reads the header of a csv on its own, for a load resumed past it
+	private static String[] readHeader(String csvPath, ConvertOptions options) throws IOException {
+		try (CsvTokenizer reader = new CsvTokenizer(openCsv(csvPath, options))) {
+			if(!reader.next())
+				throw new IOException("The csv " + csvPath + " is empty");
+			return reader.getFields();
+		}
+	}
+	
+	//Lays out the loaded table of every database with a LayoutOptimizer, if the options ask for it
+	static void layOut(Database[] dbs, String tableName, Variable[] cols, ConvertOptions options, LoadStats stats)
+			throws SQLException {
+		if(!LayoutOptimizer.isEnabled(options))
+			return;
+		long start = System.nanoTime();
+		String[] primaryKey = Database.columnsWith(cols, Variable.Index.PRIMARY_KEY);
+		List<String> reports = new ArrayList<String>();
+		for(Database db : dbs)
+			reports.add(new LayoutOptimizer(db, options).optimize(tableName, primaryKey));
+		stats.layout = String.join("\n", reports);
+		stats.layoutMillis = (System.nanoTime() - start) / 1000000;
+		System.out.println(stats.layout);
+	}
+	
+	//Moves a reader opened at the checkpoint's byte offset, or at the start of the csv if the offset is unknown, to its line
+	private static void seek(CsvTokenizer csvReader, IngestProgress progress) throws IOException {
+		if(progress.getByteOffset() >= 0) {
+			csvReader.setLineNumber(progress.getLineNumber());
+			csvReader.skipLeadingLineFeed();
+		}
+		else {
+			while(csvReader.getNextLineNumber() < progress.getLineNumber() && csvReader.next())
+				;
+		}
+	}
+	
+	/**
+	 * Adds the constraints and indexes of the columns to a loaded table
+	 * The primary key and UNIQUE indexes are built from the loaded rows; if a key turns out to have duplicates,
+	 * every row but the first of each key is moved to the bad csv and the index is built again.
+	 * When the rows were loaded into a staging table, the table is created with its primary key and the rows
+	 * are copied into it sorted by that key before the staging table is dropped.
+	 * @param upsertKey: for an upsert, the key the staging table is merged into the table on, otherwise empty
+	 */
+	static void buildIndexes(Database db, String tableName, String loadTable, Variable[] cols, String[] upsertKey,
+			LoadStats stats) throws IOException, SQLException {
+		String[] primaryKey = Database.columnsWith(cols, Variable.Index.PRIMARY_KEY);
+		if(!loadTable.equals(tableName) && upsertKey.length > 0) {
+			if(!db.containsTable(tableName)) {
+				Table merged = db.createNewTable(tableName, cols, true);
+				if(merged == null)
+					throw new SQLException("Could not create the table " + tableName);
+				merged.close();
+			}
+			indexKey(db, tableName, upsertKey);
+			db.mergeRows(loadTable, tableName, cols, upsertKey);
+			db.dropTable(loadTable);
+		}
+		else if(!loadTable.equals(tableName)) {
+			Table sorted = db.createNewTable(tableName, cols, true);
+			if(sorted == null)
+				throw new SQLException("Could not create the table " + tableName);
+			sorted.close();
+			try {
+				db.copyRows(loadTable, tableName, primaryKey);
+			}
+			catch (SQLException e) {
+				if(!isConstraintError(e))
+					throw e;
+				removeDuplicates(db, loadTable, primaryKey, "PRIMARY KEY", stats);
+				db.copyRows(loadTable, tableName, primaryKey);
+			}
+			db.dropTable(loadTable);
+		}
+		//a presorted table loaded earlier already declares its primary key, another table may have its index
+		else if(primaryKey.length > 0 && db.getPrimaryKey(tableName).length == 0)
+			createUniqueIndex(db, tableName, tableName + "_pk", primaryKey, "PRIMARY KEY", stats);
+		for(String column : Database.columnsWith(cols, Variable.Index.UNIQUE))
+			createUniqueIndex(db, tableName, tableName + "_" + column + "_unique", new String[] {column}, "UNIQUE", stats);
+		for(String column : Database.columnsWith(cols, Variable.Index.INDEX))
+			db.createIndex(tableName, tableName + "_" + column + "_idx", new String[] {column}, false);
+	}
+	
+	private static void createUniqueIndex(Database db, String tableName, String indexName, String[] key, String constraint,
+			LoadStats stats) throws IOException, SQLException {
+		try {
+			db.createIndex(tableName, indexName, key, true);
+		}
+		catch (SQLException e) {
+			if(!isConstraintError(e))
+				throw e;
+			removeDuplicates(db, tableName, key, constraint, stats);
+			db.createIndex(tableName, indexName, key, true);
+		}
+	}
+	
+	//Moves the rows repeating a key to the bad csv; their line numbers are no longer known
+	private static void removeDuplicates(Database db, String tableName, String[] key, String constraint, LoadStats stats)
+			throws IOException, SQLException {
+		String reason = "Duplicate " + constraint + " (" + String.join(", ", key) + ")";
+		try {
+			db.removeDuplicates(tableName, key, values -> {
+				try {
+					stats.rejectInserted(Collections.singletonList(new RejectedRow(0, reason, values)));
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+	
+	//SQLITE_CONSTRAINT, the result code of a statement violating a unique index
+	private static boolean isConstraintError(SQLException e) {
+		return (e.getErrorCode() & 0xff) == 19;
+	}
+	
+	/**
+	 * Chooses the column types, in order of preference:
+	 * the types given in the options, the types selected in the TypePrompt dialog if enabled,
+	 * or the types inferred from the sample
+	 */
+	static String[] chooseTypes(String[] header, RecordBatch sample, ConvertOptions options) {
+		if(options.getColumnTypes() != null) {
+			if(options.getColumnTypes().length != header.length)
+				throw new IllegalArgumentException("Expected " + header.length + " column types");
+			return options.getColumnTypes();
+		}
+		if(options.isPromptForTypes())
+			return new TypePrompt(header).launchApp();
+		TypeInference inference = new TypeInference(header.length, ColumnBinder.forType("DATE", options.getDatePattern()),
+				ColumnBinder.forType("TIMESTAMP", options.getTimestampPattern()));
+		for(int row = 0; row < sample.size(); row++)
+			inference.accept(sample, row);
+		return inference.getTypes();
+	}
+	
+	//Inserts the records read as the type sample, raw holds their text for the bad csv
+	private static void insertSample(RecordBatch sample, List<String> raw, Table table, int numColumns, LoadStats stats)
+			throws IOException, SQLException {
+		for(int row = 0; row < sample.size(); row++) {
+			stats.received++;
+			long line = sample.getLineNumber(row);
+			if(sample.getFieldCount(row) == numColumns) {
+				//a row failing the type check is not hashed, and is rejected by its insert
+				if(stats.dedup != null && stats.dedup.hash(sample, row) && stats.dedup.isDuplicate()) {
+					stats.duplicate(new RejectedRow(line, LoadStats.DUPLICATE, raw.get(row)));
+					continue;
+				}
+				try {
+					List<RejectedRow> failed = table.addBatch(sample, row);
+					stats.good++;
+					if(stats.dedup != null)
+						stats.dedup.addLast();
+					if(stats.profile != null)
+						stats.profile.add(sample, row);
+					stats.rejectInserted(failed);
+				}
+				catch (Exception e) {
+					stats.reject(new RejectedRow(line, e.getMessage(), raw.get(row)));
+				}
+			}
+			else
+				stats.reject(new RejectedRow(line, lengthMismatch(numColumns, sample.getFieldCount(row)), raw.get(row)));
+		}
+		stats.rejectInserted(table.executeBatch());
+	}
+	
+	//Inserts the remaining records of the csv on the calling thread, storing a checkpoint with every commit
+	private static void insertRows(CsvTokenizer csvReader, Table table, int numColumns, ConvertOptions options,
+			Checkpointer checkpoints, LoadStats stats) throws IOException, SQLException {
+		long lastCommit = table.getBatchCount();
+		long lastBatch = lastCommit;
+		while (true) {
+			//tokenizing time, the reads inside it are subtracted by IngestMetrics
+			long start = System.nanoTime();
+			boolean more = csvReader.next();
+			stats.metrics.add(IngestMetrics.Stage.PARSE, System.nanoTime() - start);
+			if(!more)
+				break;
+			stats.received++;
+			//if number of columns in entry is a match, insert into database
+			if(csvReader.getFieldCount()==numColumns) {
+				if(stats.dedup != null && stats.dedup.hash(csvReader) && stats.dedup.isDuplicate()) {
+					stats.duplicate(csvReader);
+					continue;
+				}
+				try{
+					List<RejectedRow> failed = table.addBatch(csvReader);
+					stats.good++;
+					//only rows passing the type check are remembered
+					if(stats.dedup != null)
+						stats.dedup.addLast();
+					if(stats.profile != null)
+						stats.profile.add(csvReader);
+					//rows of an executed batch that failed on replay
+					stats.rejectInserted(failed);
+				}
+				catch (Exception e) {
+					stats.reject(csvReader, e.getMessage());
+				}
+				if(table.getBatchCount() != lastBatch) {
+					stats.publish();
+					lastBatch = table.getBatchCount();
+				}
+				//a batch has just been executed, so every record read so far is in the table
+				if(table.getBatchCount() - lastCommit >= options.getCommitInterval()) {
+					checkpoints.commit(csvReader.getByteOffset(), csvReader.getNextLineNumber(), stats);
+					lastCommit = table.getBatchCount();
+				}
+			}
+			//otherwise, write entry to error csv
+			else {
+				stats.reject(csvReader, lengthMismatch(numColumns, csvReader.getFieldCount()));
+			}
+		}
+		stats.rejectInserted(table.executeBatch());
+		checkpoints.commit(csvReader.getByteOffset(), csvReader.getNextLineNumber(), stats);
+	}
+	
+	//Reason given for records with the wrong number of values
+	static String lengthMismatch(int expected, int found) {
+		return "Expected " + expected + " values but found " + found;
+	}
+	
+	/**
+	 * Opens the csv for reading in the charset given by the options
+	 * Regular files are read through memory-mapped buffers unless disabled in the options.
+	 * Files compressed with gzip or zstd are recognized by their first bytes and decompressed on a separate thread
+	 * (see DecompressingInputStream) while they are read.
+	 */
+	public static Reader openCsv(String csvPath, ConvertOptions options) throws IOException {
+		return openCsv(csvPath, options, 0);
+	}
+	
+	/**
+	 * Same as openCsv(csvPath, options), starting at a byte offset of the csv
+	 */
+	public static Reader openCsv(String csvPath, ConvertOptions options, long byteOffset) throws IOException {
+		return openCsv(csvPath, options, byteOffset, null);
+	}
+	
+	//Same as openCsv(csvPath, options, byteOffset), counting the bytes read from a stream in metrics if not null
+	static Reader openCsv(String csvPath, ConvertOptions options, long byteOffset, IngestMetrics metrics) throws IOException {
+		boolean regularFile = Files.isRegularFile(Paths.get(csvPath));
+		Compression compression = regularFile ? Compression.detect(csvPath) : Compression.NONE;
+		if(compression != Compression.NONE) {
+			//offsets of a compressed csv are not known, so its loads are resumed by line number
+			if(byteOffset > 0)
+				throw new IOException("Cannot start reading the compressed csv " + csvPath + " at a byte offset");
+			InputStream file = new FileInputStream(csvPath);
+			return new InputStreamReader(new DecompressingInputStream(compression.open(metrics == null ? file : metrics.countBytes(file)),
+					options.getDecompressBufferSize(), options.getDecompressBuffers()), options.getCharset());
+		}
+		if(options.isMemoryMapped() && regularFile)
+			return MappedCsvFile.open(csvPath, options.getCharset(), byteOffset);
+		FileInputStream in = new FileInputStream(csvPath);
+		if(byteOffset > 0)
+			in.getChannel().position(byteOffset);
+		return new InputStreamReader(metrics == null ? in : metrics.countBytes(in), options.getCharset());
+	}
+	
 	//Writes a list of records to a specified csv file
 	public static void writeToCsv(String fileName, List<String[]> records) throws IOException {
 		File file = new File(fileName);
@@ -137,6 +697,7 @@ public class CsvToSQLite {
 	}
 
 	//Parses out a filename from an absolute or relative path
+	//Everything after the first '.' is dropped, so compressed inputs such as data.csv.gz and data.csv.zst also give data
 	public static String parseFileName(String filePath) {
 		while(filePath.length() > 0 && filePath.endsWith("/"))
 			filePath=filePath.substring(0, filePath.length()-1);
@@ -145,15 +706,23 @@ public class CsvToSQLite {
 		return dotsplit[0];
 	}
 	
-	//Method to log statistics
-	private static void logStats(String filePath, int numReceived, int numGood, int numBad) throws SecurityException, IOException {
+	//Method to log statistics; synchronized so concurrent loads only write to their own log
+	static synchronized void logStats(String filePath, String csvPath, LoadStats stats) throws SecurityException, IOException {
         	boolean append = true;
         	FileHandler handler = new FileHandler(filePath, append);
         	Logger logger = Logger.getLogger(CsvToSQLite.class.getName());
         	logger.addHandler(handler);
-        	logger.info("Number of records received: " + numReceived + "\n"
-        			+ "Number of records successfully inserted: " + numGood + "\n"
-        			+ "Number of records failed: " + numBad);
+        	logger.info("Loaded " + csvPath + "\n"
+        			+ "Number of records received: " + stats.received + "\n"
+        			+ "Number of records successfully inserted: " + stats.good + "\n"
+        			+ "Number of records failed: " + stats.bad + "\n"
+        			+ (stats.dedup == null ? "" : "Number of duplicate records skipped: " + stats.duplicates
+        					+ (stats.rejectDuplicates ? " (counted as failed)" : "") + "\n")
+        			+ "Time spent inserting records: " + stats.loadMillis + " ms\n"
+        			+ "Time spent building indexes: " + stats.indexMillis + " ms"
+        			+ (stats.layout == null ? "" : "\nTime spent laying out the table: " + stats.layoutMillis + " ms\n"
+        					+ stats.layout));
+        	logger.removeHandler(handler);
         	handler.close();
 	}
 	
@@ -164,15 +733,62 @@ public class CsvToSQLite {
 	 * Terminates if a table with the same name already exists in the database.
 	 */
 	public static void convert(String directory, String csvFile) {
+		convert(directory, csvFile, new ConvertOptions());
+	}
+	
+	/**
+	 * Same as convert(directory, csvFile) using the given settings
+	 * The connection uses options.getLoadProfile() while the csv is loaded and the durable profile afterwards.
+	 * With options.getShards() above 1, the rows are written to several databases at once by ShardedLoad.
+	 */
+	public static void convert(String directory, String csvFile, ConvertOptions options) {
+		if(options.getShards() > 1) {
+			ShardedLoad.convert(directory, csvFile, options);
+			return;
+		}
 		String fileName = parseFileName(csvFile);
-		Database db = new Database(directory, fileName + ".db");
-		if(db.containsTable(fileName)) {
-			System.out.println("The table " + fileName + " already exists in " + fileName);
-			if(db != null)
-				db.close();
+		Database db = new Database(directory, fileName + ".db", options.getLoadProfile());
+		String refused = refusal(db, fileName, options, options.isAppend());
+		if(refused != null) {
+			System.out.println(refused);
+			db.close();
 			return;
 		}
-		csvToTable(db, fileName, csvFile);
+		try {
+			csvToTable(db, fileName, csvFile, options);
+		}
+		finally {
+			close(db, options);
+		}
+	}
+	
+	/**
+	 * Converts every file of inputDirectory matching glob, such as "*.csv", with a ConvertScheduler
+	 * Each table gets a database in directory, and files named after the same table are appended to it.
+	 * @return the outcome of every file
+	 */
+	public static RunSummary convertDirectory(String directory, String inputDirectory, String glob, ConvertOptions options)
+			throws IOException, InterruptedException {
+		return new ConvertScheduler(directory, options).convertDirectory(inputDirectory, glob);
+	}
+	
+	//Reason a csv cannot be loaded into the table, or null if it can
+	static String refusal(Database db, String tableName, ConvertOptions options, boolean append) {
+		boolean interrupted = db.getProgress(tableName) != null;
+		if(interrupted && !options.isResume())
+			return "The load of " + tableName + " was interrupted; set ConvertOptions.setResume(true) to continue it";
+		if(!interrupted && !append && db.containsTable(tableName))
+			return "The table " + tableName + " already exists in " + tableName;
+		return null;
+	}
+	
+	//Leaves the database in a durable state whether or not the load succeeded, and closes it
+	static void close(Database db, ConvertOptions options) {
+		if(options.getLoadProfile() != null) {
+			db.commit();
+			db.applyProfile(ConnectionProfile.durable());
+			db.optimize();
+		}
 		db.close();
 	}
 	
@@ -0,0 +1,418 @@
+package csv_to_sqlite;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ *
+ * Streaming RFC 4180 csv tokenizer
+ * Reads records from a Reader through a fixed char window and keeps the fields of the current record
+ * in a reused char buffer, so reading a record does not create any objects
+ * - Fields are separated by ',' and records by "\n", "\r\n" or "\r"
+ * - Fields may be enclosed in '"', in which case they may contain ',', newlines and '""' (an escaped quote)
+ * - Whitespace before an opening or after a closing quote is ignored
+ * - Unquoted fields consisting exclusively of whitespace characters are returned as empty fields
+ * The raw text of the current record, as it appeared in the input, is also kept so rejected records
+ * can be written out unchanged.
+ * A tokenizer is not thread safe; use one instance per thread.
+ */
+public class CsvTokenizer implements Closeable {
+
+	private static final int WINDOW_SIZE = 64 * 1024;
+
+	//states of the field state machine
+	private static final int FIELD_START = 0;
+	private static final int UNQUOTED = 1;
+	private static final int QUOTED = 2;
+	private static final int QUOTE_IN_QUOTED = 3;
+
+	private Reader in;
+	private char[] window;
+	private int pos;
+	private int limit;
+	private boolean eof;
+	//set after a '\r' so that a following '\n' is not read as an empty record
+	private boolean skipLineFeed;
+
+	//unescaped characters of the fields of the current record
+	private char[] chars = new char[1024];
+	private int length;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private int count;
+
+	//raw text of the current record: the part already moved out of the window, followed by window[rawStart, rawEnd)
+	private char[] rawSpill = new char[256];
+	private int rawSpillLength;
+	private int rawStart;
+	private int rawEnd;
+	private boolean recording;
+
+	//line number of the first line of the current record, and of the next line to be read
+	private long lineNumber;
+	private long nextLine = 1;
+
+	//receives the read time and, for memory-mapped input, the bytes read; may be null
+	private IngestMetrics metrics;
+	private long readPosition;
+
+	public CsvTokenizer(Reader in) {
+		this.in = in;
+		this.window = new char[WINDOW_SIZE];
+	}
+
+	/**
+	 * Creates a tokenizer with no input; call reset before reading
+	 */
+	public CsvTokenizer() {
+		this.window = new char[256];
+		this.eof = true;
+	}
+
+	/**
+	 * Replaces the input with a single string, reusing the buffers of this tokenizer
+	 * @param text: the csv text to read
+	 */
+	public void reset(String text) {
+		if(window.length < text.length())
+			window = new char[text.length()];
+		text.getChars(0, text.length(), window, 0);
+		in = null;
+		pos = 0;
+		limit = text.length();
+		eof = true;
+		skipLineFeed = false;
+		count = 0;
+		nextLine = 1;
+	}
+
+	/**
+	 * Reads the next record
+	 * @return false if the end of the input has been reached
+	 */
+	public boolean next() throws IOException {
+		count = 0;
+		length = 0;
+		if(skipLineFeed) {
+			if(pos == limit)
+				fill();
+			if(pos < limit && window[pos] == '\n')
+				pos++;
+			skipLineFeed = false;
+		}
+		if(pos == limit && !fill())
+			return false;
+		lineNumber = nextLine;
+		if(lineNumber == 1 && window[pos] == '\uFEFF')
+			pos++;
+		rawSpillLength = 0;
+		rawStart = pos;
+		recording = true;
+
+		int state = FIELD_START;
+		int fieldStart = 0;
+		boolean quoted = false;
+		while(true) {
+			if(pos == limit && !fill()) {
+				endField(fieldStart, quoted);
+				endRecord(pos);
+				nextLine++;
+				return true;
+			}
+			char c = window[pos++];
+			switch(state) {
+			case FIELD_START:
+			case UNQUOTED:
+				if(c == ',') {
+					endField(fieldStart, quoted);
+					fieldStart = length;
+					quoted = false;
+					state = FIELD_START;
+				}
+				else if(c == '\n' || c == '\r') {
+					endField(fieldStart, quoted);
+					endRecord(pos - 1);
+					skipLineFeed = c == '\r';
+					nextLine++;
+					return true;
+				}
+				else if(c == '"' && isBlank(fieldStart, length)) {
+					//drops whitespace preceding the opening quote
+					length = fieldStart;
+					quoted = true;
+					state = QUOTED;
+				}
+				else {
+					//copies the run of ordinary characters in one step
+					int run = pos - 1;
+					while(pos < limit) {
+						char d = window[pos];
+						if(d == ',' || d == '\n' || d == '\r' || d == '"')
+							break;
+						pos++;
+					}
+					append(window, run, pos - run);
+					state = UNQUOTED;
+				}
+				break;
+			case QUOTED:
+				if(c == '"')
+					state = QUOTE_IN_QUOTED;
+				else if(c == '\n') {
+					nextLine++;
+					append(c);
+				}
+				else {
+					int run = pos - 1;
+					while(pos < limit) {
+						char d = window[pos];
+						if(d == '"' || d == '\n')
+							break;
+						pos++;
+					}
+					append(window, run, pos - run);
+				}
+				break;
+			case QUOTE_IN_QUOTED:
+				if(c == '"') {
+					append('"');
+					state = QUOTED;
+				}
+				else if(c == ',') {
+					endField(fieldStart, quoted);
+					fieldStart = length;
+					quoted = false;
+					state = FIELD_START;
+				}
+				else if(c == '\n' || c == '\r') {
+					endField(fieldStart, quoted);
+					endRecord(pos - 1);
+					skipLineFeed = c == '\r';
+					nextLine++;
+					return true;
+				}
+				else if(!Character.isWhitespace(c)) {
+					//malformed input such as "a"b is read leniently as a"b
+					append(c);
+					state = QUOTED;
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of fields in the current record
+	 */
+	public int getFieldCount() {
+		return count;
+	}
+
+	/**
+	 * @return the value of field i of the current record as a new string
+	 */
+	public String getField(int i) {
+		return new String(chars, starts[i], ends[i] - starts[i]);
+	}
+
+	/**
+	 * @return a new array containing every field of the current record
+	 */
+	public String[] getFields() {
+		String[] fields = new String[count];
+		for(int i = 0; i < count; i++)
+			fields[i] = getField(i);
+		return fields;
+	}
+
+	/**
+	 * @return the buffer holding the fields of the current record, valid until the next call to next()
+	 */
+	public char[] getBuffer() {
+		return chars;
+	}
+
+	public int getFieldStart(int i) {
+		return starts[i];
+	}
+
+	public int getFieldLength(int i) {
+		return ends[i] - starts[i];
+	}
+
+	/**
+	 * @return the current record exactly as it appeared in the input, without its line break
+	 */
+	public String getRawRecord() {
+		StringBuilder raw = new StringBuilder(rawSpillLength + rawEnd - rawStart);
+		raw.append(rawSpill, 0, rawSpillLength);
+		raw.append(window, rawStart, rawEnd - rawStart);
+		return raw.toString();
+	}
+
+	/**
+	 * @return the number of characters of the raw record
+	 */
+	public int getRawLength() {
+		return rawSpillLength + rawEnd - rawStart;
+	}
+
+	/**
+	 * Writes the current record exactly as it appeared in the input, without its line break
+	 */
+	public void writeRawRecord(Writer out) throws IOException {
+		out.write(rawSpill, 0, rawSpillLength);
+		out.write(window, rawStart, rawEnd - rawStart);
+	}
+
+	/**
+	 * @return the line number on which the current record starts, starting from 1
+	 */
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Sets the line number of the next line to be read, for input that does not start at the top of a file
+	 */
+	public void setLineNumber(long nextLine) {
+		this.nextLine = nextLine;
+	}
+
+	/**
+	 * @return the line number on which the next record starts
+	 */
+	public long getNextLineNumber() {
+		return nextLine;
+	}
+
+	/**
+	 * Returns the offset in the input file of the first byte after the current record and its line break
+	 * Only known for input read through MappedCsvFile; the characters still waiting in the window are
+	 * encoded again to find how many of the decoded bytes they take up. A '\n' following a '\r' line break
+	 * that has not been read yet is not included, see skipLeadingLineFeed.
+	 * @return the byte offset, or -1 if the input does not report byte positions
+	 */
+	public long getByteOffset() {
+		if(!(in instanceof MappedCsvFile.RegionReader))
+			return -1;
+		MappedCsvFile.RegionReader reader = (MappedCsvFile.RegionReader) in;
+		int first = pos;
+		if(skipLineFeed && first < limit && window[first] == '\n')
+			first++;
+		try {
+			CharsetEncoder encoder = reader.getCharset().newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			return reader.position() - encoder.encode(CharBuffer.wrap(window, first, limit - first)).remaining();
+		}
+		catch(CharacterCodingException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Skips a '\n' at the start of the input, for input starting at a byte offset returned by getByteOffset
+	 * that may fall between the '\r' and the '\n' of a line break
+	 */
+	public void skipLeadingLineFeed() {
+		skipLineFeed = true;
+	}
+
+	/**
+	 * Records the time spent reading the input; the bytes of other inputs than a MappedCsvFile are counted
+	 * by the stream they are read from, see IngestMetrics.countBytes
+	 */
+	void setMetrics(IngestMetrics metrics) {
+		this.metrics = metrics;
+		if(in instanceof MappedCsvFile.RegionReader)
+			readPosition = ((MappedCsvFile.RegionReader) in).position();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(in != null)
+			in.close();
+	}
+
+	//Refills the window from the reader, returns false at the end of the input
+	private boolean fill() throws IOException {
+		if(recording) {
+			//moves the raw text of the record read so far out of the window
+			int len = limit - rawStart;
+			if(rawSpillLength + len > rawSpill.length)
+				rawSpill = Arrays.copyOf(rawSpill, Math.max(rawSpill.length * 2, rawSpillLength + len));
+			System.arraycopy(window, rawStart, rawSpill, rawSpillLength, len);
+			rawSpillLength += len;
+			rawStart = 0;
+		}
+		if(eof)
+			return false;
+		long started = metrics == null ? 0 : System.nanoTime();
+		int n;
+		do {
+			n = in.read(window, 0, window.length);
+		} while(n == 0);
+		if(metrics != null) {
+			metrics.add(IngestMetrics.Stage.READ, System.nanoTime() - started);
+			if(in instanceof MappedCsvFile.RegionReader) {
+				long position = ((MappedCsvFile.RegionReader) in).position();
+				metrics.addBytes(position - readPosition);
+				readPosition = position;
+			}
+		}
+		if(n < 0) {
+			eof = true;
+			pos = limit = 0;
+			return false;
+		}
+		pos = 0;
+		limit = n;
+		return true;
+	}
+
+	private void endRecord(int end) {
+		rawEnd = end;
+		recording = false;
+	}
+
+	private void append(char c) {
+		if(length == chars.length)
+			chars = Arrays.copyOf(chars, chars.length * 2);
+		chars[length++] = c;
+	}
+
+	private void append(char[] src, int offset, int len) {
+		if(length + len > chars.length)
+			chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + len));
+		System.arraycopy(src, offset, chars, length, len);
+		length += len;
+	}
+
+	//Records the field ending at the current length, unquoted blank fields become empty
+	private void endField(int start, boolean quoted) {
+		if(count == starts.length) {
+			starts = Arrays.copyOf(starts, count * 2);
+			ends = Arrays.copyOf(ends, count * 2);
+		}
+		if(!quoted && isBlank(start, length))
+			length = start;
+		starts[count] = start;
+		ends[count] = length;
+		count++;
+	}
+
+	private boolean isBlank(int start, int end) {
+		for(int i = start; i < end; i++)
+			if(!Character.isWhitespace(chars[i]))
+				return false;
+		return true;
+	}
+}
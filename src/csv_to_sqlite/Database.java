@@ -1,36 +1,67 @@
 package csv_to_sqlite;
 import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 
 public class Database {
 	
+	private static final int STATEMENT_CACHE_SIZE = 32;
+	
 	private String directory;
 	private String dbName;
 	private Connection conn;
+	//prepared statements by SQL, shared with the Tables of this database
+	private StatementCache statements;
+	//columns of the tables read so far
+	private SchemaCatalog catalog;
 	
 	public Database(String directory, String dbName) {
+		this(directory, dbName, null);
+	}
+	
+	/**
+	 * Connects to the database and applies the given profile, or leaves the SQLite defaults if profile is null
+	 */
+	public Database(String directory, String dbName, ConnectionProfile profile) {
 		this.directory=directory;
 		this.dbName=dbName;
 		conn=this.connect(directory, dbName);
+		statements = new StatementCache(conn, STATEMENT_CACHE_SIZE);
+		catalog = new SchemaCatalog(statements);
+		if(conn != null && profile != null)
+			applyProfile(profile);
 	}
 	
 	public String getDirectory() {
 		return directory;
 	}
 	
+	/**
+	 * @return the path of the database file
+	 */
+	public String getPath() {
+		return (directory.endsWith("/") ? directory : directory + "/") + (dbName.endsWith(".db") ? dbName : dbName + ".db");
+	}
+	
 	/**
 	 * Closes the connection to the database
 	 * Call this function when done with the database
 	 */
 	public void close(){
+		statements.clear();
 		try{
 			conn.close();
 		}
@@ -53,6 +84,22 @@ public class Database {
 		}
 		return false;
 	}
+	
+	/**
+	 * Discards the queries since the last commit
+	 * returns true on successful rollback
+	 */
+	public boolean rollback() {
+		catalog.clear();
+		try{
+			conn.rollback();
+			return true;
+		}
+		catch (SQLException e) {
+			System.out.println(e.getMessage());
+		}
+		return false;
+	}
 
 	 /**
 	  * @param directory: name of directory containing the database
@@ -86,6 +133,50 @@ public class Database {
 		 return conn;
 	 }
 	
+	 /**
+	  * Executes the pragmas of a ConnectionProfile, committing any open transaction first
+	  * The journal mode cannot change inside a transaction, so autocommit is turned on while the pragmas run.
+	  * @return true if every pragma was executed
+	  */
+	 public boolean applyProfile(ConnectionProfile profile) {
+		 try {
+			 conn.setAutoCommit(true);
+			 try (Statement stmt = conn.createStatement()) {
+				 for(String pragma : profile.getPragmas())
+					 stmt.execute(pragma);
+			 }
+			 finally {
+				 conn.setAutoCommit(false);
+			 }
+			 System.out.println("Applied the " + profile.getName() + " profile to " + dbName);
+			 return true;
+		 }
+		 catch (SQLException e) {
+			 System.out.println(e.getMessage());
+			 return false;
+		 }
+	 }
+	 
+	 /**
+	  * Commits, moves the contents of the write-ahead log into the database file if there is one,
+	  * and lets SQLite gather the statistics its query planner is missing
+	  */
+	 public void optimize() {
+		 try {
+			 conn.setAutoCommit(true);
+			 try (Statement stmt = conn.createStatement()) {
+				 stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+				 stmt.execute("PRAGMA optimize");
+			 }
+			 finally {
+				 conn.setAutoCommit(false);
+			 }
+		 }
+		 catch (SQLException e) {
+			 System.out.println(e.getMessage());
+		 }
+	 }
+	
 	 /**
 	  * Creates a table in the database and returns the corresponding Table object
 	  * Does nothing and returns null if the table already exists in the database
@@ -94,6 +185,15 @@ public class Database {
 	  * @return a corresponding Table object
 	  */
 	 public Table createNewTable(String tableName, Variable[] cols) {
+		 return createNewTable(tableName, cols, true);
+	 }
+	 
+	 /**
+	  * Same as createNewTable(tableName, cols), optionally leaving out the primary key
+	  * Indexes of UNIQUE and INDEX columns are never created here, see createIndexes.
+	  * @param primaryKey: whether the columns marked PRIMARY_KEY are declared as the primary key of the table
+	  */
+	 public Table createNewTable(String tableName, Variable[] cols, boolean primaryKey) {
 		 if(containsTable(tableName)) {
 			 System.out.println("Error: the table " + tableName + " already exists in " + dbName);
 			 return null;
@@ -101,21 +201,25 @@ public class Database {
 		 // constructs an SQLite query using the tableName and column names+types
 		 String sql = "CREATE TABLE IF NOT EXISTS " + tableName + "(\n";
 		 //		 + "	id integer PRIMARY KEY,\n";
+		 String[] key = primaryKey ? columnsWith(cols, Variable.Index.PRIMARY_KEY) : new String[0];
 		 for(int i=0; i<cols.length; i++) {
-			 if(i<cols.length-1) {
-				 sql += "	" + cols[i].getName() + " " + cols[i].getType() + ",\n"; 
+			 if(i<cols.length-1 || key.length > 0) {
+				 sql += "	" + cols[i].getName() + " " + cols[i].getDeclaredType() + ",\n"; 
 			 }
 			 else
-				 sql += "	" + cols[i].getName() + " " + cols[i].getType() + "\n";
+				 sql += "	" + cols[i].getName() + " " + cols[i].getDeclaredType() + "\n";
 		 }
+		 if(key.length > 0)
+			 sql += "	PRIMARY KEY(" + String.join(", ", key) + ")\n";
 		 sql+=");";
 		 System.out.println(sql);
 		 try (Statement stmt = conn.createStatement()) {
 			 // create a new table
 			 stmt.execute(sql);
+			 catalog.invalidate(tableName);
 			 System.out.println("Table " + tableName + " has been created");
 			 // returns a corresponding Table object
-			 return new Table(conn, tableName, cols);
+			 return new Table(conn, tableName, cols, statements);
 		 } catch (SQLException e) {
 			 System.out.println(e.getMessage());
 			 //returns null on failure
@@ -123,45 +227,656 @@ public class Database {
 		 }
 	 }
 	 
+	 /**
+	  * Opens the side table holding the images of the PNG64 columns of a table, creating it if needed
+	  */
+	 ImageStore openImageStore(String tableName) throws SQLException {
+		 return new ImageStore(conn, tableName + "_images");
+	 }
+
+	 /**
+	  * Opens the dictionary of a dictionary encoded column of a table, creating its side table if needed
+	  * @param limit: number of distinct values the column may have before it is decoded, see ValueDictionary
+	  */
+	 ValueDictionary openDictionary(String tableName, String column, int limit) throws SQLException {
+		 return new ValueDictionary(conn, ValueDictionary.sideTable(tableName, column), limit);
+	 }
+
+	 /**
+	  * @return whether the column of the table holds the ids of a dictionary side table
+	  */
+	 boolean isDictionaryEncoded(String tableName, String column) {
+		 return containsTable(ValueDictionary.sideTable(tableName, column));
+	 }
+
+	 /**
+	  * Adds the rows of loadTable to the filter, so the rows of a resumed or appended load that repeat them are found
+	  * Rows repeating another row of the table are only added once.
+	  * @param tableName: the table whose images and dictionaries loadTable uses
+	  * @param cols: the columns of loadTable, as they are loaded
+	  */
+	 void addRows(String tableName, String loadTable, Variable[] cols, DuplicateFilter dedup)
+			 throws SQLException, IOException {
+		 String[] names = new String[cols.length];
+		 CsvExporter.Format[] formats = new CsvExporter.Format[cols.length];
+		 boolean[] encoded = new boolean[cols.length];
+		 for(int i = 0; i < cols.length; i++) {
+			 names[i] = cols[i].getName();
+			 formats[i] = cols[i].getBinder() == ColumnBinder.PNG64 ? CsvExporter.Format.PNG64 : CsvExporter.Format.TEXT;
+			 encoded[i] = cols[i].isDictionaryEncoded();
+		 }
+		 String sql = CsvExporter.selectSql(tableName, loadTable, names, formats, containsTable(tableName + "_images"), encoded);
+		 ColumnBatch row = new ColumnBatch(cols, 1);
+		 try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+			 while(rs.next()) {
+				 row.clear();
+				 row.addRow(rs);
+				 dedup.hash(row, 0);
+				 if(!dedup.isDuplicate())
+					 dedup.addLast();
+			 }
+		 }
+	 }
+
+	 /**
+	  * Replaces the ids of dictionary encoded columns of a table by their values, declaring the columns TEXT,
+	  * and drops their side tables
+	  * SQLite cannot change the type of a column, so the table is rebuilt, see rebuildTable.
+	  */
+	 void decodeColumns(String tableName, String[] columns) throws SQLException {
+		 SchemaCatalog.TableSchema schema = catalog.get(tableName);
+		 List<String> decoded = Arrays.asList(columns);
+		 String[] declarations = new String[schema.names.length];
+		 String[] values = new String[schema.names.length];
+		 for(int i = 0; i < schema.names.length; i++) {
+			 String name = schema.names[i];
+			 boolean text = decoded.contains(name);
+			 declarations[i] = name + " " + (text ? "TEXT" : schema.types[i]);
+			 values[i] = text ? "(SELECT value FROM " + ValueDictionary.sideTable(tableName, name) + " WHERE id = t." + name + ")"
+					 : "t." + name;
+		 }
+		 try (Statement stmt = conn.createStatement()) {
+			 stmt.execute("DROP VIEW IF EXISTS " + ValueDictionary.view(tableName));
+		 }
+		 String tableOptions = getTableOptions(tableName);
+		 rebuildTable(tableName, declarations, values, schema.primaryKey, tableOptions,
+				 hasRowid(tableOptions) ? "t.rowid" : "", new HashSet<String>());
+		 try (Statement stmt = conn.createStatement()) {
+			 for(String column : columns)
+				 stmt.execute("DROP TABLE " + ValueDictionary.sideTable(tableName, column));
+		 }
+		 for(String column : columns)
+			 catalog.invalidate(ValueDictionary.sideTable(tableName, column));
+	 }
+
+	 /**
+	  * Copies a table into a new table, which takes the name of the table and gets its indexes again
+	  * SQLite cannot change the type or the order of columns, or whether a table has a rowid, so tables are changed
+	  * by copying them. Views over the table are left alone.
+	  * @param columns: declarations of the columns of the new table, such as "id INTEGER"
+	  * @param values: expressions over the rows t of the table giving the values of the columns
+	  * @param primaryKey: the columns of the primary key of the new table, empty for none
+	  * @param tableOptions: such as " WITHOUT ROWID", empty for none
+	  * @param orderBy: the order the rows are copied in, empty for the order of the table
+	  * @param droppedIndexes: names of the indexes of the table that are not created again
+	  */
+	 void rebuildTable(String tableName, String[] columns, String[] values, String[] primaryKey, String tableOptions,
+			 String orderBy, Set<String> droppedIndexes) throws SQLException {
+		 String rebuilt = tableName + "_rebuilt";
+		 String create = "CREATE TABLE " + rebuilt + "(\n";
+		 for(int i = 0; i < columns.length; i++)
+			 create += "	" + columns[i] + (i < columns.length - 1 || primaryKey.length > 0 ? ",\n" : "\n");
+		 if(primaryKey.length > 0)
+			 create += "	PRIMARY KEY(" + String.join(", ", primaryKey) + ")\n";
+		 create += ")" + tableOptions;
+		 String select = "INSERT INTO " + rebuilt + " SELECT " + String.join(", ", values) + " FROM " + tableName + " t"
+				 + (orderBy.isEmpty() ? "" : " ORDER BY " + orderBy);
+		 List<String> indexes = new ArrayList<String>();
+		 PreparedStatement indexSql = statements.prepare(
+				 "SELECT name, sql FROM sqlite_master WHERE type = 'index' AND tbl_name = ? AND sql IS NOT NULL");
+		 indexSql.setString(1, tableName);
+		 try (ResultSet rs = indexSql.executeQuery()) {
+			 while(rs.next())
+				 if(!droppedIndexes.contains(rs.getString(1)))
+					 indexes.add(rs.getString(2));
+		 }
+		 try (Statement stmt = conn.createStatement()) {
+			 stmt.execute("DROP TABLE IF EXISTS " + rebuilt);
+			 stmt.execute(create);
+			 stmt.executeUpdate(select);
+			 stmt.execute("DROP TABLE " + tableName);
+			 //leaves other views over the table alone instead of checking them against the dropped table
+			 stmt.execute("PRAGMA legacy_alter_table = ON");
+			 try {
+				 stmt.execute("ALTER TABLE " + rebuilt + " RENAME TO " + tableName);
+			 }
+			 finally {
+				 stmt.execute("PRAGMA legacy_alter_table = OFF");
+			 }
+			 for(String index : indexes)
+				 stmt.execute(index);
+		 }
+		 catalog.invalidate(tableName);
+		 catalog.invalidate(rebuilt);
+	 }
+
+	 /**
+	  * @return the options following the column definitions of a table, such as " WITHOUT ROWID", empty for none
+	  */
+	 String getTableOptions(String tableName) throws SQLException {
+		 PreparedStatement tableSql = statements.prepare("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?");
+		 tableSql.setString(1, tableName);
+		 try (ResultSet rs = tableSql.executeQuery()) {
+			 if(!rs.next())
+				 throw new SQLException("The table " + tableName + " does not exist in " + dbName);
+			 String sql = rs.getString(1).trim();
+			 //column types may have a size in parentheses, table options have none
+			 return sql.substring(sql.lastIndexOf(')') + 1);
+		 }
+	 }
+
+	 /**
+	  * @return whether a table with the given options, see getTableOptions, has a rowid
+	  */
+	 static boolean hasRowid(String tableOptions) {
+		 return !tableOptions.toUpperCase().replaceAll("\\s+", " ").contains("WITHOUT ROWID");
+	 }
+
+	 /**
+	  * Measures the rows of a table from the text length of their values, which is the size of TEXT and BLOB values
+	  * and the number of digits of numbers
+	  * @return the average length of the rows and of their key columns, and the number of rows with a NULL in the key
+	  */
+	 double[] measureRows(String tableName, String[] columns, String[] key) throws SQLException {
+		 String row = "0";
+		 for(String column : columns)
+			 row += " + ifnull(length(" + column + "), 0)";
+		 String keyLength = "0";
+		 String keyNull = "0";
+		 for(String column : key) {
+			 keyLength += " + ifnull(length(" + column + "), 0)";
+			 keyNull += " OR " + column + " IS NULL";
+		 }
+		 try (Statement stmt = conn.createStatement();
+				 ResultSet rs = stmt.executeQuery("SELECT ifnull(avg(" + row + "), 0), ifnull(avg(" + keyLength + "), 0), total("
+						 + keyNull + ") FROM " + tableName)) {
+			 rs.next();
+			 return new double[] {rs.getDouble(1), rs.getDouble(2), rs.getDouble(3)};
+		 }
+	 }
+
+	 /**
+	  * @return the version of the SQLite library, such as 3.30.1
+	  */
+	 String getSqliteVersion() throws SQLException {
+		 try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT sqlite_version()")) {
+			 rs.next();
+			 return rs.getString(1);
+		 }
+	 }
+
+	 /**
+	  * Commits and moves the contents of the write-ahead log, if there is one, into the database file so the file
+	  * holds every page
+	  * @return the size of the file, the page size, the number of pages and the number of free pages
+	  */
+	 long[] measureFile() throws SQLException {
+		 executeOutsideTransaction("PRAGMA wal_checkpoint(TRUNCATE)");
+		 long[] sizes = new long[4];
+		 sizes[0] = new File(getPath()).length();
+		 String[] pragmas = {"page_size", "page_count", "freelist_count"};
+		 try (Statement stmt = conn.createStatement()) {
+			 for(int i = 0; i < pragmas.length; i++) {
+				 try (ResultSet rs = stmt.executeQuery("PRAGMA " + pragmas[i])) {
+					 rs.next();
+					 sizes[i + 1] = rs.getLong(1);
+				 }
+			 }
+		 }
+		 return sizes;
+	 }
+
+	 /**
+	  * Gathers the statistics of the indexes of a table for the query planner, then lets SQLite run the analysis
+	  * it finds missing elsewhere
+	  */
+	 void analyze(String tableName) throws SQLException {
+		 try (Statement stmt = conn.createStatement()) {
+			 stmt.execute("ANALYZE " + tableName);
+			 stmt.execute("PRAGMA optimize");
+		 }
+	 }
+
+	 /**
+	  * Rebuilds the database file with VACUUM, committing the open transaction first, which returns its free pages
+	  * to the file system
+	  */
+	 void vacuum() throws SQLException {
+		 executeOutsideTransaction("VACUUM");
+	 }
+
+	 /**
+	  * Writes a copy of the database into a new file with VACUUM INTO, committing the open transaction first
+	  * The copy has no free pages and every table and index in consecutive pages.
+	  */
+	 void vacuumInto(String path) throws SQLException {
+		 executeOutsideTransaction("VACUUM INTO '" + path.replace("'", "''") + "'");
+	 }
+
+	 /**
+	  * Creates the view <table>_view showing the rows of a table with the values of its dictionary encoded columns
+	  * in place of their ids, replacing the view if it exists; drops it if no column is encoded
+	  */
+	 void createDictionaryView(String tableName) throws SQLException {
+		 SchemaCatalog.TableSchema schema = catalog.get(tableName);
+		 boolean encoded = false;
+		 String select = "SELECT ";
+		 for(int i = 0; i < schema.names.length; i++) {
+			 String name = schema.names[i];
+			 select += i > 0 ? ", " : "";
+			 if(isDictionaryEncoded(tableName, name)) {
+				 encoded = true;
+				 select += "(SELECT value FROM " + ValueDictionary.sideTable(tableName, name) + " WHERE id = t." + name
+						 + ") AS " + name;
+			 }
+			 else
+				 select += "t." + name;
+		 }
+		 try (Statement stmt = conn.createStatement()) {
+			 stmt.execute("DROP VIEW IF EXISTS " + ValueDictionary.view(tableName));
+			 if(encoded)
+				 stmt.execute("CREATE VIEW " + ValueDictionary.view(tableName) + " AS " + select + " FROM " + tableName + " t");
+		 }
+	 }
+
+	 /**
+	  * @return the names of the columns with the given index, in column order
+	  */
+	 static String[] columnsWith(Variable[] cols, Variable.Index index) {
+		 List<String> names = new ArrayList<String>();
+		 for(Variable col : cols)
+			 if(col.getIndex() == index)
+				 names.add(col.getName());
+		 return names.toArray(new String[0]);
+	 }
+	 
+	 /**
+	  * Creates an index on the given columns of a table, unless an index with that name already exists
+	  * @param indexName: the name of the index
+	  * @param unique: whether the index rejects duplicate values
+	  * @throws SQLException if the index cannot be created, for example because a unique index finds duplicates
+	  */
+	 public void createIndex(String tableName, String indexName, String[] columns, boolean unique) throws SQLException {
+		 String sql = "CREATE " + (unique ? "UNIQUE " : "") + "INDEX IF NOT EXISTS " + indexName + " ON " + tableName
+				 + "(" + String.join(", ", columns) + ")";
+		 System.out.println(sql);
+		 try (Statement stmt = conn.createStatement()) {
+			 stmt.execute(sql);
+		 }
+	 }
+	 
+	 /**
+	  * Copies every row of one table into another table with the same columns, in the given order
+	  * Inserting rows sorted by the primary key of the target only ever appends to its B-tree.
+	  * @param orderBy: the columns the rows are sorted by
+	  * @throws SQLException if a row violates a constraint of the target; no rows are copied in that case
+	  */
+	 public void copyRows(String fromTable, String toTable, String[] orderBy) throws SQLException {
+		 String sql = "INSERT INTO " + toTable + " SELECT * FROM " + fromTable
+				 + (orderBy.length > 0 ? " ORDER BY " + String.join(", ", orderBy) : "");
+		 try (Statement stmt = conn.createStatement()) {
+			 stmt.executeUpdate(sql);
+		 }
+	 }
+	 
+	 /**
+	  * Attaches another database file under a schema name, so its tables can be read as schemaName.table
+	  * SQLite cannot attach inside a transaction, so the open transaction is committed first.
+	  */
+	 public void attach(String path, String schemaName) throws SQLException {
+		 executeOutsideTransaction("ATTACH DATABASE '" + path.replace("'", "''") + "' AS " + schemaName);
+	 }
+
+	 /**
+	  * Detaches a database attached with attach, committing the open transaction first
+	  */
+	 public void detach(String schemaName) throws SQLException {
+		 executeOutsideTransaction("DETACH DATABASE " + schemaName);
+	 }
+
+	 private void executeOutsideTransaction(String sql) throws SQLException {
+		 conn.commit();
+		 conn.setAutoCommit(true);
+		 try (Statement stmt = conn.createStatement()) {
+			 stmt.execute(sql);
+		 }
+		 finally {
+			 conn.setAutoCommit(false);
+		 }
+	 }
+
+	 /**
+	  * Merges the rows of a table into another table with the same columns
+	  * Rows whose key is not in toTable are inserted; the others update the row with their key, so of several
+	  * rows with the same key the last one wins. The rows are read in key order so the index is updated in order.
+	  * @param key: columns of the primary key or of a unique index of toTable
+	  */
+	 public void mergeRows(String fromTable, String toTable, Variable[] cols, String[] key) throws SQLException {
+		 String[] names = new String[cols.length];
+		 for(int i = 0; i < cols.length; i++)
+			 names[i] = cols[i].getName();
+		 String columns = String.join(", ", names);
+		 //WHERE true tells the ON CONFLICT of the upsert apart from a join constraint
+		 String sql = "INSERT INTO " + toTable + "(" + columns + ") SELECT " + columns + " FROM " + fromTable
+				 + " WHERE true ORDER BY " + String.join(", ", key) + ", rowid " + upsertClause(cols, key);
+		 try (Statement stmt = conn.createStatement()) {
+			 stmt.executeUpdate(sql);
+		 }
+	 }
+	 
+	 /**
+	  * @return the ON CONFLICT clause making an insert into the columns update the row with the same key
+	  */
+	 static String upsertClause(Variable[] cols, String[] key) {
+		 List<String> keyColumns = Arrays.asList(key);
+		 List<String> updates = new ArrayList<String>();
+		 for(Variable col : cols)
+			 if(!keyColumns.contains(col.getName()))
+				 updates.add(col.getName() + " = excluded." + col.getName());
+		 String conflict = "ON CONFLICT(" + String.join(", ", key) + ") DO ";
+		 return updates.isEmpty() ? conflict + "NOTHING" : conflict + "UPDATE SET " + String.join(", ", updates);
+	 }
+	 
+	 /**
+	  * Deletes every row sharing its key with a row inserted before it, keeping the first row of each key
+	  * Rows with a null key column are kept, since they never violate a unique index.
+	  * @param key: the columns that must be unique
+	  * @param removed: receives the values of every deleted row, in insertion order
+	  * @return the number of deleted rows
+	  */
+	 public int removeDuplicates(String tableName, String[] key, Consumer<String[]> removed) throws SQLException {
+		 String where = " WHERE rowid NOT IN (SELECT min(rowid) FROM " + tableName
+				 + " GROUP BY " + String.join(", ", key) + ")";
+		 for(String column : key)
+			 where += " AND " + column + " IS NOT NULL";
+		 try (Statement stmt = conn.createStatement()) {
+			 try (ResultSet rs = stmt.executeQuery("SELECT * FROM " + tableName + where + " ORDER BY rowid")) {
+				 int count = rs.getMetaData().getColumnCount();
+				 while(rs.next()) {
+					 String[] values = new String[count];
+					 for(int i = 0; i < count; i++) {
+						 Object value = rs.getObject(i + 1);
+						 //blobs only come from PNG64 columns
+						 values[i] = value == null ? "" : value instanceof byte[]
+								 ? "data:image/png;base64," + Base64.getEncoder().encodeToString((byte[]) value)
+								 : value.toString();
+					 }
+					 removed.accept(values);
+				 }
+			 }
+			 return stmt.executeUpdate("DELETE FROM " + tableName + where);
+		 }
+	 }
+	 
+	 /**
+	  * Stores the progress of a load, replacing the previous checkpoint of the same table
+	  * Call this before commit so the checkpoint is committed together with the rows it counts.
+	  */
+	 public void saveProgress(IngestProgress progress) throws SQLException {
+		 if(!containsTable(IngestProgress.TABLE)) {
+			 try (Statement stmt = conn.createStatement()) {
+				 stmt.execute("CREATE TABLE IF NOT EXISTS " + IngestProgress.TABLE + "(\n"
+						 + "	table_name TEXT PRIMARY KEY,\n"
+						 + "	load_table TEXT,\n"
+						 + "	csv_path TEXT,\n"
+						 + "	byte_offset INTEGER,\n"
+						 + "	line_number INTEGER,\n"
+						 + "	received INTEGER,\n"
+						 + "	good INTEGER,\n"
+						 + "	bad INTEGER,\n"
+						 + "	reject_file INTEGER,\n"
+						 + "	reject_offset INTEGER,\n"
+						 + "	updated_at TEXT\n"
+						 + ")");
+			 }
+		 }
+		 String sql = "INSERT OR REPLACE INTO " + IngestProgress.TABLE + " VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, datetime('now'))";
+		 PreparedStatement stmt = statements.prepare(sql);
+		 stmt.setString(1, progress.getTableName());
+		 stmt.setString(2, progress.getLoadTable());
+		 stmt.setString(3, progress.getCsvPath());
+		 stmt.setLong(4, progress.getByteOffset());
+		 stmt.setLong(5, progress.getLineNumber());
+		 stmt.setInt(6, progress.getReceived());
+		 stmt.setInt(7, progress.getGood());
+		 stmt.setInt(8, progress.getBad());
+		 stmt.setInt(9, progress.getRejectFile());
+		 stmt.setLong(10, progress.getRejectOffset());
+		 stmt.executeUpdate();
+	 }
+	 
+	 /**
+	  * @return the last committed checkpoint of an unfinished load of the table, or null if there is none
+	  */
+	 public IngestProgress getProgress(String tableName) {
+		 if(!containsTable(IngestProgress.TABLE))
+			 return null;
+		 String sql = "SELECT load_table, csv_path, byte_offset, line_number, received, good, bad, reject_file, reject_offset FROM "
+				 + IngestProgress.TABLE + " WHERE table_name = ?";
+		 try {
+			 PreparedStatement stmt = statements.prepare(sql);
+			 stmt.setString(1, tableName);
+			 try (ResultSet rs = stmt.executeQuery()) {
+				 if(!rs.next())
+					 return null;
+				 return new IngestProgress(tableName, rs.getString(1), rs.getString(2), rs.getLong(3), rs.getLong(4),
+						 rs.getInt(5), rs.getInt(6), rs.getInt(7), rs.getInt(8), rs.getLong(9));
+			 }
+		 }
+		 catch (SQLException e) {
+			 System.out.println(e.getMessage());
+			 return null;
+		 }
+	 }
+	 
+	 /**
+	  * Removes the checkpoint of a finished load, and the progress table once it holds no checkpoints
+	  */
+	 public void clearProgress(String tableName) throws SQLException {
+		 if(!containsTable(IngestProgress.TABLE))
+			 return;
+		 PreparedStatement delete = statements.prepare("DELETE FROM " + IngestProgress.TABLE + " WHERE table_name = ?");
+		 delete.setString(1, tableName);
+		 delete.executeUpdate();
+		 boolean empty;
+		 try (Statement stmt = conn.createStatement();
+				 ResultSet rs = stmt.executeQuery("SELECT count(*) FROM " + IngestProgress.TABLE)) {
+			 rs.next();
+			 empty = rs.getInt(1) == 0;
+		 }
+		 if(empty)
+			 dropTable(IngestProgress.TABLE);
+	 }
+	 
+	 /**
+	  * Deletes the statistics stored for a table by saveProfile, if any
+	  */
+	 void clearProfile(String tableName) throws SQLException {
+		 if(!containsTable(TableProfile.TABLE))
+			 return;
+		 PreparedStatement delete = statements.prepare("DELETE FROM " + TableProfile.TABLE + " WHERE table_name = ?");
+		 delete.setString(1, tableName);
+		 delete.executeUpdate();
+	 }
+	 
+	 /**
+	  * Stores the statistics of the columns of a load in the _profile table, one row per column,
+	  * replacing those of the previous load of the table
+	  */
+	 public void saveProfile(String tableName, TableProfile profile) throws SQLException {
+		 if(!containsTable(TableProfile.TABLE)) {
+			 try (Statement stmt = conn.createStatement()) {
+				 //min and max have no type, so they keep the type of the values they hold
+				 stmt.execute("CREATE TABLE IF NOT EXISTS " + TableProfile.TABLE + "(\n"
+						 + "	table_name TEXT,\n"
+						 + "	column_name TEXT,\n"
+						 + "	type TEXT,\n"
+						 + "	value_count INTEGER,\n"
+						 + "	null_count INTEGER,\n"
+						 + "	distinct_count INTEGER,\n"
+						 + "	min_value,\n"
+						 + "	max_value,\n"
+						 + "	mean REAL,\n"
+						 + "	variance REAL,\n"
+						 + "	top_values TEXT,\n"
+						 + "	profiled_at TEXT,\n"
+						 + "	PRIMARY KEY(table_name, column_name)\n"
+						 + ")");
+			 }
+		 }
+		 clearProfile(tableName);
+		 String sql = "INSERT INTO " + TableProfile.TABLE + " VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, datetime('now'))";
+		 PreparedStatement stmt = statements.prepare(sql);
+		 for(TableProfile.ColumnProfile column : profile.getColumns()) {
+			 stmt.setString(1, tableName);
+			 stmt.setString(2, column.getName());
+			 stmt.setString(3, column.getType());
+			 stmt.setLong(4, column.getCount());
+			 stmt.setLong(5, column.getNulls());
+			 stmt.setLong(6, column.getDistinct());
+			 stmt.setObject(7, column.getMin());
+			 stmt.setObject(8, column.getMax());
+			 stmt.setObject(9, column.getMean());
+			 stmt.setObject(10, column.getVariance());
+			 stmt.setString(11, column.getTopValues());
+			 stmt.executeUpdate();
+		 }
+		 stmt.clearParameters();
+	 }
+	 
+	 /**
+	  * Records that a csv file was loaded into a table, in the _csv_ingest_files table
+	  * Call this before commit so the file is recorded in the same transaction as its last rows.
+	  */
+	 public void recordLoadedFile(String tableName, String csvPath, long size, int received, int good, int bad)
+			 throws SQLException {
+		 if(!containsTable(IngestProgress.LOADED_FILES)) {
+			 try (Statement stmt = conn.createStatement()) {
+				 stmt.execute("CREATE TABLE IF NOT EXISTS " + IngestProgress.LOADED_FILES + "(\n"
+						 + "	table_name TEXT,\n"
+						 + "	csv_path TEXT,\n"
+						 + "	size INTEGER,\n"
+						 + "	received INTEGER,\n"
+						 + "	good INTEGER,\n"
+						 + "	bad INTEGER,\n"
+						 + "	loaded_at TEXT,\n"
+						 + "	PRIMARY KEY(table_name, csv_path)\n"
+						 + ")");
+			 }
+		 }
+		 String sql = "INSERT OR REPLACE INTO " + IngestProgress.LOADED_FILES + " VALUES(?, ?, ?, ?, ?, ?, datetime('now'))";
+		 PreparedStatement stmt = statements.prepare(sql);
+		 stmt.setString(1, tableName);
+		 stmt.setString(2, csvPath);
+		 stmt.setLong(3, size);
+		 stmt.setInt(4, received);
+		 stmt.setInt(5, good);
+		 stmt.setInt(6, bad);
+		 stmt.executeUpdate();
+	 }
+	 
+	 /**
+	  * @return the paths of the csv files recorded as loaded into the table, see recordLoadedFile
+	  */
+	 public Set<String> getLoadedFiles(String tableName) {
+		 Set<String> files = new HashSet<String>();
+		 if(!containsTable(IngestProgress.LOADED_FILES))
+			 return files;
+		 String sql = "SELECT csv_path FROM " + IngestProgress.LOADED_FILES + " WHERE table_name = ?";
+		 try {
+			 PreparedStatement stmt = statements.prepare(sql);
+			 stmt.setString(1, tableName);
+			 try (ResultSet rs = stmt.executeQuery()) {
+				 while(rs.next())
+					 files.add(rs.getString(1));
+			 }
+		 }
+		 catch (SQLException e) {
+			 System.out.println(e.getMessage());
+		 }
+		 return files;
+	 }
+	 
+	 /**
+	  * @return the columns of the key of the table in key order: its declared primary key, or else the columns of
+	  *		the unique index a load builds for the PRIMARY_KEY columns, see CsvToSQLite.buildIndexes; empty if it has neither
+	  */
+	 public String[] getPrimaryKey(String tableName) {
+		 String[] key = getDeclaredPrimaryKey(tableName);
+		 if(key.length > 0 || !containsTable(tableName))
+			 return key;
+		 try {
+			 PreparedStatement indexSql = statements.prepare("SELECT i.name FROM pragma_index_list(?) l, pragma_index_info(l.name) i"
+					 + " WHERE l.name = ? AND l.\"unique\" ORDER BY i.seqno");
+			 indexSql.setString(1, tableName);
+			 indexSql.setString(2, tableName + "_pk");
+			 List<String> columns = new ArrayList<String>();
+			 try (ResultSet rs = indexSql.executeQuery()) {
+				 while(rs.next())
+					 columns.add(rs.getString(1));
+			 }
+			 return columns.toArray(new String[0]);
+		 }
+		 catch (SQLException e) {
+			 System.out.println(e.getMessage());
+			 return key;
+		 }
+	 }
+	 
+	 /**
+	  * @return the columns of the declared primary key of the table in key order, empty if it has none
+	  */
+	 String[] getDeclaredPrimaryKey(String tableName) {
+		 SchemaCatalog.TableSchema schema = schema(tableName);
+		 return schema == null ? new String[0] : schema.primaryKey.clone();
+	 }
+	 
 	 /**
 	  * 
 	  * @param tableName: the name of the table
 	  * @return a boolean representing the existence of the table in the database
 	  */
 	 public boolean containsTable(String tableName) {
-		 String sql="SELECT name FROM sqlite_master WHERE type='table' AND name='" + tableName + "'";
-		 try(Statement stmt = conn.createStatement();
-			ResultSet rs = stmt.executeQuery(sql)){
-			return rs.next();
+		 try {
+			 return catalog.get(tableName) != null;
 		 }
 		 catch (SQLException e) {
-//			 System.out.println(e.getMessage());
 			 return false;
 		 }
 	 }
 	 
+	 //Returns the schema of a table, printing a message if it does not exist
+	 private SchemaCatalog.TableSchema schema(String tableName) {
+		 try {
+			 SchemaCatalog.TableSchema schema = catalog.get(tableName);
+			 if(schema == null)
+				 System.out.println("no such table: " + tableName);
+			 return schema;
+		 }
+		 catch (SQLException e) {
+			 System.out.println(e.getMessage());
+			 return null;
+		 }
+	 }
+	 
 	 /**
 	  * 
 	  * @param tableName: name of the table
 	  * @return an array of strings containing the name of each column in order
 	  */
 	 public String[] getColumnNames(String tableName) {
-		 String sql = "SELECT * FROM " + tableName + " LIMIT 1";
-		 String[] columnNames=null;
-		 try (Statement stmt  = conn.createStatement();
-				 ResultSet rs    = stmt.executeQuery(sql)){
-
-			 // loop through the result set
-			ResultSetMetaData rm = rs.getMetaData();
-			columnNames=new String[rm.getColumnCount()];
-			for(int i=0; i<columnNames.length; i++) {
-				columnNames[i]=rm.getColumnName(i+1);
-			}
-					
-		 } catch (SQLException e) {
-			 System.out.println(e.getMessage());
-		 }
-		 return columnNames;
+		 SchemaCatalog.TableSchema schema = schema(tableName);
+		 return schema == null ? null : schema.names.clone();
 	 }
 	 
 	 /**
@@ -170,22 +885,8 @@ public class Database {
 	  * @return an array of strings containing the type of each column in order
 	  */
 	 public String[] getColumnTypes(String tableName) {
-		 String sql = "SELECT * FROM " + tableName + " LIMIT 1";
-		 String[] columnTypes=null;
-		 try (Statement stmt  = conn.createStatement();
-				 ResultSet rs    = stmt.executeQuery(sql)){
-
-			 // loop through the result set
-			ResultSetMetaData rm = rs.getMetaData();
-			columnTypes=new String[rm.getColumnCount()];
-			for(int i=0; i<columnTypes.length; i++) {
-				columnTypes[i]=rm.getColumnTypeName(i+1);
-			}
-					
-		 } catch (SQLException e) {
-			 System.out.println(e.getMessage());
-		 }
-		 return columnTypes;
+		 SchemaCatalog.TableSchema schema = schema(tableName);
+		 return schema == null ? null : schema.types.clone();
 	 }
 
 	 /**
@@ -195,17 +896,31 @@ public class Database {
 	  * 		if the table does not exist in the database, returns null
 	  */
 	 public Table selectTable(String tableName) {
-		 if(!containsTable(tableName)) {
+		 SchemaCatalog.TableSchema schema;
+		 try {
+			 schema = catalog.get(tableName);
+		 }
+		 catch (SQLException e) {
+			 System.out.println(e.getMessage());
+			 return null;
+		 }
+		 if(schema == null) {
 			 System.out.println("The table " + tableName + " does not exist in " + dbName);
 			 return null;
 		 }
-		 String[] columnNames = getColumnNames(tableName);
-		 String[] columnTypes = getColumnTypes(tableName);
-		 Variable[] columns = new Variable[columnNames.length];
+		 Variable[] columns = new Variable[schema.names.length];
 		 for(int i=0; i<columns.length; i++) {
-			 columns[i]=new Variable(columnNames[i], columnTypes[i]);
+			 columns[i]=new Variable(schema.names[i], schema.types[i]);
 		 }
-		 return new Table(conn, tableName, columns);
+		 return new Table(conn, tableName, columns, statements);
+	 }
+	 
+	 /**
+	  * Same as selectTable(tableName), converting values with the given columns of the table instead of
+	  * columns read from its schema, such as DATE columns with a pattern
+	  */
+	 Table selectTable(String tableName, Variable[] columns) {
+		 return schema(tableName) == null ? null : new Table(conn, tableName, columns, statements);
 	 }
 	 
 	 /**
@@ -214,7 +929,8 @@ public class Database {
 	 public void dropTable(String tableName) {
 		 String sql = "DROP TABLE IF EXISTS " + tableName;
 		 try (Statement stmt = conn.createStatement()){
-			 stmt.executeQuery(sql);
+			 stmt.execute(sql);
+			 catalog.invalidate(tableName);
 		 }
 		 catch (SQLException e) {
 			 System.out.println(e.getMessage());
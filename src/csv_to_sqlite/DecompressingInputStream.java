@@ -0,0 +1,160 @@
+package csv_to_sqlite;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ *
+ * Reads a decompressing stream on its own thread, so decompression overlaps with parsing
+ * The thread fills buffers taken from a fixed ring and passes them on in order; the reader copies out of
+ * the current buffer and hands it back to the ring once it is used up. No buffer is allocated after the stream
+ * is opened, and the decompressor never runs more than the size of the ring ahead of the parser.
+ * The stream is read by one thread at a time.
+ */
+class DecompressingInputStream extends InputStream {
+
+	//a buffer of the ring, holding length decompressed bytes once filled
+	private static final class Chunk {
+		final byte[] data;
+		int length;
+
+		Chunk(int size) {
+			data = new byte[size];
+		}
+	}
+
+	//passed on after the last chunk, or after an error
+	private static final Chunk END = new Chunk(0);
+
+	private final InputStream source;
+	private final BlockingQueue<Chunk> free;
+	private final BlockingQueue<Chunk> filled;
+	private final Thread thread;
+	private volatile IOException error;
+	private Chunk current;
+	private int position;
+	private boolean ended;
+	private boolean closed;
+
+	/**
+	 * Starts decompressing source
+	 * @param bufferSize: size in bytes of each buffer
+	 * @param buffers: number of buffers in the ring, at least 2 so one is filled while another is read
+	 */
+	DecompressingInputStream(InputStream source, int bufferSize, int buffers) {
+		this.source = source;
+		buffers = Math.max(2, buffers);
+		free = new ArrayBlockingQueue<Chunk>(buffers);
+		filled = new ArrayBlockingQueue<Chunk>(buffers + 1);
+		for(int i = 0; i < buffers; i++)
+			free.add(new Chunk(Math.max(1, bufferSize)));
+		thread = new Thread(this::decompress, "csv-decompress");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public int read() throws IOException {
+		if(!nextChunk())
+			return -1;
+		return current.data[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len == 0)
+			return 0;
+		if(!nextChunk())
+			return -1;
+		int count = Math.min(len, current.length - position);
+		System.arraycopy(current.data, position, b, off, count);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return current == null ? 0 : current.length - position;
+	}
+
+	/**
+	 * Stops the decompressing thread and closes the source
+	 */
+	@Override
+	public void close() throws IOException {
+		if(closed)
+			return;
+		closed = true;
+		thread.interrupt();
+		try {
+			thread.join();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			source.close();
+		}
+	}
+
+	//Makes current a buffer with unread bytes, returning false at the end of the stream
+	private boolean nextChunk() throws IOException {
+		if(closed)
+			throw new IOException("Stream closed");
+		if(current != null) {
+			if(position < current.length)
+				return true;
+			free.add(current);
+			current = null;
+		}
+		if(ended)
+			return false;
+		Chunk chunk;
+		try {
+			chunk = filled.take();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the decompressed csv");
+		}
+		if(chunk == END) {
+			ended = true;
+			if(error != null)
+				throw new IOException("Failed to decompress the csv: " + error.getMessage(), error);
+			return false;
+		}
+		current = chunk;
+		position = 0;
+		return true;
+	}
+
+	//Fills the free buffers until the source ends, on the decompressing thread
+	private void decompress() {
+		try {
+			try {
+				while(true) {
+					Chunk chunk = free.take();
+					int read = 0;
+					chunk.length = 0;
+					while(chunk.length < chunk.data.length
+							&& (read = source.read(chunk.data, chunk.length, chunk.data.length - chunk.length)) >= 0)
+						chunk.length += read;
+					if(chunk.length > 0)
+						filled.put(chunk);
+					if(read < 0)
+						break;
+				}
+			}
+			catch(IOException e) {
+				error = e;
+			}
+			filled.put(END);
+		}
+		catch(InterruptedException e) {
+			//the stream was closed
+		}
+	}
+}
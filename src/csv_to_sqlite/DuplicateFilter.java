@@ -0,0 +1,468 @@
+package csv_to_sqlite;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * Finds the rows of a load that repeat an earlier row, on the whole row or on key columns (see ConvertOptions.setDeduplicateRows)
+ * - Rows are identified by a 128-bit MurmurHash3 of their converted values (see Hasher), so two different rows are
+ *   taken for one another with a probability of about n^2 / 2^129. Rows already in the table are added from their
+ *   stored values when a load is resumed or appended (see Database.addRows).
+ * - A Bloom filter tells most new rows apart without further lookups; a row it may have seen is looked up in
+ *   an off-heap open-addressing set of the hashes, and in the runs spilled from it
+ * - Once the set holds 3/4 of the hashes it has room for, it is sorted and written to a run file next to the
+ *   database, which is memory-mapped and binary searched, and the set starts empty. Memory stays within the
+ *   budget whatever the number of rows; the filter takes a quarter of it on top of the set.
+ * Used by the writing thread of a load only; hashers may be used by other threads.
+ */
+class DuplicateFilter implements Closeable {
+
+	private static final int BLOOM_PROBES = 7;
+
+	/**
+	 * Computes the 128-bit hash of the key columns of a row from their converted values, as they are stored in the
+	 * table, so rows read back from the table hash like the csv records they were loaded from. Every value is
+	 * preceded by whether it is null and text and images are followed by their length, so that no two rows give
+	 * the same input. Not thread safe; each thread hashes with its own hasher.
+	 */
+	static final class Hasher {
+
+		private static final long C1 = 0x87c37b91114253d5L;
+		private static final long C2 = 0x4cf5ad432745937fL;
+
+		private final Variable[] cols;
+		//key columns, null for the whole row
+		private final int[] columns;
+		long h1;
+		long h2;
+		//chars of the block being filled, 8 chars to a block
+		private long k1;
+		private long k2;
+		private int pending;
+		private long length;
+		//the key values of the csv record being hashed, converted by their binder; created on first use
+		private ColumnBatch staged;
+
+		private Hasher(Variable[] cols, int[] columns) {
+			this.cols = cols;
+			this.columns = columns;
+		}
+
+		/**
+		 * Hashes a row of the batch into h1 and h2
+		 * @return false if a key value fails the type check, the row is then not hashed
+		 */
+		boolean hash(RecordBatch batch, int row) {
+			char[] chars = batch.getChars();
+			beginRow();
+			try {
+				for(int i = 0; i < keyCount(); i++) {
+					int column = columns == null ? i : columns[i];
+					stage(column, chars, batch.getStart(row, column), batch.getEnd(row, column));
+				}
+			}
+			catch(IllegalArgumentException e) {
+				staged.abortRow();
+				return false;
+			}
+			staged.endRow();
+			hash(staged, 0);
+			return true;
+		}
+
+		/**
+		 * Same as hash(RecordBatch, int) for the current record of the tokenizer
+		 */
+		boolean hash(CsvTokenizer record) {
+			char[] chars = record.getBuffer();
+			beginRow();
+			try {
+				for(int i = 0; i < keyCount(); i++) {
+					int column = columns == null ? i : columns[i];
+					int start = record.getFieldStart(column);
+					stage(column, chars, start, start + record.getFieldLength(column));
+				}
+			}
+			catch(IllegalArgumentException e) {
+				staged.abortRow();
+				return false;
+			}
+			staged.endRow();
+			hash(staged, 0);
+			return true;
+		}
+
+		/**
+		 * Hashes a row of converted values into h1 and h2
+		 */
+		void hash(ColumnBatch batch, int row) {
+			reset();
+			for(int i = 0; i < keyCount(); i++) {
+				int column = columns == null ? i : columns[i];
+				if(batch.isNull(row, column)) {
+					add((char) 0);
+					continue;
+				}
+				add((char) 1);
+				ColumnBinder binder = batch.getBinder(column);
+				if(binder.storage() == ColumnBinder.Storage.LONG)
+					add(batch.getLong(row, column));
+				else if(binder.storage() == ColumnBinder.Storage.DOUBLE) {
+					//the table keeps -0.0 as 0.0
+					double value = batch.getDouble(row, column);
+					add(Double.doubleToLongBits(value == 0 ? 0 : value));
+				}
+				else if(binder == ColumnBinder.PNG64) {
+					int bytes = batch.getLength(row, column);
+					for(int j = 0; j < bytes; j += 2)
+						add((char) ((batch.getByte(row, column, j) & 0xff)
+								| (j + 1 < bytes ? (batch.getByte(row, column, j + 1) & 0xff) << 8 : 0)));
+					addLength(bytes);
+				}
+				else {
+					char[] chars = batch.getChars(row, column);
+					int n = batch.getLength(row, column);
+					for(int j = 0; j < n; j++)
+						add(chars[j]);
+					addLength(n);
+				}
+			}
+			finish();
+		}
+
+		private int keyCount() {
+			return columns == null ? cols.length : columns.length;
+		}
+
+		private void beginRow() {
+			if(staged == null)
+				staged = new ColumnBatch(cols, 1);
+			staged.clear();
+			staged.beginRow();
+		}
+
+		//Converts a key field of the record being hashed, an empty field being null as when it is inserted
+		private void stage(int column, char[] chars, int start, int end) {
+			if(start == end)
+				staged.putNull(column);
+			else
+				cols[column].getBinder().stage(staged, column, chars, start, end);
+		}
+
+		private void reset() {
+			h1 = 0;
+			h2 = 0;
+			k1 = 0;
+			k2 = 0;
+			pending = 0;
+			length = 0;
+		}
+
+		private void add(long value) {
+			for(int i = 0; i < 4; i++)
+				add((char) (value >>> (16 * i)));
+		}
+
+		private void addLength(int n) {
+			add((char) (n >>> 16));
+			add((char) n);
+		}
+
+		private void add(char c) {
+			if(pending < 4)
+				k1 |= (long) c << (16 * pending);
+			else
+				k2 |= (long) c << (16 * (pending - 4));
+			length += 2;
+			if(++pending < 8)
+				return;
+			h1 ^= mixK1(k1);
+			h1 = Long.rotateLeft(h1, 27) + h2;
+			h1 = h1 * 5 + 0x52dce729;
+			h2 ^= mixK2(k2);
+			h2 = Long.rotateLeft(h2, 31) + h1;
+			h2 = h2 * 5 + 0x38495ab5;
+			k1 = 0;
+			k2 = 0;
+			pending = 0;
+		}
+
+		private void finish() {
+			if(pending > 0) {
+				h2 ^= mixK2(k2);
+				h1 ^= mixK1(k1);
+			}
+			h1 ^= length;
+			h2 ^= length;
+			h1 += h2;
+			h2 += h1;
+			h1 = fmix(h1);
+			h2 = fmix(h2);
+			h1 += h2;
+			h2 += h1;
+		}
+
+		private static long mixK1(long k) {
+			return Long.rotateLeft(k * C1, 31) * C2;
+		}
+
+		private static long mixK2(long k) {
+			return Long.rotateLeft(k * C2, 33) * C1;
+		}
+
+		private static long fmix(long k) {
+			k ^= k >>> 33;
+			k *= 0xff51afd7ed558ccdL;
+			k ^= k >>> 33;
+			k *= 0xc4ceb9fe1a85ec53L;
+			return k ^ (k >>> 33);
+		}
+	}
+
+	private final Variable[] cols;
+	private final int[] columns;
+	private final String directory;
+	private final Hasher hasher;
+	//bits of the Bloom filter
+	private final ByteBuffer bloom;
+	private final long bloomMask;
+	//the set: slots of two longs, both 0 for an empty slot
+	private final ByteBuffer set;
+	private final int slotMask;
+	private final int maxSize;
+	private int size;
+	private final List<Path> runFiles = new ArrayList<Path>();
+	private final List<MappedByteBuffer> runs = new ArrayList<MappedByteBuffer>();
+
+	/**
+	 * @param cols: the columns of the rows
+	 * @param columns: indexes of the key columns, null for the whole row
+	 * @param memory: bytes of the set of hashes, rounded down to a power of two
+	 * @param directory: where the runs are spilled, as a path ending with a separator
+	 */
+	DuplicateFilter(Variable[] cols, int[] columns, long memory, String directory) {
+		this.cols = cols;
+		this.columns = columns;
+		this.directory = directory;
+		hasher = new Hasher(cols, columns);
+		int slots = (int) Math.min(1 << 26, Long.highestOneBit(Math.max(1024, memory / 16)));
+		set = ByteBuffer.allocateDirect(16 * slots).order(ByteOrder.nativeOrder());
+		slotMask = slots - 1;
+		maxSize = slots / 4 * 3;
+		int bloomBytes = (int) Math.min(1 << 30, Long.highestOneBit(Math.max(1024, memory / 4)));
+		bloom = ByteBuffer.allocateDirect(bloomBytes).order(ByteOrder.nativeOrder());
+		bloomMask = 8L * bloomBytes - 1;
+	}
+
+	/**
+	 * @return a hasher of the key columns, for another thread
+	 */
+	Hasher newHasher() {
+		return new Hasher(cols, columns);
+	}
+
+	/**
+	 * Hashes a row, which is then checked by isDuplicate() and remembered by addLast()
+	 * @return false if a key value fails the type check; the row is then rejected by its insert
+	 */
+	boolean hash(RecordBatch batch, int row) {
+		return hasher.hash(batch, row);
+	}
+
+	boolean hash(CsvTokenizer record) {
+		return hasher.hash(record);
+	}
+
+	void hash(ColumnBatch batch, int row) {
+		hasher.hash(batch, row);
+	}
+
+	/**
+	 * @return whether the row hashed last repeats a row added before
+	 */
+	boolean isDuplicate() throws IOException {
+		return isDuplicate(hasher.h1, hasher.h2);
+	}
+
+	/**
+	 * Remembers the row hashed last
+	 */
+	void addLast() throws IOException {
+		add(hasher.h1, hasher.h2);
+	}
+
+	/**
+	 * @return whether a row with the hash h1, h2 was added before
+	 */
+	boolean isDuplicate(long h1, long h2) throws IOException {
+		if(h1 == 0 && h2 == 0)
+			h2 = 1;
+		for(int i = 0; i < BLOOM_PROBES; i++) {
+			long bit = (h1 + i * h2) & bloomMask;
+			if((bloom.getLong((int) (bit >>> 6) * 8) & (1L << bit)) == 0)
+				return false;
+		}
+		for(int slot = (int) h1 & slotMask; !isEmpty(slot); slot = (slot + 1) & slotMask)
+			if(set.getLong(16 * slot) == h1 && set.getLong(16 * slot + 8) == h2)
+				return true;
+		for(MappedByteBuffer run : runs)
+			if(contains(run, h1, h2))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Remembers the hash of a row, which must not have been added before
+	 */
+	void add(long h1, long h2) throws IOException {
+		if(h1 == 0 && h2 == 0)
+			h2 = 1;
+		for(int i = 0; i < BLOOM_PROBES; i++) {
+			long bit = (h1 + i * h2) & bloomMask;
+			int index = (int) (bit >>> 6) * 8;
+			bloom.putLong(index, bloom.getLong(index) | (1L << bit));
+		}
+		int slot = (int) h1 & slotMask;
+		while(!isEmpty(slot))
+			slot = (slot + 1) & slotMask;
+		set.putLong(16 * slot, h1);
+		set.putLong(16 * slot + 8, h2);
+		if(++size > maxSize)
+			spill();
+	}
+
+	private boolean isEmpty(int slot) {
+		return set.getLong(16 * slot) == 0 && set.getLong(16 * slot + 8) == 0;
+	}
+
+	//Sorts the hashes of the set into a run file and empties the set
+	private void spill() throws IOException {
+		int n = 0;
+		for(int slot = 0; slot <= slotMask; slot++) {
+			if(isEmpty(slot))
+				continue;
+			if(slot != n) {
+				set.putLong(16 * n, set.getLong(16 * slot));
+				set.putLong(16 * n + 8, set.getLong(16 * slot + 8));
+				set.putLong(16 * slot, 0);
+				set.putLong(16 * slot + 8, 0);
+			}
+			n++;
+		}
+		sort(0, n - 1);
+		Path path = Files.createTempFile(Paths.get(directory), "dedup-", ".run");
+		runFiles.add(path);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer sorted = set.duplicate();
+			sorted.position(0).limit(16 * n);
+			while(sorted.hasRemaining())
+				channel.write(sorted);
+			MappedByteBuffer run = channel.map(FileChannel.MapMode.READ_ONLY, 0, 16L * n);
+			run.order(ByteOrder.nativeOrder());
+			runs.add(run);
+		}
+		for(int slot = 0; slot < n; slot++) {
+			set.putLong(16 * slot, 0);
+			set.putLong(16 * slot + 8, 0);
+		}
+		size = 0;
+	}
+
+	//Binary search of a sorted run
+	private static boolean contains(ByteBuffer run, long h1, long h2) {
+		int low = 0;
+		int high = run.capacity() / 16 - 1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			int c = compare(run.getLong(16 * middle), run.getLong(16 * middle + 8), h1, h2);
+			if(c < 0)
+				low = middle + 1;
+			else if(c > 0)
+				high = middle - 1;
+			else
+				return true;
+		}
+		return false;
+	}
+
+	private static int compare(long a1, long a2, long b1, long b2) {
+		int c = Long.compareUnsigned(a1, b1);
+		return c != 0 ? c : Long.compareUnsigned(a2, b2);
+	}
+
+	//Quicksort of the slots from..to of the set
+	private void sort(int from, int to) {
+		while(to - from > 16) {
+			int middle = (from + to) >>> 1;
+			long p1 = set.getLong(16 * middle);
+			long p2 = set.getLong(16 * middle + 8);
+			int i = from;
+			int j = to;
+			while(i <= j) {
+				while(compare(set.getLong(16 * i), set.getLong(16 * i + 8), p1, p2) < 0)
+					i++;
+				while(compare(set.getLong(16 * j), set.getLong(16 * j + 8), p1, p2) > 0)
+					j--;
+				if(i <= j)
+					swap(i++, j--);
+			}
+			//recurses into the smaller part so the stack stays shallow
+			if(j - from < to - i) {
+				sort(from, j);
+				from = i;
+			}
+			else {
+				sort(i, to);
+				to = j;
+			}
+		}
+		for(int i = from + 1; i <= to; i++)
+			for(int j = i; j > from && compare(set.getLong(16 * (j - 1)), set.getLong(16 * (j - 1) + 8),
+					set.getLong(16 * j), set.getLong(16 * j + 8)) > 0; j--)
+				swap(j - 1, j);
+	}
+
+	private void swap(int i, int j) {
+		long a1 = set.getLong(16 * i);
+		long a2 = set.getLong(16 * i + 8);
+		set.putLong(16 * i, set.getLong(16 * j));
+		set.putLong(16 * i + 8, set.getLong(16 * j + 8));
+		set.putLong(16 * j, a1);
+		set.putLong(16 * j + 8, a2);
+	}
+
+	/**
+	 * @return the number of runs spilled so far
+	 */
+	int getRuns() {
+		return runs.size();
+	}
+
+	/**
+	 * Deletes the spilled runs
+	 */
+	@Override
+	public void close() {
+		runs.clear();
+		for(Path path : runFiles) {
+			try {
+				Files.deleteIfExists(path);
+			}
+			catch(IOException e) {
+				System.out.println("Could not delete " + path + ": " + e.getMessage());
+			}
+		}
+		runFiles.clear();
+	}
+}
@@ -0,0 +1,55 @@
+package csv_to_sqlite;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Estimates the number of distinct values added to it, in a fixed 16 KB whatever the number of values
+ * Every 64-bit hash sets one of 2^14 registers to the highest count of leading zeros seen there; the standard
+ * error of the estimate is about 0.8%. Sketches of parts of the same input merge into the sketch of the whole.
+ * Not thread safe.
+ */
+class HyperLogLog {
+
+	private static final int PRECISION = 14;
+	private static final int REGISTERS = 1 << PRECISION;
+	private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+	private final byte[] registers = new byte[REGISTERS];
+
+	/**
+	 * @param hash: a well mixed 64-bit hash of the value
+	 */
+	void add(long hash) {
+		int index = (int) (hash >>> (64 - PRECISION));
+		//the guard bit caps the rank at the number of hash bits left
+		int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+		if(rank > registers[index])
+			registers[index] = (byte) rank;
+	}
+
+	void merge(HyperLogLog other) {
+		for(int i = 0; i < REGISTERS; i++)
+			if(other.registers[i] > registers[i])
+				registers[i] = other.registers[i];
+	}
+
+	long estimate() {
+		double sum = 0;
+		int zeros = 0;
+		for(byte register : registers) {
+			sum += 1.0 / (1L << register);
+			if(register == 0)
+				zeros++;
+		}
+		double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+		//few values leave registers empty, and counting them is more accurate
+		if(estimate <= 2.5 * REGISTERS && zeros > 0)
+			estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+		return Math.round(estimate);
+	}
+
+	void clear() {
+		Arrays.fill(registers, (byte) 0);
+	}
+}
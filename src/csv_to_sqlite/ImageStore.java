@@ -0,0 +1,87 @@
+package csv_to_sqlite;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ *
+ * Side table holding every distinct image of the PNG64 columns of a table once (see ConvertOptions.setDeduplicateImages)
+ * The PNG64 columns then hold the SHA-256 hash of their image, the key of <table>_images(hash, image).
+ * Images are inserted with INSERT OR IGNORE when their row is bound, in the transaction of the row. The hashes
+ * stored by this load are remembered, up to MAX_REMEMBERED of them, so a repeated image is not sent to SQLite again.
+ * Used by the writing thread of a Table only.
+ */
+class ImageStore {
+
+	private static final int MAX_REMEMBERED = 1 << 20;
+
+	private final String tableName;
+	private final PreparedStatement insert;
+	private final MessageDigest digest;
+	private final Set<ByteBuffer> stored = new HashSet<ByteBuffer>();
+	private long inserted;
+
+	/**
+	 * Creates the side table if it does not exist
+	 * @param tableName: name of the side table
+	 */
+	ImageStore(Connection conn, String tableName) throws SQLException {
+		this.tableName = tableName;
+		try (Statement stmt = conn.createStatement()) {
+			stmt.execute("CREATE TABLE IF NOT EXISTS " + tableName + "(hash BLOB PRIMARY KEY, image BLOB NOT NULL)");
+		}
+		insert = conn.prepareStatement("INSERT OR IGNORE INTO " + tableName + "(hash, image) VALUES(?, ?)");
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch(NoSuchAlgorithmException e) {
+			//every Java platform provides SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Stores an image unless an identical one is already stored
+	 * @return the hash of the image, the value of its PNG64 column
+	 */
+	byte[] store(byte[] image) throws SQLException {
+		byte[] hash = digest.digest(image);
+		ByteBuffer key = ByteBuffer.wrap(hash);
+		if(stored.contains(key))
+			return hash;
+		insert.setBytes(1, hash);
+		insert.setBytes(2, image);
+		inserted += insert.executeUpdate();
+		insert.clearParameters();
+		if(stored.size() < MAX_REMEMBERED)
+			stored.add(key);
+		return hash;
+	}
+
+	String getTableName() {
+		return tableName;
+	}
+
+	/**
+	 * @return the number of images added to the side table by this load
+	 */
+	long getInserted() {
+		return inserted;
+	}
+
+	void close() {
+		try {
+			insert.close();
+		}
+		catch(SQLException e) {
+
+		}
+	}
+}
@@ -0,0 +1,348 @@
+package csv_to_sqlite;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ *
+ * Counters and stage timers of one csv load
+ * The time of every row is split into stages, so a slow load shows whether it waits on the input, the parser
+ * or SQLite:
+ * - READ: filling the tokenizer from the input, including disk I/O, decompression and charset decoding
+ * - PARSE: tokenizing the records, and converting their values when pipelined, without the READ time in it
+ * - BIND: type checking and setting the parameters of the insert statement
+ * - EXECUTE: executeBatch and executeUpdate, including the row by row replay of failed batches
+ * - COMMIT: storing checkpoints and committing
+ * - INDEX: building the primary key and indexes after the rows are loaded
+ * - WAIT: the writer waiting for parsed blocks, when pipelined
+ * When pipelined, READ and PARSE run on several threads at once, so their sum may exceed the elapsed time.
+ * Counters are LongAdders updated without locks; the row counts are published by the writer after every batch.
+ * While the load runs the metrics are registered as an MBean and a progress line is printed periodically.
+ */
+public class IngestMetrics implements IngestMetricsMBean {
+
+	public enum Stage {
+		READ, PARSE, BIND, EXECUTE, COMMIT, INDEX, WAIT
+	}
+
+	private final String tableName;
+	private final String csvPath;
+	private final long start = System.nanoTime();
+	private volatile long end;
+	private final LongAdder[] stages = new LongAdder[Stage.values().length];
+	private final LongAdder bytes = new LongAdder();
+	private final LatencyHistogram batches = new LatencyHistogram();
+	private volatile long received;
+	private volatile long good;
+	private volatile long bad;
+	private ObjectName name;
+	private ScheduledExecutorService progress;
+
+	IngestMetrics(String tableName, String csvPath) {
+		this.tableName = tableName;
+		this.csvPath = csvPath;
+		for(int i = 0; i < stages.length; i++)
+			stages[i] = new LongAdder();
+	}
+
+	/**
+	 * Registers the metrics as an MBean and prints a progress line every progressMillis, if above 0
+	 */
+	void start(long progressMillis) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName("csv_to_sqlite:type=IngestMetrics,table=" + ObjectName.quote(tableName));
+			if(server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+			server.registerMBean(this, objectName);
+			name = objectName;
+		}
+		catch(JMException e) {
+			System.out.println("Could not register the metrics of " + tableName + ": " + e.getMessage());
+		}
+		if(progressMillis > 0) {
+			progress = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread thread = new Thread(task, "csv-progress-" + tableName);
+				thread.setDaemon(true);
+				return thread;
+			});
+			progress.scheduleAtFixedRate(() -> System.out.println(progressLine()), progressMillis, progressMillis,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stops the clock and the progress line and unregisters the MBean
+	 */
+	void finish() {
+		if(end == 0)
+			end = System.nanoTime();
+		if(progress != null)
+			progress.shutdownNow();
+		if(name != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			}
+			catch(JMException e) {
+				//already unregistered
+			}
+			name = null;
+		}
+	}
+
+	void add(Stage stage, long nanos) {
+		stages[stage.ordinal()].add(nanos);
+	}
+
+	void addBytes(long count) {
+		bytes.add(count);
+	}
+
+	void recordBatch(long nanos) {
+		batches.record(nanos);
+	}
+
+	void setRows(long received, long good, long bad) {
+		this.received = received;
+		this.good = good;
+		this.bad = bad;
+	}
+
+	/**
+	 * @return a stream counting the bytes read from in
+	 */
+	InputStream countBytes(InputStream in) {
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if(b >= 0)
+					bytes.increment();
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if(n > 0)
+					bytes.add(n);
+				return n;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				long skipped = super.skip(n);
+				bytes.add(skipped);
+				return skipped;
+			}
+		};
+	}
+
+	/**
+	 * @return the time spent in a stage; for PARSE without the READ time spent inside it
+	 */
+	public long getMillis(Stage stage) {
+		long nanos = stages[stage.ordinal()].sum();
+		if(stage == Stage.PARSE)
+			nanos = Math.max(0, nanos - stages[Stage.READ.ordinal()].sum());
+		return nanos / 1000000;
+	}
+
+	@Override
+	public String getTableName() {
+		return tableName;
+	}
+
+	@Override
+	public String getCsvPath() {
+		return csvPath;
+	}
+
+	@Override
+	public boolean isFinished() {
+		return end != 0;
+	}
+
+	@Override
+	public long getElapsedMillis() {
+		return ((end != 0 ? end : System.nanoTime()) - start) / 1000000;
+	}
+
+	@Override
+	public long getRowsReceived() {
+		return received;
+	}
+
+	@Override
+	public long getRowsInserted() {
+		return good;
+	}
+
+	@Override
+	public long getRowsRejected() {
+		return bad;
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytes.sum();
+	}
+
+	@Override
+	public double getRowsPerSecond() {
+		return perSecond(received);
+	}
+
+	@Override
+	public double getBytesPerSecond() {
+		return perSecond(bytes.sum());
+	}
+
+	@Override
+	public long getReadMillis() {
+		return getMillis(Stage.READ);
+	}
+
+	@Override
+	public long getParseMillis() {
+		return getMillis(Stage.PARSE);
+	}
+
+	@Override
+	public long getBindMillis() {
+		return getMillis(Stage.BIND);
+	}
+
+	@Override
+	public long getExecuteMillis() {
+		return getMillis(Stage.EXECUTE);
+	}
+
+	@Override
+	public long getCommitMillis() {
+		return getMillis(Stage.COMMIT);
+	}
+
+	@Override
+	public long getIndexMillis() {
+		return getMillis(Stage.INDEX);
+	}
+
+	@Override
+	public long getWaitMillis() {
+		return getMillis(Stage.WAIT);
+	}
+
+	@Override
+	public long getBatchCount() {
+		return batches.getCount();
+	}
+
+	@Override
+	public long getBatchMeanMicros() {
+		return batches.getMean() / 1000;
+	}
+
+	@Override
+	public long getBatchP50Micros() {
+		return batches.getPercentile(50) / 1000;
+	}
+
+	@Override
+	public long getBatchP99Micros() {
+		return batches.getPercentile(99) / 1000;
+	}
+
+	@Override
+	public long getBatchMaxMicros() {
+		return batches.getMax() / 1000;
+	}
+
+	/**
+	 * @return a one line summary of the load so far: throughput, rejected rows and the time of every stage
+	 */
+	public String progressLine() {
+		StringBuilder sb = new StringBuilder(tableName).append(": ")
+				.append(received).append(" rows, ")
+				.append(String.format(Locale.ROOT, "%.0f rows/s, %.1f MB/s, ", getRowsPerSecond(), getBytesPerSecond() / (1 << 20)))
+				.append(bad).append(" rejected |");
+		for(Stage stage : Stage.values())
+			sb.append(' ').append(stage.name().toLowerCase(Locale.ROOT)).append(' ')
+				.append(String.format(Locale.ROOT, "%.1fs", getMillis(stage) / 1000.0));
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the metrics as a JSON object
+	 */
+	public void writeJson(String path) throws IOException {
+		StringBuilder sb = new StringBuilder("{\n");
+		field(sb, "table", tableName);
+		field(sb, "csv", csvPath);
+		field(sb, "finished", isFinished());
+		field(sb, "elapsed_ms", getElapsedMillis());
+		field(sb, "rows_received", received);
+		field(sb, "rows_inserted", good);
+		field(sb, "rows_rejected", bad);
+		field(sb, "bytes_read", getBytesRead());
+		field(sb, "rows_per_second", Math.round(getRowsPerSecond()));
+		field(sb, "bytes_per_second", Math.round(getBytesPerSecond()));
+		sb.append("  \"stages_ms\": {");
+		for(Stage stage : Stage.values())
+			sb.append(stage.ordinal() == 0 ? "" : ", ").append('"').append(stage.name().toLowerCase(Locale.ROOT)).append("\": ")
+				.append(getMillis(stage));
+		sb.append("},\n");
+		sb.append("  \"batch_us\": {\"count\": ").append(getBatchCount())
+			.append(", \"mean\": ").append(getBatchMeanMicros())
+			.append(", \"p50\": ").append(getBatchP50Micros())
+			.append(", \"p90\": ").append(batches.getPercentile(90) / 1000)
+			.append(", \"p99\": ").append(getBatchP99Micros())
+			.append(", \"max\": ").append(getBatchMaxMicros()).append("}\n}\n");
+		try (Writer out = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+			out.write(sb.toString());
+		}
+	}
+
+	private double perSecond(long count) {
+		long millis = getElapsedMillis();
+		return millis == 0 ? 0 : count * 1000.0 / millis;
+	}
+
+	private static void field(StringBuilder sb, String key, Object value) {
+		sb.append("  \"").append(key).append("\": ");
+		if(value instanceof String)
+			sb.append(quote((String) value));
+		else
+			sb.append(value);
+		sb.append(",\n");
+	}
+
+	static String quote(String value) {
+		StringBuilder sb = new StringBuilder("\"");
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if(c < 0x20)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+}
@@ -0,0 +1,53 @@
+package csv_to_sqlite;
+
+/**
+ *
+ * JMX view of a running load, registered as csv_to_sqlite:type=IngestMetrics,table=<table> (see IngestMetrics)
+ * Times are in milliseconds, batch latencies in microseconds.
+ */
+public interface IngestMetricsMBean {
+
+	String getTableName();
+
+	String getCsvPath();
+
+	boolean isFinished();
+
+	long getElapsedMillis();
+
+	long getRowsReceived();
+
+	long getRowsInserted();
+
+	long getRowsRejected();
+
+	long getBytesRead();
+
+	double getRowsPerSecond();
+
+	double getBytesPerSecond();
+
+	long getReadMillis();
+
+	long getParseMillis();
+
+	long getBindMillis();
+
+	long getExecuteMillis();
+
+	long getCommitMillis();
+
+	long getIndexMillis();
+
+	long getWaitMillis();
+
+	long getBatchCount();
+
+	long getBatchMeanMicros();
+
+	long getBatchP50Micros();
+
+	long getBatchP99Micros();
+
+	long getBatchMaxMicros();
+}
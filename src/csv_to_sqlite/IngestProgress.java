@@ -0,0 +1,88 @@
+package csv_to_sqlite;
+
+/**
+ *
+ * A checkpoint of a csv load, stored in the _csv_ingest_progress table of the database
+ * It is written in the same transaction as the rows it counts, so after a crash it describes exactly
+ * the rows that were committed: the load resumes reading the csv at byteOffset, on line lineNumber.
+ */
+public class IngestProgress {
+
+	static final String TABLE = "_csv_ingest_progress";
+	//files loaded by a ConvertScheduler, see Database.recordLoadedFile
+	static final String LOADED_FILES = "_csv_ingest_files";
+
+	private final String tableName;
+	private final String loadTable;
+	private final String csvPath;
+	private final long byteOffset;
+	private final long lineNumber;
+	private final int received;
+	private final int good;
+	private final int bad;
+	//file number and size of the bad csv at the checkpoint
+	private final int rejectFile;
+	private final long rejectOffset;
+
+	/**
+	 * @param tableName: the table being loaded
+	 * @param loadTable: the table the rows are inserted into, a staging table when the rows are presorted
+	 * @param byteOffset: offset in the csv of the first record not yet loaded, -1 if only the line number is known
+	 * @param lineNumber: line on which the first record not yet loaded starts
+	 * @param rejectFile: number of the bad csv file being written, see RejectWriter.getFileIndex
+	 * @param rejectOffset: size of that file, see RejectWriter.getFileOffset
+	 */
+	public IngestProgress(String tableName, String loadTable, String csvPath, long byteOffset, long lineNumber,
+			int received, int good, int bad, int rejectFile, long rejectOffset) {
+		this.tableName = tableName;
+		this.loadTable = loadTable;
+		this.csvPath = csvPath;
+		this.byteOffset = byteOffset;
+		this.lineNumber = lineNumber;
+		this.received = received;
+		this.good = good;
+		this.bad = bad;
+		this.rejectFile = rejectFile;
+		this.rejectOffset = rejectOffset;
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public String getLoadTable() {
+		return loadTable;
+	}
+
+	public String getCsvPath() {
+		return csvPath;
+	}
+
+	public long getByteOffset() {
+		return byteOffset;
+	}
+
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	public int getReceived() {
+		return received;
+	}
+
+	public int getGood() {
+		return good;
+	}
+
+	public int getBad() {
+		return bad;
+	}
+
+	public int getRejectFile() {
+		return rejectFile;
+	}
+
+	public long getRejectOffset() {
+		return rejectOffset;
+	}
+}
@@ -0,0 +1,79 @@
+package csv_to_sqlite;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * Histogram of durations in nanoseconds, with fixed log-linear buckets
+ * Every power of two is split into 8 buckets, so a percentile is at most 12.5% above the recorded value;
+ * recording is a bucket index computation and an atomic increment, and the histogram never allocates.
+ */
+class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(64 << SUB_BITS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	void record(long nanos) {
+		nanos = Math.max(0, nanos);
+		counts.incrementAndGet(index(nanos));
+		count.increment();
+		total.add(nanos);
+		for(long m = max.get(); nanos > m && !max.compareAndSet(m, nanos); m = max.get())
+			;
+	}
+
+	long getCount() {
+		return count.sum();
+	}
+
+	long getMax() {
+		return max.get();
+	}
+
+	long getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : total.sum() / n;
+	}
+
+	/**
+	 * @param percentile: between 0 and 100
+	 * @return the upper bound of the bucket holding the percentile, 0 if nothing was recorded
+	 */
+	long getPercentile(double percentile) {
+		long n = count.sum();
+		if(n == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+		long seen = 0;
+		for(int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if(seen >= rank)
+				return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	//Values below SUB_BUCKETS get a bucket each, larger values one of SUB_BUCKETS buckets of their power of two
+	private static int index(long value) {
+		if(value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return ((exponent - SUB_BITS + 1) << SUB_BITS) + sub;
+	}
+
+	private static long upperBound(int index) {
+		if(index < SUB_BUCKETS)
+			return index;
+		int exponent = (index >> SUB_BITS) + SUB_BITS - 1;
+		int sub = index & (SUB_BUCKETS - 1);
+		return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+	}
+}
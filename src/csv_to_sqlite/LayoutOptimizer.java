@@ -0,0 +1,207 @@
+package csv_to_sqlite;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ *
+ * Rewrites a loaded table into the layout its readers scan fastest, and reports the size of the database before and after
+ * (see ConvertOptions.setBlobsLast, setWithoutRowid, setStrictTables, setAnalyze and setCompactCopy)
+ * - PNG64 columns move behind the other columns. SQLite reads the values of a row in column order, so an image in
+ *   the middle of a row pushes the columns after it onto overflow pages that every read of those columns follows.
+ * - The primary key of the options is declared on the table, in place of the unique index the load builds, when
+ *   its columns have no NULL. A single INTEGER key then is the rowid itself, as with ConvertOptions.setPresort. Other keys make a WITHOUT ROWID table,
+ *   stored in key order without a separate rowid B-tree, when the rows are small: on average at most 1/20 of a page,
+ *   as SQLite advises, with a key of at most MAX_KEY_LENGTH since secondary indexes repeat the key of every row.
+ * - The table is STRICT when SQLite supports it and every column is declared INTEGER, REAL or TEXT. BOOLEAN, DATE,
+ *   TIMESTAMP and PNG64 columns are not STRICT types, and their declared type is what appends and CsvExporter read.
+ * - ANALYZE gathers the statistics of the indexes of the table for the query planner, followed by PRAGMA optimize.
+ * - VACUUM INTO writes a defragmented copy, <db>-compact.db, with no free pages and every B-tree in consecutive pages.
+ * The table is only copied when its layout changes. The copy leaves the pages of the old table free, about as many
+ * as the table takes, so the database is then vacuumed, which rewrites every table of the database.
+ */
+class LayoutOptimizer {
+
+	//first SQLite version with STRICT tables
+	private static final int[] STRICT_VERSION = {3, 37, 0};
+	private static final String[] STRICT_TYPES = {"INT", "INTEGER", "REAL", "TEXT", "BLOB", "ANY"};
+	//longest average key of a WITHOUT ROWID table, in bytes of text
+	private static final int MAX_KEY_LENGTH = 32;
+
+	private final Database db;
+	private final ConvertOptions options;
+
+	LayoutOptimizer(Database db, ConvertOptions options) {
+		this.db = db;
+		this.options = options;
+	}
+
+	/**
+	 * @return whether the options ask for any part of the layout pass
+	 */
+	static boolean isEnabled(ConvertOptions options) {
+		return options.isBlobsLast() || options.isWithoutRowid() || options.isStrictTables() || options.isAnalyze()
+				|| options.isCompactCopy();
+	}
+
+	/**
+	 * @return the name of the compact copy of a database file
+	 */
+	static String compactPath(String path) {
+		return (path.endsWith(".db") ? path.substring(0, path.length() - 3) : path) + "-compact.db";
+	}
+
+	/**
+	 * Lays out a loaded table, committing the changes
+	 * @param primaryKey: the PRIMARY_KEY columns of the options, empty for none
+	 * @return the report of what was changed and of the size of the database, one line per item
+	 */
+	String optimize(String tableName, String[] primaryKey) throws SQLException {
+		List<String> report = new ArrayList<String>();
+		long[] before = db.measureFile();
+		String[] names = db.getColumnNames(tableName);
+		String[] types = db.getColumnTypes(tableName);
+		String tableOptions = db.getTableOptions(tableName);
+		String[] declaredKey = db.getDeclaredPrimaryKey(tableName);
+		String[] key = declaredKey.length > 0 ? declaredKey : primaryKey;
+		boolean withoutRowid = !Database.hasRowid(tableOptions);
+		boolean strict = tableOptions.toUpperCase().contains("STRICT");
+		Set<String> droppedIndexes = new HashSet<String>();
+		boolean changed = false;
+
+		Integer[] order = new Integer[names.length];
+		for(int i = 0; i < order.length; i++)
+			order[i] = i;
+		if(options.isBlobsLast()) {
+			//a stable sort keeps the order of the other columns
+			Arrays.sort(order, (a, b) -> Boolean.compare(isBlob(types[a]), isBlob(types[b])));
+			for(int i = 0; i < order.length; i++)
+				changed |= order[i] != i;
+			if(changed)
+				report.add("Moved the PNG64 columns of " + tableName + " last");
+		}
+
+		if(options.isWithoutRowid() && key.length > 0) {
+			double[] rows = db.measureRows(tableName, names, key);
+			double maxRow = before[1] / 20.0;
+			//the rowid takes the place of a NULL inserted later, which must not pass for the id of a dictionary value
+			boolean integerKey = key.length == 1 && types[indexOf(names, key[0])].equals("INTEGER")
+					&& !db.isDictionaryEncoded(tableName, key[0]);
+			boolean small = rows[0] <= maxRow && rows[1] <= MAX_KEY_LENGTH;
+			if(rows[2] > 0)
+				report.add("Kept the rowid of " + tableName + ": rows with a NULL key: " + (long) rows[2]);
+			else {
+				if(declaredKey.length == 0) {
+					//the unique index of the key, see CsvToSQLite.buildIndexes, gives way to the declared key
+					declaredKey = key;
+					droppedIndexes.add(tableName + "_pk");
+					changed = true;
+					if(integerKey)
+						report.add("Made " + key[0] + " the rowid of " + tableName);
+				}
+				if(!integerKey && small != withoutRowid)
+					report.add(String.format("Made %s a %s table on (%s): rows of %.0f bytes with keys of %.0f bytes on average",
+							tableName, small ? "WITHOUT ROWID" : "rowid", String.join(", ", key), rows[0], rows[1]));
+				else if(!integerKey && !small)
+					report.add(String.format("Kept the rowid of %s: rows of %.0f bytes with keys of %.0f bytes on average,"
+							+ " WITHOUT ROWID needs at most %.0f and %d", tableName, rows[0], rows[1], maxRow, MAX_KEY_LENGTH));
+				boolean rowless = !integerKey && small;
+				changed |= rowless != withoutRowid;
+				withoutRowid = rowless;
+			}
+		}
+
+		if(options.isStrictTables() && !strict) {
+			String version = db.getSqliteVersion();
+			List<String> loose = new ArrayList<String>();
+			for(int i = 0; i < names.length; i++)
+				if(!Arrays.asList(STRICT_TYPES).contains(types[i]))
+					loose.add(names[i] + " " + types[i]);
+			if(compareVersions(version, STRICT_VERSION) < 0)
+				report.add("Kept " + tableName + " without STRICT: SQLite " + version + " does not support it");
+			else if(!loose.isEmpty())
+				report.add("Kept " + tableName + " without STRICT for the columns " + String.join(", ", loose));
+			else {
+				report.add("Made " + tableName + " STRICT");
+				strict = true;
+				changed = true;
+			}
+		}
+
+		if(changed) {
+			String[] declarations = new String[names.length];
+			String[] values = new String[names.length];
+			for(int i = 0; i < names.length; i++) {
+				declarations[i] = names[order[i]] + " " + types[order[i]];
+				values[i] = "t." + names[order[i]];
+			}
+			List<String> newOptions = new ArrayList<String>();
+			if(strict)
+				newOptions.add("STRICT");
+			if(withoutRowid)
+				newOptions.add("WITHOUT ROWID");
+			//rows are copied in key order so the new B-tree is only ever appended to
+			String orderBy = declaredKey.length > 0 ? String.join(", ", declaredKey)
+					: Database.hasRowid(tableOptions) ? "t.rowid" : "";
+			db.rebuildTable(tableName, declarations, values, declaredKey,
+					newOptions.isEmpty() ? "" : " " + String.join(", ", newOptions), orderBy, droppedIndexes);
+			db.createDictionaryView(tableName);
+		}
+		if(options.isAnalyze()) {
+			db.analyze(tableName);
+			report.add("Analyzed " + tableName);
+		}
+		db.commit();
+		String file = new File(db.getPath()).getName();
+		if(changed) {
+			long free = db.measureFile()[3];
+			db.vacuum();
+			report.add("Vacuumed " + file + ", removing the " + free + " free pages left by the copy of " + tableName);
+		}
+		long[] after = db.measureFile();
+		report.add(file + " before: " + describe(before));
+		report.add(file + " after: " + describe(after));
+		if(options.isCompactCopy()) {
+			String copy = compactPath(db.getPath());
+			//left by an earlier load; VACUUM INTO only writes new files
+			new File(copy).delete();
+			db.vacuumInto(copy);
+			//the copy has the page size of the database and no free pages
+			long length = new File(copy).length();
+			report.add("Compact copy " + new File(copy).getName() + ": "
+					+ describe(new long[] {length, after[1], length / after[1], 0}));
+		}
+		return String.join("\n", report);
+	}
+
+	private static boolean isBlob(String type) {
+		return ColumnBinder.forType(type) == ColumnBinder.PNG64;
+	}
+
+	private static int indexOf(String[] names, String name) {
+		for(int i = 0; i < names.length; i++)
+			if(names[i].equalsIgnoreCase(name))
+				return i;
+		return -1;
+	}
+
+	//Compares a version such as 3.30.1 with the numbers of another version
+	static int compareVersions(String version, int[] other) {
+		String[] parts = version.split("\\.");
+		for(int i = 0; i < other.length; i++) {
+			int part = i < parts.length ? Integer.parseInt(parts[i].replaceAll("\\D.*", "")) : 0;
+			if(part != other[i])
+				return Integer.compare(part, other[i]);
+		}
+		return 0;
+	}
+
+	private static String describe(long[] sizes) {
+		return sizes[0] + " bytes, " + sizes[2] + " pages of " + sizes[1] + " bytes, " + sizes[3] + " free";
+	}
+}
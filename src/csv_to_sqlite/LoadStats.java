@@ -0,0 +1,87 @@
+package csv_to_sqlite;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ *
+ * Record counts of a csv load, written to the .log file when the load is done
+ * Rejected records are passed on to the RejectWriter as they occur.
+ */
+class LoadStats {
+
+	//reason given in the bad csv for duplicate rows
+	static final String DUPLICATE = "Duplicate of an earlier row";
+
+	int received;
+	int good;
+	int bad;
+	//rows repeating an earlier row of the load, which were not inserted
+	int duplicates;
+	//time spent inserting the rows and building the indexes afterwards
+	long loadMillis;
+	long indexMillis;
+	//what the LayoutOptimizer changed and the size of the database, null unless the table was laid out
+	String layout;
+	long layoutMillis;
+	//receives the records that failed to insert, may be null
+	RejectWriter rejects;
+	//receives the record counts when they are published, may be null
+	IngestMetrics metrics;
+	//statistics of the values of the loaded rows, null unless profiling
+	TableProfile profile;
+	//finds the rows repeating an earlier row, null unless rows are deduplicated
+	DuplicateFilter dedup;
+	//whether duplicate rows are written to the bad csv
+	boolean rejectDuplicates;
+
+	/**
+	 * Rejects the current record of the tokenizer, keeping its raw text
+	 */
+	void reject(CsvTokenizer record, String reason) throws IOException {
+		if(rejects != null)
+			rejects.write(record, reason);
+		bad++;
+	}
+
+	void reject(RejectedRow row) throws IOException {
+		if(rejects != null)
+			rejects.write(row);
+		bad++;
+	}
+
+	/**
+	 * Counts the current record of the tokenizer as a duplicate, writing it to the bad csv if duplicates are rejected
+	 */
+	void duplicate(CsvTokenizer record) throws IOException {
+		duplicates++;
+		if(rejectDuplicates)
+			reject(record, DUPLICATE);
+	}
+	
+	/**
+	 * Same as duplicate(CsvTokenizer) for a row given as a RejectedRow, whose reason should be DUPLICATE
+	 */
+	void duplicate(RejectedRow row) throws IOException {
+		duplicates++;
+		if(rejectDuplicates)
+			reject(row);
+	}
+	
+	/**
+	 * Makes the current record counts visible to the metrics; called by the writer after every batch
+	 */
+	void publish() {
+		if(metrics != null)
+			metrics.setRows(received, good, bad);
+	}
+
+	/**
+	 * Moves rows counted as inserted to the rejected rows, for rows of a batch that failed on execution
+	 */
+	void rejectInserted(List<RejectedRow> rows) throws IOException {
+		good -= rows.size();
+		for(RejectedRow row : rows)
+			reject(row);
+	}
+}
@@ -0,0 +1,322 @@
+package csv_to_sqlite;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *
+ * Memory-mapped access to a csv file
+ * - reader(start, end) decodes a byte range straight out of mapped buffers with an explicit charset,
+ *   without copying the bytes onto the heap first
+ * - split(targetSize) cuts the file into regions that start and end on record boundaries by scanning
+ *   the mapped bytes for line feeds outside of quoted fields, following the quotes as CsvTokenizer does
+ * Files larger than 2GB are mapped piece by piece.
+ */
+public class MappedCsvFile implements Closeable {
+
+	//largest range of the file mapped at once
+	private static final long MAP_SIZE = 256L << 20;
+	//a window with fewer bytes left than this is remapped so a character is never split between windows
+	private static final int MAX_CHAR_BYTES = 16;
+
+	//states of the quote tracking of split, see CsvTokenizer
+	private static final int FIELD_START = 0;
+	private static final int QUOTED = 2;
+	private static final int QUOTE_IN_QUOTED = 3;
+
+	private final FileChannel channel;
+	private final Charset charset;
+	private final long size;
+
+	/**
+	 * A byte range of the file starting and ending on record boundaries
+	 */
+	public static class Region {
+		private final long start;
+		private final long end;
+		private final long firstLine;
+
+		Region(long start, long end, long firstLine) {
+			this.start = start;
+			this.end = end;
+			this.firstLine = firstLine;
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		public long getEnd() {
+			return end;
+		}
+
+		/**
+		 * @return the line number of the first line of the region, starting from 1
+		 */
+		public long getFirstLine() {
+			return firstLine;
+		}
+	}
+
+	public MappedCsvFile(String path, Charset charset) throws IOException {
+		this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+		this.charset = charset;
+		this.size = channel.size();
+	}
+
+	/**
+	 * Opens a reader over a whole file that closes the file when the reader is closed
+	 */
+	public static Reader open(String path, Charset charset) throws IOException {
+		return open(path, charset, 0);
+	}
+
+	/**
+	 * Same as open(path, charset), starting at a byte offset of the file
+	 * @param start: the offset of the first byte to read, which must be the start of a character
+	 */
+	public static Reader open(String path, Charset charset, long start) throws IOException {
+		MappedCsvFile file = new MappedCsvFile(path, charset);
+		return file.new RegionReader(Math.min(start, file.size), file.size, true);
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * @return a reader decoding the bytes [start, end) of the file
+	 */
+	public Reader reader(long start, long end) {
+		return new RegionReader(start, end, false);
+	}
+
+	public Reader reader(Region region) {
+		return reader(region.getStart(), region.getEnd());
+	}
+
+	/**
+	 * Splits the file into record-aligned regions of roughly targetSize bytes
+	 * A region ends after the first line feed past its target size that is not inside a quoted field.
+	 * As in CsvTokenizer, a '"' only opens a quoted field at the start of the field, after nothing but whitespace.
+	 * A file whose quotes cannot be followed without decoding its characters, such as a quote after non-ASCII
+	 * whitespace, is returned as one region.
+	 * Charsets that do not encode '"' and '\n' as single ASCII bytes are returned as one region.
+	 * @param targetSize: the approximate size of every region in bytes
+	 * @return the regions in file order
+	 */
+	public List<Region> split(long targetSize) throws IOException {
+		return split(0, 1, targetSize);
+	}
+
+	/**
+	 * Same as split(targetSize) for the part of the file starting at a record boundary
+	 * @param start: byte offset of the first record
+	 * @param firstLine: line number of the first record
+	 */
+	public List<Region> split(long start, long firstLine, long targetSize) throws IOException {
+		List<Region> regions = new ArrayList<Region>();
+		start = Math.min(start, size);
+		Region whole = new Region(start, size, firstLine);
+		if(!isAsciiCompatible(charset) || size - start <= targetSize) {
+			regions.add(whole);
+			return regions;
+		}
+		byte[] bom = start == 0 ? "\uFEFF".getBytes(charset) : new byte[0];
+		long regionStart = start;
+		long regionLine = firstLine;
+		long line = firstLine;
+		//the states of CsvTokenizer, which only opens a quoted field with a '"' preceded by nothing but whitespace
+		int state = FIELD_START;
+		//whether the unquoted field read so far is blank, and whether it may be blank when its non-ASCII characters are
+		boolean blank = true;
+		boolean maybeBlank = true;
+		boolean afterCr = false;
+		for(long mapStart = start; mapStart < size; mapStart += MAP_SIZE) {
+			long mapLength = Math.min(MAP_SIZE, size - mapStart);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapLength);
+			int i = 0;
+			if(mapStart == 0 && startsWith(buffer, bom))
+				i = bom.length;
+			for(; i < mapLength; i++) {
+				byte b = buffer.get(i);
+				boolean lineFeed = b == '\n' && !afterCr;
+				afterCr = false;
+				if(state == QUOTED) {
+					if(b == '"')
+						state = QUOTE_IN_QUOTED;
+					else if(b == '\n')
+						line++;
+					continue;
+				}
+				if(b == '\n' || b == '\r') {
+					state = FIELD_START;
+					blank = maybeBlank = true;
+					if(b == '\r') {
+						afterCr = true;
+						line++;
+					}
+					else if(lineFeed)
+						line++;
+					long next = mapStart + i + 1;
+					if(b == '\n' && next - regionStart >= targetSize && next < size) {
+						regions.add(new Region(regionStart, next, regionLine));
+						regionStart = next;
+						regionLine = line;
+					}
+				}
+				else if(b == ',') {
+					state = FIELD_START;
+					blank = maybeBlank = true;
+				}
+				else if(state == QUOTE_IN_QUOTED) {
+					//a non-ASCII character after a closing quote is skipped if it is whitespace and quoted otherwise
+					if(b < 0)
+						return Collections.singletonList(whole);
+					if(b == '"' || !Character.isWhitespace(b))
+						state = QUOTED;
+				}
+				else if(b == '"') {
+					//a quote after non-ASCII characters opens a quoted field only if they are all whitespace
+					if(!blank && maybeBlank)
+						return Collections.singletonList(whole);
+					if(blank)
+						state = QUOTED;
+					blank = maybeBlank = false;
+				}
+				else if(b < 0)
+					blank = false;
+				else if(!Character.isWhitespace(b))
+					blank = maybeBlank = false;
+			}
+		}
+		regions.add(new Region(regionStart, size, regionLine));
+		return regions;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private static boolean startsWith(MappedByteBuffer buffer, byte[] prefix) {
+		for(int i = 0; i < prefix.length; i++)
+			if(i >= buffer.limit() || buffer.get(i) != prefix[i])
+				return false;
+		return true;
+	}
+
+	private static boolean isAsciiCompatible(Charset charset) {
+		return Arrays.equals("\",\n\r".getBytes(charset), new byte[] {'"', ',', '\n', '\r'});
+	}
+
+	/**
+	 * Decodes a range of the file window by window
+	 */
+	class RegionReader extends Reader {
+
+		private final CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private final long end;
+		private final boolean closeFile;
+		private MappedByteBuffer buffer;
+		//file offsets of the current window
+		private long mapStart;
+		private long mapEnd;
+		private boolean done;
+		//second half of a surrogate pair that did not fit into a one character read
+		private char leftover;
+		private boolean hasLeftover;
+
+		RegionReader(long start, long end, boolean closeFile) {
+			this.mapStart = start;
+			this.mapEnd = start;
+			this.end = end;
+			this.closeFile = closeFile;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			if(len == 0)
+				return 0;
+			if(hasLeftover) {
+				cbuf[off] = leftover;
+				hasLeftover = false;
+				return 1;
+			}
+			if(len == 1) {
+				char[] pair = new char[2];
+				int n = read(pair, 0, 2);
+				if(n == 2) {
+					leftover = pair[1];
+					hasLeftover = true;
+				}
+				if(n > 0)
+					cbuf[off] = pair[0];
+				return n < 0 ? -1 : 1;
+			}
+			if(done)
+				return -1;
+			CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+			while(out.position() == off) {
+				boolean last = mapEnd == end;
+				if(buffer == null || (!last && buffer.remaining() < MAX_CHAR_BYTES)) {
+					mapNext();
+					last = mapEnd == end;
+				}
+				decoder.decode(buffer, out, last);
+				if(last && !buffer.hasRemaining()) {
+					decoder.flush(out);
+					done = true;
+					break;
+				}
+			}
+			int n = out.position() - off;
+			return n == 0 ? -1 : n;
+		}
+
+		/**
+		 * @return the offset in the file of the first byte not yet decoded
+		 */
+		long position() {
+			return buffer == null ? mapStart : mapStart + buffer.position();
+		}
+
+		Charset getCharset() {
+			return charset;
+		}
+
+		//Maps the next window, starting at the first byte not yet decoded
+		private void mapNext() throws IOException {
+			long start = position();
+			long length = Math.min(MAP_SIZE, end - start);
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			mapStart = start;
+			mapEnd = start + length;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(closeFile)
+				MappedCsvFile.this.close();
+		}
+	}
+}
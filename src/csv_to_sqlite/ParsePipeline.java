@@ -0,0 +1,270 @@
+package csv_to_sqlite;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ *
+ * Parses a csv on a thread pool and feeds the converted rows to a single writer
+ * - The memory-mapped file is split into record-aligned regions (see MappedCsvFile.split)
+ * - Every region is tokenized and type checked by its own task on a ForkJoinPool, which divides its rows into
+ *   batches of options.getBatchSize() rows or options.getBatchBytes() bytes, as Table.addBatch does
+ * - The finished blocks reach the writer in file order through a bounded queue; once the queue is full,
+ *   no further regions are submitted, which bounds the memory held by parsed rows
+ * - The writer inserts every batch as one executeBatch and commits every options.getCommitInterval() batches,
+ *   with a checkpoint at the end of the batch
+ * - Inserted blocks return to a pool and are refilled by later tasks, so the buffers of the parsed rows
+ *   (see ColumnBatch) are allocated for the first few regions only
+ * The writer is the thread calling run, which must be the only thread using the table's connection.
+ * Several pipelines may share one pool (see ConvertOptions.setParsePool), each keeping its own queue.
+ */
+class ParsePipeline implements Closeable {
+
+	private final ConvertOptions options;
+	private final MappedCsvFile file;
+	private final List<MappedCsvFile.Region> regions;
+	//receives the read, parse and wait times, may be null
+	private IngestMetrics metrics;
+	//finds the rows repeating an earlier row, null unless rows are deduplicated
+	private DuplicateFilter dedup;
+	//whether the rows are profiled
+	private boolean profile;
+	//blocks already inserted, ready for reuse
+	private final Queue<RowBlock> free = new ConcurrentLinkedQueue<RowBlock>();
+
+	/**
+	 * Maps the csv and splits it into regions of options.getChunkSize() bytes
+	 */
+	ParsePipeline(String csvPath, ConvertOptions options) throws IOException {
+		this(csvPath, options, 0, 1);
+	}
+
+	/**
+	 * Same as ParsePipeline(csvPath, options) for the part of the csv starting at a record boundary
+	 * @param start: byte offset of the first record to load
+	 * @param firstLine: line number of that record
+	 */
+	ParsePipeline(String csvPath, ConvertOptions options, long start, long firstLine) throws IOException {
+		this.options = options;
+		this.file = new MappedCsvFile(csvPath, options.getCharset());
+		this.regions = file.split(start, firstLine, options.getChunkSize());
+	}
+
+	/**
+	 * Same as ParsePipeline(csvPath, options, start, firstLine), unless the csv cannot be split into regions
+	 * (see MappedCsvFile.split) while it is larger than one region: parsing it as a single block would hold every row
+	 * of the csv in memory at once, so it is left to a single tokenizer streaming the rows instead
+	 * @return the pipeline, or null if the csv is not split
+	 */
+	static ParsePipeline open(String csvPath, ConvertOptions options, long start, long firstLine) throws IOException {
+		ParsePipeline pipeline = new ParsePipeline(csvPath, options, start, firstLine);
+		MappedCsvFile.Region first = pipeline.regions.get(0);
+		if(pipeline.regions.size() > 1 || first.getEnd() - first.getStart() <= options.getChunkSize())
+			return pipeline;
+		pipeline.close();
+		System.out.println("The records of " + csvPath + " cannot be split into regions; it is read on one thread");
+		return null;
+	}
+
+	/**
+	 * @return a reader over the first region, used to read the header and a sample before run is called
+	 */
+	Reader firstRegion() {
+		return file.reader(regions.get(0));
+	}
+
+	/**
+	 * Loads the records of the csv into the table
+	 * @param skipRecords: number of records at the start of the file that were already handled, including the header
+	 *		These must all lie in the first region.
+	 * @param checkpoints: commits the loaded rows after the region they end in
+	 * @param stats: receives the record counts and rejected rows
+	 */
+	void run(Variable[] cols, int skipRecords, Table table, Checkpointer checkpoints, LoadStats stats)
+			throws IOException, SQLException, InterruptedException {
+		metrics = stats.metrics;
+		dedup = stats.dedup;
+		profile = stats.profile != null;
+		boolean shared = options.getParsePool() != null;
+		ForkJoinPool pool = shared ? options.getParsePool() : new ForkJoinPool(options.getParseThreads());
+		BlockingQueue<Future<RowBlock>> queue = new ArrayBlockingQueue<Future<RowBlock>>(options.getQueueCapacity());
+		try {
+			Thread submitter = new Thread(() -> submit(cols, skipRecords, pool, queue), "csv-parse-submitter");
+			submitter.setDaemon(true);
+			submitter.start();
+			try {
+				write(queue, table, checkpoints, stats);
+			}
+			finally {
+				submitter.interrupt();
+				submitter.join();
+				for(Future<RowBlock> pending : queue)
+					pending.cancel(true);
+			}
+		}
+		finally {
+			if(!shared)
+				pool.shutdownNow();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	//Submits a parse task for every region, ending with a null block
+	private void submit(Variable[] cols, int skipRecords, ForkJoinPool pool, BlockingQueue<Future<RowBlock>> queue) {
+		try {
+			try {
+				for(int i = 0; i < regions.size(); i++) {
+					MappedCsvFile.Region region = regions.get(i);
+					int skip = i == 0 ? skipRecords : 0;
+					queue.put(pool.submit(() -> parse(region, cols, skip)));
+				}
+				queue.put(CompletableFuture.completedFuture(null));
+			}
+			catch(RuntimeException e) {
+				queue.put(CompletableFuture.failedFuture(e));
+			}
+		}
+		catch(InterruptedException e) {
+			//the writer has stopped
+		}
+	}
+
+	//Takes blocks off the queue in file order and inserts them batch by batch, committing every commitInterval batches
+	private void write(BlockingQueue<Future<RowBlock>> queue, Table table, Checkpointer checkpoints, LoadStats stats)
+			throws IOException, SQLException, InterruptedException {
+		long lastCommit = table.getBatchCount();
+		long nextLine = regions.get(0).getFirstLine();
+		while(true) {
+			RowBlock block;
+			long start = System.nanoTime();
+			try {
+				block = queue.take().get();
+			}
+			catch(ExecutionException e) {
+				throw new IOException("Failed to parse csv: " + e.getCause(), e.getCause());
+			}
+			if(metrics != null)
+				metrics.add(IngestMetrics.Stage.WAIT, System.nanoTime() - start);
+			if(block == null) {
+				checkpoints.commit(file.size(), nextLine, stats);
+				return;
+			}
+			int rejected = 0;
+			for(int batch = 0; batch < block.batches; batch++) {
+				int from = block.batchStart(batch);
+				int to = block.batchEnds[batch];
+				//the records read and rejected before the end of the batch are counted with it, so a checkpoint
+				//after the batch holds their counts
+				stats.received += block.batchReceived[batch] - (batch == 0 ? 0 : block.batchReceived[batch - 1]);
+				for(; rejected < block.rejected.size()
+						&& block.rejected.get(rejected).getLineNumber() < block.batchLines[batch]; rejected++)
+					stats.reject(block.rejected.get(rejected));
+				if(dedup != null)
+					findDuplicates(block, from, to, stats);
+				List<RejectedRow> failed = table.insertBlock(block, from, to);
+				stats.good += to - from - block.duplicates.get(from, to).cardinality();
+				stats.rejectInserted(failed);
+				//the profile of deduplicated rows leaves out the duplicates, so it is gathered here
+				for(int row = from; block.profile == null && stats.profile != null && row < to; row++)
+					if(!block.duplicates.get(row))
+						stats.profile.add(block.records, row);
+				stats.publish();
+				nextLine = block.batchLines[batch];
+				if(table.getBatchCount() - lastCommit >= options.getCommitInterval()) {
+					checkpoints.commit(block.batchOffsets[batch], block.batchLines[batch], stats);
+					lastCommit = table.getBatchCount();
+				}
+			}
+			if(block.profile != null)
+				stats.profile.merge(block.profile);
+			block.clear();
+			free.offer(block);
+		}
+	}
+
+	//Marks the rows [from, to) of the block repeating an earlier row, in file order, and remembers the others
+	private void findDuplicates(RowBlock block, int from, int to, LoadStats stats) throws IOException {
+		for(int row = from; row < to; row++) {
+			long h1 = block.hashes[2 * row];
+			long h2 = block.hashes[2 * row + 1];
+			if(dedup.isDuplicate(h1, h2)) {
+				block.duplicates.set(row);
+				stats.duplicate(new RejectedRow(block.records.getLineNumber(row), LoadStats.DUPLICATE,
+						block.records.getFields(row)));
+			}
+			else
+				dedup.add(h1, h2);
+		}
+	}
+
+	//Tokenizes and type checks the records of one region
+	private RowBlock parse(MappedCsvFile.Region region, Variable[] cols, int skip) throws IOException {
+		long start = System.nanoTime();
+		RowBlock block = free.poll();
+		if(block == null)
+			block = new RowBlock(cols, profile && dedup == null);
+		block.end = region.getEnd();
+		//the byte offsets of the batches are only needed for checkpoints, and cost an encoding of the tokenizer's window
+		boolean offsets = options.isCheckpoints();
+		int batchRows = 0;
+		int batchLength = 0;
+		RowConverter converter = new RowConverter(cols);
+		DuplicateFilter.Hasher hasher = dedup == null ? null : dedup.newHasher();
+		try (CsvTokenizer tokenizer = new CsvTokenizer(file.reader(region))) {
+			tokenizer.setMetrics(metrics);
+			tokenizer.setLineNumber(region.getFirstLine());
+			for(int i = 0; i < skip; i++)
+				tokenizer.next();
+			while(tokenizer.next()) {
+				block.received++;
+				if(tokenizer.getFieldCount() != cols.length) {
+					block.rejected.add(new RejectedRow(tokenizer.getLineNumber(),
+							CsvToSQLite.lengthMismatch(cols.length, tokenizer.getFieldCount()), tokenizer.getRawRecord()));
+					continue;
+				}
+				block.records.add(tokenizer);
+				try {
+					converter.convert(block.records, block.records.size() - 1, block.columns);
+					if(block.profile != null)
+						block.profile.add(block.records, block.records.size() - 1);
+					if(hasher != null) {
+						hasher.hash(block.columns, block.size() - 1);
+						block.setHash(block.records.size() - 1, hasher.h1, hasher.h2);
+					}
+				}
+				catch(Exception e) {
+					block.records.removeLast();
+					block.rejected.add(new RejectedRow(tokenizer.getLineNumber(), e.getMessage(), tokenizer.getRawRecord()));
+					continue;
+				}
+				//fields are held as UTF-16 chars
+				if(++batchRows >= options.getBatchSize() || (options.getBatchBytes() > 0
+						&& 2L * (block.records.getLength() - batchLength) >= options.getBatchBytes())) {
+					block.endBatch(offsets ? tokenizer.getByteOffset() : -1, tokenizer.getNextLineNumber());
+					batchRows = 0;
+					batchLength = block.records.getLength();
+				}
+			}
+			block.nextLine = tokenizer.getNextLineNumber();
+			block.endBatch(region.getEnd(), block.nextLine);
+		}
+		if(metrics != null)
+			metrics.add(IngestMetrics.Stage.PARSE, System.nanoTime() - start);
+		return block;
+	}
+}
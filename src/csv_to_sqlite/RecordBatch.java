@@ -0,0 +1,151 @@
+package csv_to_sqlite;
+
+import java.util.Arrays;
+
+/**
+ *
+ * A batch of csv records stored as one contiguous char buffer with field offsets
+ * Used by Table to keep the rows of a pending batch without creating a string per field
+ */
+class RecordBatch {
+
+	private char[] chars = new char[8192];
+	private int length;
+
+	//start and end offset of every field, for all rows in order
+	private int[] starts = new int[1024];
+	private int[] ends = new int[1024];
+	private int fields;
+
+	//index of the first field of every row; firstField[rows] == fields
+	private int[] firstField = new int[129];
+	private long[] lineNumbers = new long[128];
+	private int rows;
+
+	/**
+	 * Appends the current record of the tokenizer
+	 */
+	void add(CsvTokenizer record) {
+		int count = record.getFieldCount();
+		char[] src = record.getBuffer();
+		for(int i = 0; i < count; i++)
+			addField(src, record.getFieldStart(i), record.getFieldLength(i));
+		endRow(record.getLineNumber());
+	}
+
+	/**
+	 * Appends a copy of a row of another batch
+	 */
+	void add(RecordBatch other, int row) {
+		int count = other.getFieldCount(row);
+		for(int i = 0; i < count; i++)
+			addField(other.chars, other.getStart(row, i), other.getEnd(row, i) - other.getStart(row, i));
+		endRow(other.getLineNumber(row));
+	}
+
+	/**
+	 * Appends a row given as strings
+	 */
+	void add(String[] values) {
+		for(String value : values) {
+			ensureChars(value.length());
+			value.getChars(0, value.length(), chars, length);
+			addRange(length, length + value.length());
+			length += value.length();
+		}
+		endRow(0);
+	}
+
+	/**
+	 * Removes the most recently added row
+	 */
+	void removeLast() {
+		rows--;
+		fields = firstField[rows];
+		length = fields == 0 ? 0 : ends[fields - 1];
+	}
+
+	void clear() {
+		rows = 0;
+		fields = 0;
+		length = 0;
+	}
+
+	int size() {
+		return rows;
+	}
+
+	/**
+	 * @return the number of characters held by the fields of all rows
+	 */
+	int getLength() {
+		return length;
+	}
+
+	int getFieldCount(int row) {
+		return firstField[row + 1] - firstField[row];
+	}
+
+	char[] getChars() {
+		return chars;
+	}
+
+	int getStart(int row, int i) {
+		return starts[firstField[row] + i];
+	}
+
+	int getEnd(int row, int i) {
+		return ends[firstField[row] + i];
+	}
+
+	String getField(int row, int i) {
+		int f = firstField[row] + i;
+		return new String(chars, starts[f], ends[f] - starts[f]);
+	}
+
+	/**
+	 * @return the fields of the given row as new strings
+	 */
+	String[] getFields(int row) {
+		String[] values = new String[getFieldCount(row)];
+		for(int i = 0; i < values.length; i++)
+			values[i] = getField(row, i);
+		return values;
+	}
+
+	long getLineNumber(int row) {
+		return lineNumbers[row];
+	}
+
+	private void addField(char[] src, int start, int len) {
+		ensureChars(len);
+		System.arraycopy(src, start, chars, length, len);
+		addRange(length, length + len);
+		length += len;
+	}
+
+	private void addRange(int start, int end) {
+		if(fields == starts.length) {
+			starts = Arrays.copyOf(starts, fields * 2);
+			ends = Arrays.copyOf(ends, fields * 2);
+		}
+		starts[fields] = start;
+		ends[fields] = end;
+		fields++;
+	}
+
+	private void endRow(long lineNumber) {
+		if(rows == lineNumbers.length) {
+			lineNumbers = Arrays.copyOf(lineNumbers, rows * 2);
+			firstField = Arrays.copyOf(firstField, rows * 2 + 1);
+		}
+		lineNumbers[rows] = lineNumber;
+		rows++;
+		firstField[rows] = fields;
+	}
+
+	private void ensureChars(int len) {
+		if(length + len > chars.length)
+			chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + len));
+	}
+}
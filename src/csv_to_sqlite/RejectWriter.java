@@ -0,0 +1,239 @@
+package csv_to_sqlite;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ *
+ * Streams rejected records to the bad csv while the load runs
+ * Every line of the bad csv holds the line number of the record in the input, the reason it failed
+ * and the record itself. Records read by a tokenizer are written exactly as they appeared in the input.
+ * - The file is written through a buffered FileChannel in an explicit charset
+ * - With gzip enabled the file is compressed and ".gz" is appended to its name
+ * - With a rotation size, a new file is started once a file holds that many characters:
+ *   <name>-bad.csv, <name>-bad-2.csv, <name>-bad-3.csv...
+ * Every file starts with a header, so the records of an appended csv with another header go to a new file.
+ * Not thread safe; rejected rows are written by the thread loading the table.
+ */
+public class RejectWriter implements Closeable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	//path of the first file without ".csv"
+	private final String basePath;
+	private final String[] header;
+	private final Charset charset;
+	private final long rotateSize;
+	private final boolean gzip;
+
+	private FileChannel channel;
+	private Writer out;
+	private int fileIndex = 0;
+	private long fileSize;
+	private long count;
+
+	/**
+	 * Opens basePath + ".csv" for writing and writes the header
+	 * @param basePath: path of the bad csv without the ".csv" extension
+	 * @param header: the header of the input csv
+	 * @param rotateSize: approximate number of characters per file, 0 to never rotate
+	 * @param gzip: whether to compress the files
+	 */
+	public RejectWriter(String basePath, String[] header, Charset charset, long rotateSize, boolean gzip) throws IOException {
+		this(basePath, header, charset, rotateSize, gzip, 0, 0);
+	}
+
+	/**
+	 * Same as RejectWriter(basePath, header, charset, rotateSize, gzip), continuing the files of an interrupted load
+	 * The file continueFile is cut back to continueOffset bytes and later files are deleted, since the records
+	 * written after that position are rejected again. A compressed file cannot be cut, so after a compressed file
+	 * a new file is started, and it may repeat some records.
+	 * @param continueFile: number of the file to continue (see getFileIndex), 0 to start over
+	 * @param continueOffset: the size to cut that file back to (see getFileOffset)
+	 */
+	public RejectWriter(String basePath, String[] header, Charset charset, long rotateSize, boolean gzip,
+			int continueFile, long continueOffset) throws IOException {
+		this.basePath = basePath;
+		this.header = header;
+		this.charset = charset;
+		this.rotateSize = rotateSize;
+		this.gzip = gzip;
+		if(continueFile > 0) {
+			for(int i = continueFile + 1; Files.deleteIfExists(Paths.get(path(i))); i++)
+				;
+			fileIndex = gzip ? continueFile : continueFile - 1;
+			open(gzip ? 0 : continueOffset);
+		}
+		else
+			open(0);
+	}
+
+	/**
+	 * Opens the bad csv to add the records of another load of the same table after those already written
+	 * Writing continues at the end of the last existing file, or in a new file after it when compressed or when
+	 * the header of the last file is not the given header, such as for a csv with its columns in another order.
+	 */
+	public static RejectWriter append(String basePath, String[] header, Charset charset, long rotateSize, boolean gzip)
+			throws IOException {
+		int last = 0;
+		while(Files.exists(Paths.get(path(basePath, last + 1, gzip))))
+			last++;
+		if(last > 0 && !gzip && !startsWith(Paths.get(path(basePath, last, gzip)), headerLine(header).getBytes(charset)))
+			return new RejectWriter(basePath, header, charset, rotateSize, gzip, last + 1, 0);
+		long size = last == 0 ? 0 : Files.size(Paths.get(path(basePath, last, gzip)));
+		return new RejectWriter(basePath, header, charset, rotateSize, gzip, last, size);
+	}
+
+	/**
+	 * Writes the current record of the tokenizer as it appeared in the input
+	 */
+	public void write(CsvTokenizer record, String reason) throws IOException {
+		startLine(record.getLineNumber(), reason);
+		record.writeRawRecord(out);
+		fileSize += record.getRawLength();
+		endLine();
+	}
+
+	public void write(RejectedRow row) throws IOException {
+		startLine(row.getLineNumber(), row.getReason());
+		if(row.getRaw() != null) {
+			out.write(row.getRaw());
+			fileSize += row.getRaw().length();
+		}
+		else
+			writeFields(row.getFields());
+		endLine();
+	}
+
+	/**
+	 * @return the number of records written
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Writes out the buffered records, so that they survive a crash of the load
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * @return the number of the file being written, starting from 1
+	 */
+	public int getFileIndex() {
+		return fileIndex;
+	}
+
+	/**
+	 * @return the number of bytes written to the current file, not counting buffered records; call flush first
+	 */
+	public long getFileOffset() throws IOException {
+		return channel.position();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Quotes a value if it contains a comma, a quote or a line break, the same way the tokenizer reads it
+	 */
+	static String quote(String value) {
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == ',' || c == '"' || c == '\n' || c == '\r')
+				return "\"" + value.replace("\"", "\"\"") + "\"";
+		}
+		return value;
+	}
+
+	private void startLine(long lineNumber, String reason) throws IOException {
+		if(rotateSize > 0 && fileSize >= rotateSize) {
+			out.close();
+			openNext();
+		}
+		String prefix = lineNumber + "," + quote(reason == null ? "" : reason) + ",";
+		out.write(prefix);
+		fileSize += prefix.length();
+	}
+
+	private void endLine() throws IOException {
+		out.write('\n');
+		fileSize++;
+		count++;
+	}
+
+	private void writeFields(String[] fields) throws IOException {
+		for(int i = 0; i < fields.length; i++) {
+			if(i > 0)
+				out.write(',');
+			String value = quote(fields[i]);
+			out.write(value);
+			fileSize += value.length() + 1;
+		}
+	}
+
+	private void openNext() throws IOException {
+		open(0);
+	}
+
+	//Opens the file after the current one, keeping its first keep bytes; the header is written to empty files
+	private void open(long keep) throws IOException {
+		fileIndex++;
+		channel = FileChannel.open(Paths.get(path(fileIndex)), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		channel.truncate(keep);
+		channel.position(channel.size());
+		OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+		if(gzip)
+			stream = new GZIPOutputStream(stream, BUFFER_SIZE, true);
+		out = new OutputStreamWriter(stream, charset);
+		fileSize = channel.size();
+		if(fileSize > 0)
+			return;
+		String line = headerLine(header);
+		out.write(line);
+		fileSize += line.length();
+	}
+
+	//The first line of every file, with its line break
+	private static String headerLine(String[] header) {
+		StringBuilder line = new StringBuilder("line,reason");
+		for(String field : header)
+			line.append(',').append(quote(field));
+		return line.append('\n').toString();
+	}
+
+	//Whether a file starts with the given bytes
+	private static boolean startsWith(Path file, byte[] prefix) throws IOException {
+		byte[] start = new byte[prefix.length];
+		try (InputStream in = Files.newInputStream(file)) {
+			int n = in.readNBytes(start, 0, start.length);
+			return n == prefix.length && Arrays.equals(start, prefix);
+		}
+	}
+
+	private String path(int index) {
+		return path(basePath, index, gzip);
+	}
+
+	private static String path(String basePath, int index, boolean gzip) {
+		return basePath + (index == 1 ? "" : "-" + index) + ".csv" + (gzip ? ".gz" : "");
+	}
+}
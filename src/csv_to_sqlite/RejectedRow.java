@@ -0,0 +1,60 @@
+package csv_to_sqlite;
+
+/**
+ *
+ * A csv record that failed to insert, with the reason it failed
+ * The record is kept either as its raw text from the input, or as its fields when the raw text is no longer available.
+ */
+public class RejectedRow {
+
+	private final long lineNumber;
+	private final String reason;
+	private final String raw;
+	private final String[] fields;
+
+	/**
+	 * @param lineNumber: line on which the record starts, 0 if unknown
+	 * @param reason: why the record failed
+	 * @param raw: the record as it appeared in the input
+	 */
+	public RejectedRow(long lineNumber, String reason, String raw) {
+		this.lineNumber = lineNumber;
+		this.reason = reason;
+		this.raw = raw;
+		this.fields = null;
+	}
+
+	/**
+	 * @param lineNumber: line on which the record starts, 0 if unknown
+	 * @param reason: why the record failed
+	 * @param fields: the values of the record
+	 */
+	public RejectedRow(long lineNumber, String reason, String[] fields) {
+		this.lineNumber = lineNumber;
+		this.reason = reason;
+		this.raw = null;
+		this.fields = fields;
+	}
+
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	public String getReason() {
+		return reason;
+	}
+
+	/**
+	 * @return the raw text of the record, or null if only its fields are known
+	 */
+	public String getRaw() {
+		return raw;
+	}
+
+	/**
+	 * @return the fields of the record, or null if its raw text is known
+	 */
+	public String[] getFields() {
+		return fields;
+	}
+}
@@ -0,0 +1,107 @@
+package csv_to_sqlite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ *
+ * The result of parsing and converting one region of a csv
+ * Rows that passed the type check are kept both as converted values and as their original fields,
+ * so rows that fail on insert can still be written to the bad csv.
+ * The rows are divided into the insert batches of the load (see ConvertOptions.setBatchSize and setBatchBytes),
+ * each ending at a record boundary the load can be committed and resumed from.
+ * Blocks are reused by ParsePipeline once inserted, keeping the memory of their buffers.
+ */
+class RowBlock {
+
+	//fields of the rows that passed the type check
+	final RecordBatch records = new RecordBatch();
+	//converted values of those rows, in the same order
+	final ColumnBatch columns;
+	//statistics of the rows that passed the type check, null unless profiling
+	final TableProfile profile;
+	//128-bit hashes of the rows that passed the type check, two longs per row, when rows are deduplicated
+	long[] hashes = new long[0];
+	//rows found by the writer to repeat an earlier row, which are not inserted
+	final BitSet duplicates = new BitSet();
+	//rows that failed the length or type check
+	final List<RejectedRow> rejected = new ArrayList<RejectedRow>();
+	//number of records read from the region
+	int received;
+	//byte offset of the end of the region, and the line number following it
+	long end;
+	long nextLine;
+	//for every batch: the row it ends before, the records read up to its end, the byte offset of its end
+	//and the line number following it
+	int batches;
+	int[] batchEnds = new int[4];
+	int[] batchReceived = new int[4];
+	long[] batchOffsets = new long[4];
+	long[] batchLines = new long[4];
+
+	RowBlock(Variable[] cols, boolean profile) {
+		columns = new ColumnBatch(cols);
+		this.profile = profile ? new TableProfile(cols) : null;
+	}
+
+	int size() {
+		return columns.size();
+	}
+	
+	/**
+	 * Sets the hash of a row, see DuplicateFilter.Hasher
+	 */
+	void setHash(int row, long h1, long h2) {
+		if(hashes.length < 2 * row + 2)
+			hashes = Arrays.copyOf(hashes, Math.max(2 * row + 2, 2 * hashes.length));
+		hashes[2 * row] = h1;
+		hashes[2 * row + 1] = h2;
+	}
+
+	/**
+	 * Ends the current batch after the last row of the block, replacing the end of the previous batch
+	 * if no row was added since
+	 * @param offset: byte offset of the first record after the batch, -1 if unknown
+	 * @param line: line number of that record
+	 */
+	void endBatch(long offset, long line) {
+		if(batches == 0 || batchEnds[batches - 1] < size()) {
+			if(batches == batchEnds.length) {
+				batchEnds = Arrays.copyOf(batchEnds, 2 * batches);
+				batchReceived = Arrays.copyOf(batchReceived, 2 * batches);
+				batchOffsets = Arrays.copyOf(batchOffsets, 2 * batches);
+				batchLines = Arrays.copyOf(batchLines, 2 * batches);
+			}
+			batches++;
+		}
+		batchEnds[batches - 1] = size();
+		batchReceived[batches - 1] = received;
+		batchOffsets[batches - 1] = offset;
+		batchLines[batches - 1] = line;
+	}
+
+	/**
+	 * @return the first row of a batch
+	 */
+	int batchStart(int batch) {
+		return batch == 0 ? 0 : batchEnds[batch - 1];
+	}
+
+	/**
+	 * Empties the block for the next region
+	 */
+	void clear() {
+		records.clear();
+		columns.clear();
+		rejected.clear();
+		duplicates.clear();
+		if(profile != null)
+			profile.clear();
+		received = 0;
+		end = 0;
+		nextLine = 0;
+		batches = 0;
+	}
+}
@@ -0,0 +1,48 @@
+package csv_to_sqlite;
+
+import java.sql.SQLException;
+
+/**
+ *
+ * Type checks csv fields against the column types and stages them in a ColumnBatch for the insert statement
+ * - INTEGER and BOOLEAN fields are stored as longs, REAL fields as doubles
+ * - PNG64 fields are stored as their decoded bytes, fields of any other type as their chars
+ * - Empty fields become null
+ */
+class RowConverter {
+
+	private final ColumnBinder[] binders;
+
+	RowConverter(Variable[] cols) {
+		binders = new ColumnBinder[cols.length];
+		for(int i = 0; i < cols.length; i++)
+			binders[i] = cols[i].getBinder();
+	}
+
+	/**
+	 * Converts a row of the batch and appends it to columns; a row failing the check is not added
+	 * @throws SQLException if the row has the wrong length
+	 * @throws IllegalArgumentException if a value fails the type check
+	 */
+	void convert(RecordBatch batch, int row, ColumnBatch columns) throws SQLException {
+		if(batch.getFieldCount(row) != binders.length)
+			throw new SQLException("Invalid length of input for insert statement.");
+		char[] chars = batch.getChars();
+		columns.beginRow();
+		try {
+			for(int i = 0; i < binders.length; i++) {
+				int start = batch.getStart(row, i);
+				int end = batch.getEnd(row, i);
+				if(start == end)
+					columns.putNull(i);
+				else
+					binders[i].stage(columns, i, chars, start, end);
+			}
+		}
+		catch(RuntimeException e) {
+			columns.abortRow();
+			throw e;
+		}
+		columns.endRow();
+	}
+}
@@ -0,0 +1,191 @@
+package csv_to_sqlite;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *
+ * Outcome of every csv of a ConvertScheduler run
+ * The run is written as a csv with one line per file: its table, database, size, status, record counts and load time.
+ */
+public class RunSummary {
+
+	public enum Status {
+		//the rows of the file were committed
+		LOADED,
+		//the file holds no header
+		EMPTY,
+		//the file was recorded as loaded by an earlier run
+		SKIPPED,
+		//the load was refused or ended with an error; see getMessage
+		FAILED
+	}
+
+	/**
+	 * The outcome of one csv
+	 */
+	public static class Entry {
+
+		private final String csvPath;
+		private final String tableName;
+		private final String database;
+		private final long size;
+		private Status status;
+		private String message = "";
+		private int received;
+		private int good;
+		private int bad;
+		private long millis;
+
+		Entry(String csvPath, String tableName, String database, long size) {
+			this.csvPath = csvPath;
+			this.tableName = tableName;
+			this.database = database;
+			this.size = size;
+		}
+
+		void loaded(LoadStats stats, long millis) {
+			this.millis = millis;
+			if(stats == null) {
+				status = Status.EMPTY;
+				return;
+			}
+			status = Status.LOADED;
+			received = stats.received;
+			good = stats.good;
+			bad = stats.bad;
+		}
+
+		void skipped(String message) {
+			status = Status.SKIPPED;
+			this.message = message;
+		}
+
+		void failed(String message, long millis) {
+			status = Status.FAILED;
+			this.message = message == null ? "" : message;
+			this.millis = millis;
+		}
+
+		public String getCsvPath() {
+			return csvPath;
+		}
+
+		public String getTableName() {
+			return tableName;
+		}
+
+		public String getDatabase() {
+			return database;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		public int getReceived() {
+			return received;
+		}
+
+		public int getGood() {
+			return good;
+		}
+
+		public int getBad() {
+			return bad;
+		}
+
+		public long getMillis() {
+			return millis;
+		}
+	}
+
+	private final List<Entry> entries = new ArrayList<Entry>();
+	private long millis;
+
+	void addAll(List<Entry> group) {
+		entries.addAll(group);
+	}
+
+	void setMillis(long millis) {
+		this.millis = millis;
+	}
+
+	/**
+	 * @return the files of the run, grouped by table in the order the groups were started
+	 */
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * @return the wall clock time of the whole run
+	 */
+	public long getMillis() {
+		return millis;
+	}
+
+	public int count(Status status) {
+		int count = 0;
+		for(Entry entry : entries)
+			if(entry.status == status)
+				count++;
+		return count;
+	}
+
+	public long getReceived() {
+		long received = 0;
+		for(Entry entry : entries)
+			received += entry.received;
+		return received;
+	}
+
+	public long getGood() {
+		long good = 0;
+		for(Entry entry : entries)
+			good += entry.good;
+		return good;
+	}
+
+	public long getBad() {
+		long bad = 0;
+		for(Entry entry : entries)
+			bad += entry.bad;
+		return bad;
+	}
+
+	/**
+	 * Writes one line per file, after a header
+	 */
+	public void write(Path file) throws IOException {
+		try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			out.write("csv_path,table_name,database,size,status,received,good,bad,millis,message\n");
+			for(Entry entry : entries) {
+				out.write(RejectWriter.quote(entry.csvPath) + "," + entry.tableName + "," + RejectWriter.quote(entry.database)
+						+ "," + entry.size + "," + entry.status + "," + entry.received + "," + entry.good + "," + entry.bad
+						+ "," + entry.millis + "," + RejectWriter.quote(entry.message) + "\n");
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Loaded " + count(Status.LOADED) + " of " + entries.size() + " files (" + count(Status.SKIPPED) + " skipped, "
+				+ count(Status.EMPTY) + " empty, " + count(Status.FAILED) + " failed) in " + millis + " ms: "
+				+ getReceived() + " records received, " + getGood() + " inserted, " + getBad() + " failed";
+	}
+}
@@ -0,0 +1,106 @@
+package csv_to_sqlite;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ *
+ * Column names, types and primary keys of the tables of a database, read once per table from PRAGMA table_info
+ * Only existing tables are cached; Database drops the entry of a table it creates or drops, and every entry
+ * when a transaction is rolled back, since that may undo a create or a drop. Changes made to the schema by other
+ * connections are not seen.
+ */
+class SchemaCatalog {
+
+	/**
+	 * The columns of a table; the arrays must not be modified
+	 */
+	static final class TableSchema {
+		final String[] names;
+		//declared types as reported by the JDBC metadata: upper case, without a size such as (20)
+		final String[] types;
+		//columns of the declared primary key, in key order
+		final String[] primaryKey;
+
+		private TableSchema(String[] names, String[] types, String[] primaryKey) {
+			this.names = names;
+			this.types = types;
+			this.primaryKey = primaryKey;
+		}
+	}
+
+	private static final String TABLE_EXISTS = "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?";
+	private static final String TABLE_INFO = "SELECT name, type, pk FROM pragma_table_info(?) ORDER BY cid";
+
+	private final StatementCache statements;
+	private final Map<String, TableSchema> tables = new HashMap<String, TableSchema>();
+
+	SchemaCatalog(StatementCache statements) {
+		this.statements = statements;
+	}
+
+	/**
+	 * @return the schema of the table, or null if the database has no table of that name
+	 */
+	TableSchema get(String tableName) throws SQLException {
+		TableSchema schema = tables.get(tableName);
+		if(schema == null) {
+			schema = read(tableName);
+			if(schema != null)
+				tables.put(tableName, schema);
+		}
+		return schema;
+	}
+
+	void invalidate(String tableName) {
+		tables.remove(tableName);
+	}
+
+	void clear() {
+		tables.clear();
+	}
+
+	private TableSchema read(String tableName) throws SQLException {
+		PreparedStatement exists = statements.prepare(TABLE_EXISTS);
+		exists.setString(1, tableName);
+		try (ResultSet rs = exists.executeQuery()) {
+			if(!rs.next())
+				return null;
+		}
+		List<String> names = new ArrayList<String>();
+		List<String> types = new ArrayList<String>();
+		List<String> key = new ArrayList<String>();
+		List<Integer> order = new ArrayList<Integer>();
+		PreparedStatement info = statements.prepare(TABLE_INFO);
+		info.setString(1, tableName);
+		try (ResultSet rs = info.executeQuery()) {
+			while(rs.next()) {
+				names.add(rs.getString(1));
+				types.add(typeName(rs.getString(2)));
+				int pk = rs.getInt(3);
+				if(pk == 0)
+					continue;
+				int i = 0;
+				while(i < order.size() && order.get(i) < pk)
+					i++;
+				order.add(i, pk);
+				key.add(i, rs.getString(1));
+			}
+		}
+		return new TableSchema(names.toArray(new String[0]), types.toArray(new String[0]), key.toArray(new String[0]));
+	}
+
+	//Reports a declared type like ResultSetMetaData.getColumnTypeName, e.g. "varchar(20)" as "VARCHAR"
+	private static String typeName(String declared) {
+		if(declared == null)
+			return "";
+		int size = declared.indexOf('(');
+		return (size < 0 ? declared : declared.substring(0, size)).trim().toUpperCase(Locale.ENGLISH);
+	}
+}
@@ -0,0 +1,430 @@
+package csv_to_sqlite;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * Loads a csv into several database files at once, for CsvToSQLite.convert with ConvertOptions.setShards
+ * A SQLite database has one writer at a time, so a single file is loaded by one thread. Here the rows are
+ * spread over <table>-shard-1.db ... <table>-shard-N.db, each written by its own thread:
+ * - The calling thread reads the csv, chooses the column types from the sample and sends every record to a shard,
+ *   chosen by a hash of the text of the shard key column, or in turn without a key
+ * - Records reach the writers in batches through bounded queues; each writer type checks, binds and inserts them
+ *   into its shard and commits every getCommitInterval() batches
+ * - Once loaded, the shards are copied one at a time into <table>.db through ATTACH and deleted, and the indexes
+ *   are built there. Without merging, each shard gets the indexes and <table>-shards.sql attaches the shards under
+ *   a temporary UNION ALL view named after the table; a unique index then only covers its own shard, so it holds
+ *   for the whole table only if it includes the shard key.
+ * Rejected records go to one bad csv, those failing the type check as their fields rather than their raw text.
+ * Sharded loads create a new table: they are not checkpointed, cannot append, upsert, deduplicate images or rows,
+ * or dictionary encode, and build the primary key as a unique index, ignoring setPresort.
+ */
+class ShardedLoad {
+
+	//SQLite attaches at most 10 databases unless compiled otherwise
+	private static final int MAX_ATTACHED = 10;
+	//sent to a writer after its last batch
+	private static final RecordBatch END = new RecordBatch();
+
+	private final String directory;
+	private final String tableName;
+	private final String csvPath;
+	private final ConvertOptions options;
+	private final Database[] shards;
+	private final Table[] tables;
+	//the database the shards are merged into, null when they are left in place
+	private Database main;
+
+	private ShardedLoad(String directory, String tableName, String csvPath, ConvertOptions options) {
+		this.directory = directory.endsWith("/") ? directory : directory + "/";
+		this.tableName = tableName;
+		this.csvPath = csvPath;
+		this.options = options;
+		this.shards = new Database[options.getShards()];
+		this.tables = new Table[options.getShards()];
+	}
+
+	/**
+	 * Converts the csv into the table named after it, as CsvToSQLite.convert does, writing to options.getShards() files
+	 */
+	static void convert(String directory, String csvFile, ConvertOptions options) {
+		ShardedLoad load = new ShardedLoad(directory, CsvToSQLite.parseFileName(csvFile), csvFile, options);
+		String refused = load.refusal();
+		if(refused != null) {
+			System.out.println(refused);
+			return;
+		}
+		try {
+			load.open();
+			refused = load.main == null ? null : CsvToSQLite.refusal(load.main, load.tableName, options, false);
+			if(refused != null)
+				System.out.println(refused);
+			else
+				load.load();
+		}
+		catch(Exception e) {
+			System.out.println(e);
+		}
+		finally {
+			load.close();
+		}
+	}
+
+	//Reason the csv cannot be loaded in shards, or null if it can
+	private String refusal() {
+		if(options.isResume() || options.isAppend() || options.isDeduplicateImages())
+			return "A sharded load creates a new table; it cannot resume, append, upsert or deduplicate images";
+		if(options.isDeduplicateRows())
+			return "Rows are routed to the shards before their type check; a sharded load cannot deduplicate rows";
+		if(options.isDictionaryEncoding())
+			return "The shards would number the values of a column differently; a sharded load cannot dictionary encode";
+		if(!options.isMergeShards() && shards.length > MAX_ATTACHED)
+			return "At most " + MAX_ATTACHED + " shards can be attached under a view; merge the shards or use fewer";
+		if(!options.isMergeShards() && new File(shardPath(0)).exists())
+			return "The shards of " + tableName + " already exist in " + directory;
+		return null;
+	}
+
+	private void open() {
+		if(options.isMergeShards())
+			main = new Database(directory, tableName + ".db", options.getLoadProfile());
+		for(int i = 0; i < shards.length; i++)
+			shards[i] = new Database(directory, shardName(i), options.getLoadProfile());
+	}
+
+	private void load() throws Exception {
+		IngestMetrics metrics = new IngestMetrics(tableName, csvPath);
+		try (CsvTokenizer csvReader = new CsvTokenizer(CsvToSQLite.openCsv(csvPath, options, 0, metrics))) {
+			metrics.start(options.getProgressInterval());
+			csvReader.setMetrics(metrics);
+			if(!csvReader.next()) {
+				System.out.println("The csv " + csvPath + " is empty");
+				return;
+			}
+			String[] header = csvReader.getFields();
+			int keyColumn = keyColumn(header);
+			RecordBatch sample = new RecordBatch();
+			List<String> sampleRaw = new ArrayList<String>();
+			while(sample.size() < options.getSampleSize() && csvReader.next()) {
+				sample.add(csvReader);
+				sampleRaw.add(csvReader.getRawRecord());
+			}
+			String[] varTypes = CsvToSQLite.chooseTypes(header, sample, options);
+			Variable[] cols = new Variable[header.length];
+			for(int i = 0; i < cols.length; i++)
+				cols[i] = CsvToSQLite.column(header[i], varTypes[i], options);
+			for(int i = 0; i < shards.length; i++) {
+				//left over from a failed sharded load, since merged shards are deleted
+				shards[i].dropTable(tableName);
+				tables[i] = shards[i].createNewTable(tableName, cols, false);
+				if(tables[i] == null)
+					throw new SQLException("Could not create the table " + tableName + " in " + shardName(i));
+				tables[i].setBatchSize(options.getBatchSize());
+				tables[i].setBatchBytes(options.getBatchBytes());
+				tables[i].setMetrics(metrics);
+			}
+			try (RejectWriter rejects = new RejectWriter(directory + tableName + "-bad", header, options.getCharset(),
+					options.getRejectRotateSize(), options.isRejectGzip())) {
+				LoadStats stats = new LoadStats();
+				stats.rejects = rejects;
+				stats.metrics = metrics;
+				if(options.isProfile())
+					stats.profile = new TableProfile(cols);
+				long start = System.nanoTime();
+				insertRows(csvReader, sample, sampleRaw, cols, keyColumn, stats);
+				stats.loadMillis = (System.nanoTime() - start) / 1000000;
+
+				start = System.nanoTime();
+				if(main != null)
+					merge(cols, stats);
+				else
+					indexShards(cols, stats);
+				metrics.add(IngestMetrics.Stage.INDEX, System.nanoTime() - start);
+				stats.indexMillis = (System.nanoTime() - start) / 1000000;
+				CsvToSQLite.layOut(main != null ? new Database[] {main} : shards, tableName, cols, options, stats);
+				stats.publish();
+				metrics.finish();
+				CsvToSQLite.logStats(directory + tableName + ".log", csvPath, stats);
+				metrics.writeJson(directory + tableName + "-metrics.json");
+			}
+		}
+		finally {
+			metrics.finish();
+		}
+	}
+
+	//Index of the shard key in the header, -1 without a shard key
+	private int keyColumn(String[] header) {
+		if(options.getShardKey() == null)
+			return -1;
+		for(int i = 0; i < header.length; i++)
+			if(header[i].trim().equalsIgnoreCase(options.getShardKey()))
+				return i;
+		throw new IllegalArgumentException("The shard key " + options.getShardKey() + " is not a column of " + csvPath);
+	}
+
+	/**
+	 * Sends the sample and the remaining records of the csv to the writers of their shards, and waits for the writers
+	 */
+	private void insertRows(CsvTokenizer csvReader, RecordBatch sample, List<String> sampleRaw, Variable[] cols,
+			int keyColumn, LoadStats stats) throws Exception {
+		int numColumns = cols.length;
+		AtomicInteger threads = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(shards.length,
+				task -> new Thread(task, "csv-shard-writer-" + threads.incrementAndGet()));
+		try {
+			ShardWriter[] writers = new ShardWriter[shards.length];
+			RecordBatch[] pending = new RecordBatch[shards.length];
+			for(int i = 0; i < shards.length; i++) {
+				writers[i] = new ShardWriter(shards[i], tables[i], stats, cols);
+				writers[i].result = executor.submit(writers[i]);
+				pending[i] = new RecordBatch();
+			}
+			int next = 0;
+			int received = 0;
+			for(int row = 0; row < sample.size(); row++) {
+				received++;
+				if(sample.getFieldCount(row) != numColumns) {
+					synchronized(stats) {
+						stats.reject(new RejectedRow(sample.getLineNumber(row),
+								CsvToSQLite.lengthMismatch(numColumns, sample.getFieldCount(row)), sampleRaw.get(row)));
+					}
+					continue;
+				}
+				int shard = keyColumn < 0 ? next++ % shards.length
+						: shard(sample.getChars(), sample.getStart(row, keyColumn), sample.getEnd(row, keyColumn));
+				pending[shard].add(sample, row);
+			}
+			while(csvReader.next()) {
+				received++;
+				if(csvReader.getFieldCount() != numColumns) {
+					synchronized(stats) {
+						stats.reject(csvReader, CsvToSQLite.lengthMismatch(numColumns, csvReader.getFieldCount()));
+					}
+					continue;
+				}
+				int shard;
+				if(keyColumn < 0)
+					shard = next++ % shards.length;
+				else {
+					int start = csvReader.getFieldStart(keyColumn);
+					shard = shard(csvReader.getBuffer(), start, start + csvReader.getFieldLength(keyColumn));
+				}
+				RecordBatch batch = pending[shard];
+				batch.add(csvReader);
+				if(batch.size() >= options.getBatchSize()) {
+					synchronized(stats) {
+						stats.received += received;
+					}
+					received = 0;
+					writers[shard].send(batch);
+					pending[shard] = writers[shard].free.poll();
+					if(pending[shard] == null)
+						pending[shard] = new RecordBatch();
+				}
+			}
+			synchronized(stats) {
+				stats.received += received;
+			}
+			for(int i = 0; i < shards.length; i++) {
+				writers[i].send(pending[i]);
+				writers[i].send(END);
+			}
+			for(ShardWriter writer : writers) {
+				writer.result.get();
+				if(writer.profile != null)
+					stats.profile.merge(writer.profile);
+			}
+		}
+		catch(ExecutionException e) {
+			if(e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	//Shard of a row by the text of its key
+	private int shard(char[] chars, int start, int end) {
+		int h = 0;
+		for(int i = start; i < end; i++)
+			h = 31 * h + chars[i];
+		return Math.floorMod(h ^ (h >>> 16), shards.length);
+	}
+
+	/**
+	 * Inserts the batches sent to one shard on a thread of its own; the shard's connection is used by this thread only
+	 */
+	private final class ShardWriter implements Callable<Void> {
+
+		private final BlockingQueue<RecordBatch> queue = new ArrayBlockingQueue<RecordBatch>(options.getQueueCapacity());
+		//batches already inserted, ready for reuse by the reading thread
+		private final Queue<RecordBatch> free = new ConcurrentLinkedQueue<RecordBatch>();
+		private final Database db;
+		private final Table table;
+		//shared by the writers and the reading thread, which update it while holding its lock
+		private final LoadStats stats;
+		//statistics of the rows of this shard, null unless profiling
+		private final TableProfile profile;
+		private Future<Void> result;
+
+		ShardWriter(Database db, Table table, LoadStats stats, Variable[] cols) {
+			this.db = db;
+			this.table = table;
+			this.stats = stats;
+			this.profile = stats.profile == null ? null : new TableProfile(cols);
+		}
+
+		//Queues a batch, unless the writer has failed
+		void send(RecordBatch batch) throws InterruptedException, ExecutionException {
+			while(!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+				if(result.isDone()) {
+					result.get();
+					throw new IllegalStateException("The writer of a shard stopped before the last batch");
+				}
+			}
+		}
+
+		@Override
+		public Void call() throws Exception {
+			long lastCommit = table.getBatchCount();
+			List<RejectedRow> invalid = new ArrayList<RejectedRow>();
+			List<RejectedRow> failed = new ArrayList<RejectedRow>();
+			while(true) {
+				RecordBatch batch = queue.take();
+				if(batch == END)
+					break;
+				int good = 0;
+				for(int row = 0; row < batch.size(); row++) {
+					try {
+						failed.addAll(table.addBatch(batch, row));
+						good++;
+						if(profile != null)
+							profile.add(batch, row);
+					}
+					catch(Exception e) {
+						invalid.add(new RejectedRow(batch.getLineNumber(row), e.getMessage(), batch.getFields(row)));
+					}
+				}
+				report(good, invalid, failed);
+				if(table.getBatchCount() - lastCommit >= options.getCommitInterval()) {
+					db.commit();
+					lastCommit = table.getBatchCount();
+				}
+				batch.clear();
+				free.offer(batch);
+			}
+			failed.addAll(table.executeBatch());
+			report(0, invalid, failed);
+			if(!db.commit())
+				throw new SQLException("Could not commit the rows of " + tableName + " to a shard");
+			return null;
+		}
+
+		//Adds the outcome of a batch to the shared counts and writes its rejected rows to the bad csv
+		private void report(int good, List<RejectedRow> invalid, List<RejectedRow> failed) throws IOException {
+			synchronized(stats) {
+				stats.good += good;
+				for(RejectedRow row : invalid)
+					stats.reject(row);
+				stats.rejectInserted(failed);
+				stats.publish();
+			}
+			invalid.clear();
+			failed.clear();
+		}
+	}
+
+	/**
+	 * Copies the rows of every shard into the table of the main database, deleting each shard once copied,
+	 * and builds the indexes of the table
+	 */
+	private void merge(Variable[] cols, LoadStats stats) throws IOException, SQLException {
+		Table merged = main.createNewTable(tableName, cols, false);
+		if(merged == null)
+			throw new SQLException("Could not create the table " + tableName);
+		merged.close();
+		for(int i = 0; i < shards.length; i++) {
+			tables[i].close();
+			tables[i] = null;
+			shards[i].close();
+			shards[i] = null;
+			main.attach(shardPath(i), "shard");
+			main.copyRows("shard." + tableName, tableName, new String[0]);
+			main.detach("shard");
+			for(String suffix : new String[] {"", "-wal", "-shm", "-journal"})
+				Files.deleteIfExists(Paths.get(shardPath(i) + suffix));
+			System.out.println("Merged " + shardName(i) + " into " + tableName + ".db");
+		}
+		CsvToSQLite.buildIndexes(main, tableName, tableName, cols, new String[0], stats);
+		if(stats.profile != null)
+			main.saveProfile(tableName, stats.profile);
+		main.commit();
+	}
+
+	/**
+	 * Builds the indexes of every shard and writes the script reading the shards as one table
+	 */
+	private void indexShards(Variable[] cols, LoadStats stats) throws IOException, SQLException {
+		for(Database shard : shards) {
+			CsvToSQLite.buildIndexes(shard, tableName, tableName, cols, new String[0], stats);
+			//every shard holds the profile of the whole table
+			if(stats.profile != null)
+				shard.saveProfile(tableName, stats.profile);
+			shard.commit();
+		}
+		StringBuilder script = new StringBuilder("-- Reads the shards of " + tableName + " as one table, for example with "
+				+ "sqlite3 -init " + tableName + "-shards.sql\n");
+		List<String> selects = new ArrayList<String>();
+		for(int i = 0; i < shards.length; i++) {
+			String path = new File(shardPath(i)).getAbsolutePath();
+			script.append("ATTACH DATABASE '").append(path.replace("'", "''")).append("' AS shard_").append(i + 1).append(";\n");
+			selects.add("SELECT * FROM shard_" + (i + 1) + "." + tableName);
+		}
+		script.append("CREATE TEMP VIEW ").append(tableName).append(" AS\n")
+				.append(String.join("\nUNION ALL ", selects)).append(";\n");
+		String scriptPath = directory + tableName + "-shards.sql";
+		Files.write(Paths.get(scriptPath), script.toString().getBytes(StandardCharsets.UTF_8));
+		System.out.println("Wrote " + scriptPath);
+	}
+
+	//Leaves every database in a durable state and closes it
+	private void close() {
+		for(int i = 0; i < shards.length; i++) {
+			if(tables[i] != null)
+				tables[i].close();
+			if(shards[i] != null)
+				CsvToSQLite.close(shards[i], options);
+		}
+		if(main != null)
+			CsvToSQLite.close(main, options);
+	}
+
+	private String shardName(int shard) {
+		return tableName + "-shard-" + (shard + 1) + ".db";
+	}
+
+	private String shardPath(int shard) {
+		return directory + shardName(shard);
+	}
+}
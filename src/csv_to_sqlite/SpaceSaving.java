@@ -0,0 +1,184 @@
+package csv_to_sqlite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ * The most frequent values of a stream, counted with a fixed number of counters (the Space-Saving algorithm)
+ * A value without a counter takes over the counter with the lowest count, adding one to it; that count is kept as
+ * the error of the new value. Every value more frequent than (values added) / capacity is then sure to have a
+ * counter, and its count is at most its error too high. Values are identified by a 64-bit hash and only their first
+ * MAX_CHARS chars are kept, in buffers reused by the counters, so adding a value never allocates.
+ * Summaries of parts of the same input merge into a summary of the whole. Not thread safe.
+ */
+class SpaceSaving {
+
+	static final int MAX_CHARS = 100;
+
+	/**
+	 * A value with its estimated count
+	 */
+	static final class Entry {
+		final String value;
+		final long count;
+		//how much count may exceed the true count
+		final long error;
+
+		private Entry(String value, long count, long error) {
+			this.value = value;
+			this.count = count;
+			this.error = error;
+		}
+	}
+
+	private final int capacity;
+	private final long[] keys;
+	private final char[][] texts;
+	private final int[] lengths;
+	private final long[] counts;
+	private final long[] errors;
+	private int size;
+	//counters ordered by count as a binary min-heap, and the position of every counter in it
+	private final int[] heap;
+	private final int[] heapIndex;
+	//counter + 1 by hash, 0 for an empty entry, with linear probing
+	private final int[] table;
+	private final int mask;
+
+	SpaceSaving(int capacity) {
+		this.capacity = capacity;
+		keys = new long[capacity];
+		texts = new char[capacity][MAX_CHARS];
+		lengths = new int[capacity];
+		counts = new long[capacity];
+		errors = new long[capacity];
+		heap = new int[capacity];
+		heapIndex = new int[capacity];
+		table = new int[Integer.highestOneBit(capacity) * 4];
+		mask = table.length - 1;
+	}
+
+	/**
+	 * Counts one occurrence of a value
+	 * @param hash: a well mixed 64-bit hash of the value
+	 */
+	void add(long hash, char[] chars, int start, int end) {
+		add(hash, chars, start, end, 1, 0);
+	}
+
+	void merge(SpaceSaving other) {
+		for(int i = 0; i < other.size; i++)
+			add(other.keys[i], other.texts[i], 0, other.lengths[i], other.counts[i], other.errors[i]);
+	}
+
+	/**
+	 * @return up to k values with the highest counts, highest first
+	 */
+	List<Entry> top(int k) {
+		Integer[] order = new Integer[size];
+		for(int i = 0; i < size; i++)
+			order[i] = i;
+		Arrays.sort(order, (a, b) -> Long.compare(counts[b], counts[a]));
+		List<Entry> top = new ArrayList<Entry>();
+		for(int i = 0; i < Math.min(k, size); i++) {
+			int slot = order[i];
+			top.add(new Entry(new String(texts[slot], 0, lengths[slot]), counts[slot], errors[slot]));
+		}
+		return top;
+	}
+
+	void clear() {
+		size = 0;
+		Arrays.fill(table, 0);
+	}
+
+	private void add(long hash, char[] chars, int start, int end, long count, long error) {
+		int slot = find(hash);
+		if(slot < 0) {
+			if(size < capacity) {
+				slot = size;
+				heap[size] = slot;
+				heapIndex[slot] = size;
+				size++;
+				counts[slot] = 0;
+				errors[slot] = 0;
+			}
+			else {
+				//the value takes over the lowest counter, which bounds how often it may have been seen before
+				slot = heap[0];
+				remove(keys[slot]);
+				errors[slot] = counts[slot];
+			}
+			keys[slot] = hash;
+			lengths[slot] = Math.min(MAX_CHARS, end - start);
+			System.arraycopy(chars, start, texts[slot], 0, lengths[slot]);
+			insert(hash, slot);
+		}
+		counts[slot] += count;
+		errors[slot] += error;
+		siftUp(siftDown(heapIndex[slot]));
+	}
+
+	private int find(long hash) {
+		for(int i = (int) hash & mask; table[i] != 0; i = (i + 1) & mask)
+			if(keys[table[i] - 1] == hash)
+				return table[i] - 1;
+		return -1;
+	}
+
+	private void insert(long hash, int slot) {
+		int i = (int) hash & mask;
+		while(table[i] != 0)
+			i = (i + 1) & mask;
+		table[i] = slot + 1;
+	}
+
+	//Removes a hash from the table, moving back the entries probed past it
+	private void remove(long hash) {
+		int i = (int) hash & mask;
+		while(keys[table[i] - 1] != hash)
+			i = (i + 1) & mask;
+		for(int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+			int home = (int) keys[table[j] - 1] & mask;
+			boolean between = i <= j ? i < home && home <= j : i < home || home <= j;
+			if(!between) {
+				table[i] = table[j];
+				i = j;
+			}
+		}
+		table[i] = 0;
+	}
+
+	private int siftDown(int i) {
+		while(true) {
+			int smallest = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if(left < size && counts[heap[left]] < counts[heap[smallest]])
+				smallest = left;
+			if(right < size && counts[heap[right]] < counts[heap[smallest]])
+				smallest = right;
+			if(smallest == i)
+				return i;
+			swap(i, smallest);
+			i = smallest;
+		}
+	}
+
+	private void siftUp(int i) {
+		while(i > 0 && counts[heap[(i - 1) / 2]] > counts[heap[i]]) {
+			swap(i, (i - 1) / 2);
+			i = (i - 1) / 2;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int a = heap[i];
+		heap[i] = heap[j];
+		heap[j] = a;
+		heapIndex[heap[i]] = i;
+		heapIndex[heap[j]] = j;
+	}
+}
@@ -0,0 +1,112 @@
+package csv_to_sqlite;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ * Prepared statements of a connection, kept by their SQL so a statement run again is not compiled again
+ * Holds at most capacity statements; the least recently used one is closed to make room for another.
+ * Statements held by a caller between uses, such as the insert statement of a Table, are acquired and released
+ * instead, and are not closed while acquired; the cache holds more than capacity statements if it must.
+ * Statements are shared: callers must not close them, and must clear their parameters and batch and close their
+ * result sets before the statement is used elsewhere. Used by one thread at a time, like its connection.
+ */
+class StatementCache {
+
+	private final Connection conn;
+	private final Map<String, PreparedStatement> statements;
+	//number of holders of every acquired statement, by SQL
+	private final Map<String, Integer> holders = new HashMap<String, Integer>();
+
+	StatementCache(Connection conn, int capacity) {
+		this.conn = conn;
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if(size() <= capacity)
+					return false;
+				for(Iterator<Map.Entry<String, PreparedStatement>> it = entrySet().iterator(); it.hasNext();) {
+					Map.Entry<String, PreparedStatement> entry = it.next();
+					if(!holders.containsKey(entry.getKey())) {
+						closeQuietly(entry.getValue());
+						it.remove();
+						break;
+					}
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @return the statement for sql, prepared on first use
+	 */
+	PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = statements.get(sql);
+		if(stmt == null) {
+			stmt = conn.prepareStatement(sql);
+			statements.put(sql, stmt);
+		}
+		return stmt;
+	}
+
+	/**
+	 * Same as prepare, keeping the statement open until it is released by every caller that acquired it
+	 */
+	PreparedStatement acquire(String sql) throws SQLException {
+		holders.merge(sql, 1, Integer::sum);
+		try {
+			return prepare(sql);
+		}
+		catch(SQLException e) {
+			release(sql);
+			throw e;
+		}
+	}
+
+	/**
+	 * Lets an acquired statement be closed to make room once no caller holds it
+	 */
+	void release(PreparedStatement stmt) {
+		for(Map.Entry<String, PreparedStatement> entry : statements.entrySet())
+			if(entry.getValue() == stmt) {
+				release(entry.getKey());
+				return;
+			}
+	}
+
+	private void release(String sql) {
+		holders.computeIfPresent(sql, (key, count) -> count > 1 ? count - 1 : null);
+	}
+
+	int size() {
+		return statements.size();
+	}
+
+	/**
+	 * Closes every statement
+	 */
+	void clear() {
+		for(PreparedStatement stmt : statements.values())
+			closeQuietly(stmt);
+		statements.clear();
+		holders.clear();
+	}
+
+	private static void closeQuietly(PreparedStatement stmt) {
+		try {
+			stmt.close();
+		}
+		catch(SQLException e) {
+
+		}
+	}
+}
@@ -3,9 +3,13 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 
@@ -15,21 +19,54 @@ public class Table {
 	private String tableName;
 	private Variable[] cols;
 	private PreparedStatement istmt;
+	//cache the insert statement is taken from, null if the table prepares and closes its own
+	private StatementCache statements;
+	//number of rows queued before the insert statement is executed as a batch; 1 disables batching
+	private int batchSize = 1;
+	//approximate bytes of queued field text after which the batch is executed early, 0 for no limit
+	private long batchBytes = 0;
+	//rows bound into the current batch, kept so a failed batch can be replayed row by row
+	private RecordBatch pending = new RecordBatch();
+	//holds the row passed to insert
+	private RecordBatch single = new RecordBatch();
+	//converter of every column, resolved from the column types when the table is created
+	private ColumnBinder[] binders;
+	private long batchCount = 0;
+	//receives the bind and execute times, may be null
+	private IngestMetrics metrics;
+	//side table of the images of PNG64 columns, null to store the images in the columns
+	private ImageStore images;
+	//dictionary of every dictionary encoded column, null for the other columns; null if no column is encoded
+	private ValueDictionary[] dictionaries;
 	
 	public Table(Connection conn, String tableName, Variable[] cols) {
+		this(conn, tableName, cols, null);
+	}
+	
+	/**
+	 * Same as Table(conn, tableName, cols), taking the insert statement from a cache shared with other tables
+	 * of the connection instead of preparing one for this table only
+	 */
+	Table(Connection conn, String tableName, Variable[] cols, StatementCache statements) {
 		this.conn = conn;
 		this.tableName = tableName;
 		this.cols = cols;
-		this.istmt = makeInsertStatement(tableName, cols);
+		this.statements = statements;
+		this.istmt = makeInsertStatement(tableName, cols, new String[0]);
+		this.binders = new ColumnBinder[cols.length];
+		for(int i = 0; i < cols.length; i++)
+			binders[i] = cols[i].getBinder();
 	}
 
 	/**
 	 * Creates an SQL insert statement as a PreparedStatement
 	 * @param tableName: the name of the table
 	 * @param cols: an array of Variable objects representing the columns of the table
+	 * @param key: columns of a unique index of the table; a row whose key is already in the table
+	 *		updates the other columns of that row instead. Empty for a plain insert
 	 * @return the corresponding insert statement
 	 */
-	private PreparedStatement makeInsertStatement(String tableName, Variable[] cols) {
+	private PreparedStatement makeInsertStatement(String tableName, Variable[] cols, String[] key) {
 		String insert = "INSERT INTO";
 		String tableVars = tableName + "(";
 		String values = "VALUES(";
@@ -46,8 +83,10 @@ public class Table {
 			}
 		}
 		String sql = insert + " " + tableVars + " " + values;
+		if(key.length > 0)
+			sql += " " + Database.upsertClause(cols, key);
 		try{
-			return conn.prepareStatement(sql);
+			return statements != null ? statements.acquire(sql) : conn.prepareStatement(sql);
 		}
 		catch(SQLException e) {
 			System.out.println(e.getMessage());
@@ -56,17 +95,106 @@ public class Table {
 	}
 
 	/**
-	 * Closes the PreparedStatement associated with the table
+	 * Closes the PreparedStatement associated with the table, or clears it if it belongs to a cache
 	 * Call this function when done with the Table instance
 	 */
 	public void close(){
+		closeStatement();
+		if(images != null)
+			images.close();
+		for(int i = 0; dictionaries != null && i < dictionaries.length; i++)
+			if(dictionaries[i] != null)
+				dictionaries[i].close();
+
+	}
+	
+	//Closes the insert statement, or releases a cached one back to the cache without pending rows
+	private void closeStatement() {
 		try{
-			istmt.close();
+			if(statements == null)
+				istmt.close();
+			else {
+				istmt.clearBatch();
+				istmt.clearParameters();
+			}
 		}
 		catch (SQLException e) {
 			
 		}
-
+		finally {
+			if(statements != null)
+				statements.release(istmt);
+		}
+	}
+	
+	/**
+	 * Sets the number of rows queued by addBatch before they are sent to the database
+	 * @param batchSize: the batch size, values below 1 are treated as 1 (no batching)
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+	
+	public int getBatchSize() {
+		return batchSize;
+	}
+	
+	/**
+	 * Executes a batch before it holds batchSize rows once the text of its rows takes about batchBytes,
+	 * so that rows holding large images do not pile up in memory
+	 * @param batchBytes: the limit in bytes, 0 for none
+	 */
+	public void setBatchBytes(long batchBytes) {
+		this.batchBytes = Math.max(0, batchBytes);
+	}
+	
+	/**
+	 * Stores the images of PNG64 columns once per content in a side table, binding their hash to the columns
+	 */
+	void setImageStore(ImageStore images) {
+		this.images = images;
+	}
+	
+	ImageStore getImageStore() {
+		return images;
+	}
+	
+	/**
+	 * Binds the ids of the values of dictionary encoded columns to those columns, in place of the values
+	 * @param dictionaries: the dictionary of every encoded column, null for the other columns
+	 */
+	void setDictionaries(ValueDictionary[] dictionaries) {
+		this.dictionaries = dictionaries;
+	}
+	
+	ValueDictionary[] getDictionaries() {
+		return dictionaries;
+	}
+	
+	/**
+	 * Makes the rows inserted from now on update the row with the same key, if the table has one
+	 * @param key: the columns of a primary key or unique index of the table
+	 */
+	public void setUpsertKey(String[] key) {
+		PreparedStatement upsert = makeInsertStatement(tableName, cols, key);
+		if(upsert == null)
+			return;
+		closeStatement();
+		istmt = upsert;
+	}
+	
+	/**
+	 * Records the time spent binding and executing, and the latency of every batch
+	 */
+	void setMetrics(IngestMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * @return the number of batches executed by this table so far
+	 */
+	public long getBatchCount() {
+		return batchCount;
 	}
 	
 	/**
@@ -75,69 +203,246 @@ public class Table {
 	 * @throws SQLException upon failure to pass the type check
 	 */
 	public void insert(String[] values) throws SQLException {
-		if(values.length != this.cols.length) {
-			System.out.println(Arrays.deepToString(values));
-			throw new SQLException("Invalid length of input for insert statement.");
+		single.clear();
+		single.add(values);
+		insert(single, 0);
+	}
+	
+	/**
+	 * Inserts the current record of the tokenizer
+	 * Fields are bound straight from the tokenizer's buffer; only TEXT and PNG64 fields are turned into strings
+	 * @throws SQLException upon failure to pass the type check
+	 */
+	public void insert(CsvTokenizer record) throws SQLException {
+		single.clear();
+		single.add(record);
+		insert(single, 0);
+	}
+	
+	private void insert(RecordBatch batch, int row) throws SQLException {
+		bind(batch, row);
+		//attempts to execute the update
+		long start = metrics == null ? 0 : System.nanoTime();
+		try {
+			istmt.executeUpdate();
 		}
-		for(int i = 0; i < cols.length; i++) {
-			//Sets null value if empty string
-			if(values[i].length() == 0) {
-				istmt.setObject(i+1, null);;
+		finally {
+			if(metrics != null)
+				metrics.add(IngestMetrics.Stage.EXECUTE, System.nanoTime() - start);
+		}
+		//clear parameters after execution
+		istmt.clearParameters();
+	}
+	
+	/**
+	 * Type checks the values and adds them to the current batch
+	 * Once the batch holds batchSize rows it is executed
+	 * @param values: an array of strings to be inserted into the table
+	 * @return the rows of the executed batch that failed to insert, or an empty list
+	 * @throws SQLException upon failure to pass the type check, in which case the row is not queued
+	 */
+	public List<RejectedRow> addBatch(String[] values) throws SQLException {
+		if(batchSize == 1) {
+			insert(values);
+			return Collections.emptyList();
+		}
+		pending.add(values);
+		return queueLast();
+	}
+	
+	/**
+	 * Same as addBatch(String[]) for the current record of the tokenizer
+	 * The record is copied into the batch, so the tokenizer may move on to the next record
+	 */
+	public List<RejectedRow> addBatch(CsvTokenizer record) throws SQLException {
+		if(batchSize == 1) {
+			insert(record);
+			return Collections.emptyList();
+		}
+		pending.add(record);
+		return queueLast();
+	}
+	
+	/**
+	 * Same as addBatch(String[]) for a row of a RecordBatch
+	 */
+	List<RejectedRow> addBatch(RecordBatch batch, int row) throws SQLException {
+		if(batchSize == 1) {
+			single.clear();
+			single.add(batch, row);
+			insert(single, 0);
+			return Collections.emptyList();
+		}
+		pending.add(batch, row);
+		return queueLast();
+	}
+	
+	//Binds the row last added to pending and adds it to the statement batch
+	private List<RejectedRow> queueLast() throws SQLException {
+		try {
+			bind(pending, pending.size() - 1);
+		}
+		catch(SQLException | RuntimeException e) {
+			pending.removeLast();
+			throw e;
+		}
+		istmt.addBatch();
+		istmt.clearParameters();
+		//fields are held as UTF-16 chars
+		if(pending.size() >= batchSize || (batchBytes > 0 && 2L * pending.getLength() >= batchBytes))
+			return executeBatch();
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * Executes the rows queued by addBatch
+	 * If the batch fails as a whole, it is rolled back and replayed row by row so that only
+	 * the rows that actually fail are rejected
+	 * @return the rows that failed to insert, or an empty list
+	 */
+	public List<RejectedRow> executeBatch() throws SQLException {
+		if(pending.size() == 0)
+			return Collections.emptyList();
+		List<RejectedRow> failed = Collections.emptyList();
+		long start = metrics == null ? 0 : System.nanoTime();
+		long replayed = 0;
+		Savepoint savepoint = conn.setSavepoint();
+		try {
+			istmt.executeBatch();
+		}
+		catch(SQLException e) {
+			istmt.clearBatch();
+			conn.rollback(savepoint);
+			replayed = System.nanoTime();
+			failed = replay(pending);
+			replayed = System.nanoTime() - replayed;
+		}
+		conn.releaseSavepoint(savepoint);
+		recordBatch(start, replayed);
+		batchCount++;
+		pending.clear();
+		return failed;
+	}
+	
+	//Inserts rows one at a time, returning the ones that fail
+	private List<RejectedRow> replay(RecordBatch rows) {
+		List<RejectedRow> failed = new ArrayList<RejectedRow>();
+		for(int row = 0; row < rows.size(); row++) {
+			try {
+				insert(rows, row);
 			}
-			else {
-				String type=cols[i].getType();
-				String strVal = values[i];
-				//If type is REAL, removes all characters that are not digits nor "." from the string
-				//Attempts to insert the value as a double into the PreparedStatement
-				//Throws an error if failure to insert as double
-				if(type.toUpperCase().equals("REAL")) {
-					String parsedString=values[i].replaceAll("[^\\d.-]", "");
-					try {
-						istmt.setDouble(i + 1, Double.parseDouble(parsedString));
-					}
-					catch(SQLException e) {
-						throw e;
-					}
-				}
-				//Does not insert anything if the string is neither "true" nor "false"
-				//Throws an error later
-				else if(type.equalsIgnoreCase("BOOLEAN")) {
-					if(strVal.equalsIgnoreCase("true"))
-						istmt.setBoolean(i + 1, true);
-					else if(strVal.equalsIgnoreCase("false"))
-						istmt.setBoolean(i + 1, false);
-				}
-				//Parses a base64 PNG representation from the string and inserts as a byte array
-				//Fails if the string "png;base64," is not a substring preceding a valid PNG64 hexadecimal string representation
-				else if(type.equalsIgnoreCase("PNG64")) {
-					try{
-						istmt.setBytes(i + 1, Base64.getDecoder().decode(strVal.substring(strVal.indexOf("png;base64,")+11)));
-					}
-					catch(SQLException e) {
-						throw e;
-					}
-				}
-				//Parses an integer from string
-				//Fails if the string is not a valid integer
-				else if(type.equalsIgnoreCase("INTEGER")) {
-					try {
-						istmt.setInt(i + 1, Integer.parseInt(strVal.strip()));
-					}
-					catch (SQLException e) {
-						throw e;
-					}
+			catch(Exception e) {
+				failed.add(new RejectedRow(rows.getLineNumber(row), e.getMessage(), rows.getFields(row)));
+			}
+		}
+		return failed;
+	}
+	
+	/**
+	 * Inserts a batch of the rows converted by ParsePipeline, leaving out the duplicates of the block
+	 * If the batch fails, it is rolled back and replayed row by row
+	 * @param from: the first row of the batch
+	 * @param to: the row after the last row of the batch
+	 * @return the rows that failed to insert, or an empty list
+	 */
+	List<RejectedRow> insertBlock(RowBlock block, int from, int to) throws SQLException {
+		if(from == to)
+			return Collections.emptyList();
+		long start = metrics == null ? 0 : System.nanoTime();
+		for(int row = from; row < to; row++) {
+			if(block.duplicates.get(row))
+				continue;
+			block.columns.bind(istmt, row, images, dictionaries);
+			istmt.addBatch();
+			istmt.clearParameters();
+		}
+		if(metrics != null) {
+			long bound = System.nanoTime();
+			metrics.add(IngestMetrics.Stage.BIND, bound - start);
+			start = bound;
+		}
+		List<RejectedRow> failed = Collections.emptyList();
+		Savepoint savepoint = conn.setSavepoint();
+		try {
+			istmt.executeBatch();
+		}
+		catch(SQLException e) {
+			istmt.clearBatch();
+			conn.rollback(savepoint);
+			failed = new ArrayList<RejectedRow>();
+			for(int row = from; row < to; row++) {
+				if(block.duplicates.get(row))
+					continue;
+				try {
+					block.columns.bind(istmt, row, images, dictionaries);
+					istmt.executeUpdate();
+					istmt.clearParameters();
 				}
-				//Otherwise, inputs the string as a text value
-				else {
-					istmt.setString(i + 1, strVal);
+				catch(SQLException e2) {
+					failed.add(new RejectedRow(block.records.getLineNumber(row), e2.getMessage(), block.records.getFields(row)));
 				}
 			}
 		}
-		//attempts to execute the update
-		istmt.executeUpdate();
-		//clear parameters after execution
-		istmt.clearParameters();
-
+		conn.releaseSavepoint(savepoint);
+		recordBatch(start, 0);
+		batchCount++;
+		return failed;
+	}
+	
+	//Records the latency of a batch started at start, replayed rows included
+	//replayed: time of the row by row replay, whose bind and execute times were recorded by insert
+	private void recordBatch(long start, long replayed) {
+		if(metrics == null)
+			return;
+		long nanos = System.nanoTime() - start;
+		metrics.add(IngestMetrics.Stage.EXECUTE, nanos - replayed);
+		metrics.recordBatch(nanos);
+	}
+	
+	//Type checks a row of the batch and binds it to the insert statement
+	private void bind(RecordBatch batch, int row) throws SQLException {
+		long start = metrics == null ? 0 : System.nanoTime();
+		try {
+			bindFields(batch, row);
+		}
+		finally {
+			if(metrics != null)
+				metrics.add(IngestMetrics.Stage.BIND, System.nanoTime() - start);
+		}
+	}
+	
+	private void bindFields(RecordBatch batch, int row) throws SQLException {
+		if(batch.getFieldCount(row) != this.cols.length) {
+			System.out.println(Arrays.deepToString(batch.getFields(row)));
+			throw new SQLException("Invalid length of input for insert statement.");
+		}
+		char[] chars = batch.getChars();
+		for(int i = 0; i < binders.length; i++) {
+			int start = batch.getStart(row, i);
+			int end = batch.getEnd(row, i);
+			//Sets null value if empty string
+			if(start == end)
+				istmt.setNull(i + 1, Types.NULL);
+			else if(!storedAside(i))
+				binders[i].bind(istmt, i + 1, chars, start, end);
+		}
+		//images and dictionary values are stored once the whole row has passed the type check
+		for(int i = 0; (images != null || dictionaries != null) && i < binders.length; i++) {
+			int start = batch.getStart(row, i);
+			int end = batch.getEnd(row, i);
+			if(start == end || !storedAside(i))
+				continue;
+			if(dictionaries != null && dictionaries[i] != null)
+				istmt.setLong(i + 1, dictionaries[i].encode(chars, start, end));
+			else
+				istmt.setBytes(i + 1, images.store(ColumnBinder.Png64Binder.decode(chars, start, end)));
+		}
+	}
+	
+	//Whether the values of a column go to a side table, the column holding their key
+	private boolean storedAside(int column) {
+		return (dictionaries != null && dictionaries[column] != null)
+				|| (images != null && binders[column] == ColumnBinder.PNG64);
 	}
 
 	/**
@@ -151,16 +456,16 @@ public class Table {
 				ResultSet rs    = stmt.executeQuery(sql)){
 			while(rs.next()) {
 				for(int i = 0; i < cols.length; i++) {
-					String varName = cols[i].getName();
+					int index = i + 1;
 					String type= cols[i].getType();
 					if(type.toUpperCase().contains("INT"))
-						System.out.print(rs.getInt(varName) + "\t");
+						System.out.print(rs.getInt(index) + "\t");
 					else if(type.toUpperCase().contains("DECIMAL") || type.toUpperCase().contains("NUMERIC"))
-						System.out.print(rs.getDouble(varName) + "\t");
+						System.out.print(rs.getDouble(index) + "\t");
 					else if(type.equalsIgnoreCase("BOOLEAN"))
-						System.out.print(rs.getBoolean(varName) + "\t");
+						System.out.print(rs.getBoolean(index) + "\t");
 					else
-						System.out.print(rs.getString(varName) + "\t");
+						System.out.print(rs.getString(index) + "\t");
 				}
 				System.out.print("\n");
 			}
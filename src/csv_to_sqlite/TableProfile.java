@@ -0,0 +1,311 @@
+package csv_to_sqlite;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ * Statistics of the values of every column, gathered from the rows of a load as they pass the type check
+ * (see ConvertOptions.setProfile) and stored in the _profile table by Database.saveProfile
+ * - The number of values and of nulls
+ * - Min and max: numbers for INTEGER and REAL, false or true for BOOLEAN, the first and last value in char order for
+ *   TEXT, ISO-8601 text for DATE and TIMESTAMP, and the shortest and longest length of the csv text for PNG64
+ * - Mean and variance with Welford's method, of the values of numeric columns (BOOLEAN counting as 0 or 1,
+ *   DATE and TIMESTAMP as the days or milliseconds since 1970 they are stored as)
+ *   and of the lengths of TEXT and PNG64 values
+ * - The number of distinct values, estimated with a HyperLogLog sketch
+ * - The TOP_K most frequent values with their counts, from a SpaceSaving summary; not kept for PNG64
+ * Distinct and frequent values are told apart by their text as it appears in the csv. Memory is fixed per column,
+ * and the profiles of parts of a csv, such as the regions parsed by different threads, merge into its profile.
+ * Not thread safe.
+ */
+class TableProfile {
+
+	static final String TABLE = "_profile";
+	static final int TOP_K = 10;
+	//counters of the SpaceSaving summaries
+	private static final int TOP_CAPACITY = 64;
+
+	/**
+	 * The statistics of one column
+	 */
+	static final class ColumnProfile {
+
+		private final String name;
+		private final String type;
+		private final ColumnBinder binder;
+		private long count;
+		private long nulls;
+		//Welford's running mean, and the sum of squared differences from it
+		private long n;
+		private double mean;
+		private double m2;
+		//min and max of INTEGER, BOOLEAN, DATE, TIMESTAMP and PNG64 values, of REAL values, and of TEXT values
+		private long minLong = Long.MAX_VALUE;
+		private long maxLong = Long.MIN_VALUE;
+		private double minDouble = Double.POSITIVE_INFINITY;
+		private double maxDouble = Double.NEGATIVE_INFINITY;
+		private char[] minText = new char[16];
+		private int minLength = -1;
+		private char[] maxText = new char[16];
+		private int maxLength = -1;
+		private final HyperLogLog distinct = new HyperLogLog();
+		private final SpaceSaving top;
+
+		private ColumnProfile(Variable col) {
+			name = col.getName();
+			type = col.getType();
+			binder = col.getBinder();
+			top = binder == ColumnBinder.PNG64 ? null : new SpaceSaving(TOP_CAPACITY);
+		}
+
+		//Adds a value that passed the type check of the column, empty for null
+		private void add(char[] chars, int start, int end) {
+			count++;
+			if(start == end) {
+				nulls++;
+				return;
+			}
+			long hash = hash(chars, start, end);
+			distinct.add(hash);
+			if(top != null)
+				top.add(hash, chars, start, end);
+			if(binder == ColumnBinder.INTEGER)
+				addLong(ColumnBinder.IntegerBinder.parseLong(chars, start, end));
+			else if(binder == ColumnBinder.BOOLEAN)
+				addLong(ColumnBinder.BooleanBinder.parseBoolean(chars, start, end) ? 1 : 0);
+			else if(binder == ColumnBinder.REAL) {
+				double value = ColumnBinder.RealBinder.parseReal(chars, start, end);
+				minDouble = Math.min(minDouble, value);
+				maxDouble = Math.max(maxDouble, value);
+				addValue(value);
+			}
+			else if(binder == ColumnBinder.PNG64)
+				addLong(end - start);
+			else if(binder instanceof ColumnBinder.TemporalBinder)
+				addLong(((ColumnBinder.TemporalBinder) binder).parse(chars, start, end));
+			else {
+				if(minLength < 0 || compare(chars, start, end, minText, minLength) < 0)
+					minText = copy(chars, start, end, minText, true);
+				if(maxLength < 0 || compare(chars, start, end, maxText, maxLength) > 0)
+					maxText = copy(chars, start, end, maxText, false);
+				addValue(end - start);
+			}
+		}
+
+		private void addLong(long value) {
+			minLong = Math.min(minLong, value);
+			maxLong = Math.max(maxLong, value);
+			addValue(value);
+		}
+
+		private void addValue(double value) {
+			n++;
+			double delta = value - mean;
+			mean += delta / n;
+			m2 += delta * (value - mean);
+		}
+
+		//Copies a new min or max text into its buffer, growing it if needed
+		private char[] copy(char[] chars, int start, int end, char[] buffer, boolean min) {
+			if(buffer.length < end - start)
+				buffer = new char[Math.max(end - start, 2 * buffer.length)];
+			System.arraycopy(chars, start, buffer, 0, end - start);
+			if(min)
+				minLength = end - start;
+			else
+				maxLength = end - start;
+			return buffer;
+		}
+
+		private void merge(ColumnProfile other) {
+			count += other.count;
+			nulls += other.nulls;
+			if(other.n > 0) {
+				//Chan's combination of two sets of Welford statistics
+				long total = n + other.n;
+				double delta = other.mean - mean;
+				m2 += other.m2 + delta * delta * n * other.n / total;
+				mean += delta * other.n / total;
+				n = total;
+			}
+			minLong = Math.min(minLong, other.minLong);
+			maxLong = Math.max(maxLong, other.maxLong);
+			minDouble = Math.min(minDouble, other.minDouble);
+			maxDouble = Math.max(maxDouble, other.maxDouble);
+			if(other.minLength >= 0 && (minLength < 0 || compare(other.minText, 0, other.minLength, minText, minLength) < 0))
+				minText = copy(other.minText, 0, other.minLength, minText, true);
+			if(other.maxLength >= 0 && (maxLength < 0 || compare(other.maxText, 0, other.maxLength, maxText, maxLength) > 0))
+				maxText = copy(other.maxText, 0, other.maxLength, maxText, false);
+			distinct.merge(other.distinct);
+			if(top != null)
+				top.merge(other.top);
+		}
+
+		private void clear() {
+			count = 0;
+			nulls = 0;
+			n = 0;
+			mean = 0;
+			m2 = 0;
+			minLong = Long.MAX_VALUE;
+			maxLong = Long.MIN_VALUE;
+			minDouble = Double.POSITIVE_INFINITY;
+			maxDouble = Double.NEGATIVE_INFINITY;
+			minLength = -1;
+			maxLength = -1;
+			distinct.clear();
+			if(top != null)
+				top.clear();
+		}
+
+		String getName() {
+			return name;
+		}
+
+		String getType() {
+			return type;
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		long getNulls() {
+			return nulls;
+		}
+
+		long getDistinct() {
+			return distinct.estimate();
+		}
+
+		/**
+		 * @return the min as a Long, Double or String depending on the type, null if the column has no values
+		 */
+		Object getMin() {
+			return bound(minLong, minDouble, minText, minLength);
+		}
+
+		Object getMax() {
+			return bound(maxLong, maxDouble, maxText, maxLength);
+		}
+
+		private Object bound(long l, double d, char[] text, int length) {
+			if(n == 0)
+				return null;
+			if(binder == ColumnBinder.REAL)
+				return d;
+			if(binder == ColumnBinder.BOOLEAN)
+				return l != 0 ? "true" : "false";
+			if(binder == ColumnBinder.INTEGER || binder == ColumnBinder.PNG64)
+				return l;
+			if(binder instanceof ColumnBinder.TemporalBinder)
+				return ((ColumnBinder.TemporalBinder) binder).format(l);
+			return new String(text, 0, length);
+		}
+
+		/**
+		 * @return the mean, or null if the column has no values
+		 */
+		Double getMean() {
+			return n == 0 ? null : mean;
+		}
+
+		/**
+		 * @return the population variance, or null if the column has no values
+		 */
+		Double getVariance() {
+			return n == 0 ? null : m2 / n;
+		}
+
+		/**
+		 * @return the most frequent values as a JSON array of {"value", "count", "error"}, or null for PNG64
+		 */
+		String getTopValues() {
+			if(top == null)
+				return null;
+			StringBuilder sb = new StringBuilder("[");
+			List<SpaceSaving.Entry> entries = top.top(TOP_K);
+			for(int i = 0; i < entries.size(); i++) {
+				SpaceSaving.Entry entry = entries.get(i);
+				sb.append(i == 0 ? "" : ", ").append("{\"value\": ").append(IngestMetrics.quote(entry.value))
+						.append(", \"count\": ").append(entry.count).append(", \"error\": ").append(entry.error).append('}');
+			}
+			return sb.append(']').toString();
+		}
+	}
+
+	private final ColumnProfile[] columns;
+
+	TableProfile(Variable[] cols) {
+		columns = new ColumnProfile[cols.length];
+		for(int i = 0; i < cols.length; i++)
+			columns[i] = new ColumnProfile(cols[i]);
+	}
+
+	/**
+	 * Adds a row of the batch that passed the type check
+	 */
+	void add(RecordBatch batch, int row) {
+		char[] chars = batch.getChars();
+		for(int i = 0; i < columns.length; i++)
+			columns[i].add(chars, batch.getStart(row, i), batch.getEnd(row, i));
+	}
+
+	/**
+	 * Adds the current record of the tokenizer, which passed the type check
+	 */
+	void add(CsvTokenizer record) {
+		char[] chars = record.getBuffer();
+		for(int i = 0; i < columns.length; i++) {
+			int start = record.getFieldStart(i);
+			columns[i].add(chars, start, start + record.getFieldLength(i));
+		}
+	}
+
+	/**
+	 * Adds the statistics of another profile of the same columns
+	 */
+	void merge(TableProfile other) {
+		for(int i = 0; i < columns.length; i++)
+			columns[i].merge(other.columns[i]);
+	}
+
+	void clear() {
+		for(ColumnProfile column : columns)
+			column.clear();
+	}
+
+	List<ColumnProfile> getColumns() {
+		return Arrays.asList(columns);
+	}
+
+	//64-bit hash of a value, taking four chars per multiplication, then mixed so every bit depends on every char
+	static long hash(char[] chars, int start, int end) {
+		long h = 0xcbf29ce484222325L ^ (end - start);
+		int i = start;
+		for(; i + 4 <= end; i += 4) {
+			long block = (long) chars[i] << 48 | (long) chars[i + 1] << 32 | (long) chars[i + 2] << 16 | chars[i + 3];
+			h = (h ^ block) * 0x9e3779b97f4a7c15L;
+			h ^= h >>> 29;
+		}
+		for(; i < end; i++)
+			h = (h ^ chars[i]) * 0x100000001b3L;
+		//the MurmurHash3 finalizer
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		return h ^ (h >>> 33);
+	}
+
+	private static int compare(char[] a, int start, int end, char[] b, int length) {
+		int len = Math.min(end - start, length);
+		for(int i = 0; i < len; i++) {
+			char c = a[start + i];
+			if(c != b[i])
+				return c - b[i];
+		}
+		return (end - start) - length;
+	}
+}
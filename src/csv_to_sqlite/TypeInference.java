@@ -0,0 +1,175 @@
+package csv_to_sqlite;
+
+/**
+ *
+ * Infers the type of every column from a sample of csv records
+ * Each column starts out compatible with every type in Variable.validTypes and loses the types its
+ * values cannot be converted to, so the result widens from BOOLEAN or INTEGER to REAL and finally TEXT.
+ * - BOOLEAN: every value is "true" or "false", ignoring case
+ * - INTEGER: every value is a whole number in the range of a long
+ * - REAL: every value is a decimal number, optionally with a leading '$' and ',' grouping separators
+ * - DATE: every value is a date, yyyy-MM-dd or in the pattern of the DATE binder given
+ * - TIMESTAMP: every value is a date and time, as ISO-8601 or in the pattern of the TIMESTAMP binder given;
+ *   a column of dates only is DATE
+ * - PNG64: every value contains "png;base64,"
+ * Empty values are ignored; a column without any value is TEXT.
+ */
+public class TypeInference {
+
+	private static final int BOOLEAN = 1;
+	private static final int INTEGER = 2;
+	private static final int REAL = 4;
+	private static final int PNG64 = 8;
+	private static final int DATE = 16;
+	private static final int TIMESTAMP = 32;
+	private static final int ALL = BOOLEAN | INTEGER | REAL | PNG64 | DATE | TIMESTAMP;
+
+	//types still possible for each column
+	private final int[] candidates;
+	private final boolean[] seen;
+	private final ColumnBinder.TemporalBinder date;
+	private final ColumnBinder.TemporalBinder timestamp;
+
+	public TypeInference(int numColumns) {
+		this(numColumns, ColumnBinder.DATE, ColumnBinder.TIMESTAMP);
+	}
+
+	/**
+	 * @param date, timestamp: binders of the DATE and TIMESTAMP columns, see ColumnBinder.forType(type, pattern)
+	 */
+	TypeInference(int numColumns, ColumnBinder date, ColumnBinder timestamp) {
+		this.date = (ColumnBinder.TemporalBinder) date;
+		this.timestamp = (ColumnBinder.TemporalBinder) timestamp;
+		candidates = new int[numColumns];
+		seen = new boolean[numColumns];
+		for(int i = 0; i < numColumns; i++)
+			candidates[i] = ALL;
+	}
+
+	/**
+	 * Narrows the column types using one record
+	 * Records with the wrong number of values are ignored
+	 */
+	public void accept(String[] values) {
+		if(values.length != candidates.length)
+			return;
+		for(int i = 0; i < values.length; i++) {
+			char[] chars = values[i].toCharArray();
+			accept(i, chars, 0, chars.length);
+		}
+	}
+
+	void accept(RecordBatch batch, int row) {
+		if(batch.getFieldCount(row) != candidates.length)
+			return;
+		for(int i = 0; i < candidates.length; i++)
+			accept(i, batch.getChars(), batch.getStart(row, i), batch.getEnd(row, i));
+	}
+
+	/**
+	 * @return the narrowest type of every column that accepts all values seen so far
+	 */
+	public String[] getTypes() {
+		String[] types = new String[candidates.length];
+		for(int i = 0; i < types.length; i++) {
+			int c = candidates[i];
+			if(!seen[i])
+				types[i] = "TEXT";
+			else if((c & BOOLEAN) != 0)
+				types[i] = "BOOLEAN";
+			else if((c & INTEGER) != 0)
+				types[i] = "INTEGER";
+			else if((c & REAL) != 0)
+				types[i] = "REAL";
+			else if((c & DATE) != 0)
+				types[i] = "DATE";
+			else if((c & TIMESTAMP) != 0)
+				types[i] = "TIMESTAMP";
+			else if((c & PNG64) != 0)
+				types[i] = "PNG64";
+			else
+				types[i] = "TEXT";
+		}
+		return types;
+	}
+
+	private void accept(int col, char[] chars, int start, int end) {
+		while(start < end && Character.isWhitespace(chars[start]))
+			start++;
+		while(end > start && Character.isWhitespace(chars[end - 1]))
+			end--;
+		if(start == end)
+			return;
+		seen[col] = true;
+		int c = candidates[col];
+		if((c & BOOLEAN) != 0 && !isBoolean(chars, start, end))
+			c &= ~BOOLEAN;
+		if((c & INTEGER) != 0 && !isInteger(chars, start, end))
+			c &= ~INTEGER;
+		if((c & REAL) != 0 && !isReal(chars, start, end))
+			c &= ~REAL;
+		if((c & DATE) != 0 && !isTemporal(date, chars, start, end))
+			c &= ~DATE;
+		if((c & TIMESTAMP) != 0 && !isTemporal(timestamp, chars, start, end))
+			c &= ~TIMESTAMP;
+		if((c & PNG64) != 0 && ColumnBinder.indexOf(chars, start, end, "png;base64,") < 0)
+			c &= ~PNG64;
+		candidates[col] = c;
+	}
+
+	private static boolean isBoolean(char[] chars, int start, int end) {
+		return ColumnBinder.matchesIgnoreCase(chars, start, end, "true") || ColumnBinder.matchesIgnoreCase(chars, start, end, "false");
+	}
+
+	private static boolean isInteger(char[] chars, int start, int end) {
+		int i = start;
+		if(chars[i] == '-' || chars[i] == '+')
+			i++;
+		if(i == end)
+			return false;
+		for(; i < end; i++)
+			if(chars[i] < '0' || chars[i] > '9')
+				return false;
+		try {
+			ColumnBinder.IntegerBinder.parseLong(chars, start, end);
+			return true;
+		}
+		catch(IllegalArgumentException e) {
+			//out of range
+			return false;
+		}
+	}
+
+	private static boolean isTemporal(ColumnBinder.TemporalBinder binder, char[] chars, int start, int end) {
+		try {
+			binder.parse(chars, start, end);
+			return true;
+		}
+		catch(IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	//Accepts -1,234.5 and $-1,234.5 like values, which the REAL type check reads correctly
+	private static boolean isReal(char[] chars, int start, int end) {
+		int i = start;
+		if(chars[i] == '$')
+			i++;
+		if(i < end && chars[i] == '-')
+			i++;
+		if(i < end && chars[i] == '$')
+			i++;
+		boolean digits = false;
+		boolean point = false;
+		for(; i < end; i++) {
+			char ch = chars[i];
+			if(ch >= '0' && ch <= '9')
+				digits = true;
+			else if(ch == '.' && !point)
+				point = true;
+			else if(ch != ',' || point || !digits)
+				return false;
+		}
+		return digits;
+	}
+}
@@ -0,0 +1,172 @@
+package csv_to_sqlite;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ *
+ * Side table numbering the distinct values of a dictionary encoded TEXT column (see ConvertOptions.setDictionaryEncoding)
+ * The column holds the id of its value, the key of <table>_<column>_dict(id, value).
+ * Up to limit values are kept in memory with their id, so encoding a known value is a hash lookup on its chars;
+ * a new value is inserted into the side table when its row is bound, in the transaction of the row.
+ * Once the column has more than limit distinct values the dictionary is overflowed: values not in memory are then
+ * looked up in the side table, and the load decodes the column back into TEXT when it ends (see Database.decodeColumns).
+ * Used by the writing thread of a Table only.
+ */
+class ValueDictionary {
+
+	private final String tableName;
+	private final int limit;
+	private final PreparedStatement insert;
+	private final PreparedStatement select;
+	//values in memory, as ranges of chars, with their id and hash
+	private char[] chars = new char[1024];
+	private int charsSize;
+	private int[] starts = new int[16];
+	private int[] lengths = new int[16];
+	private long[] ids = new long[16];
+	private long[] hashes = new long[16];
+	private int size;
+	//value + 1 by hash, 0 for an empty entry, with linear probing
+	private final int[] table;
+	private final int mask;
+	private long nextId = 1;
+	private long inserted;
+	private boolean overflowed;
+
+	/**
+	 * @return the name of the side table of a column
+	 */
+	static String sideTable(String tableName, String column) {
+		return tableName + "_" + column + "_dict";
+	}
+
+	/**
+	 * @return the name of the view showing a table with the values of its encoded columns, see Database.createDictionaryView
+	 */
+	static String view(String tableName) {
+		return tableName + "_view";
+	}
+
+	/**
+	 * Creates the side table if it does not exist, and reads the values it already holds
+	 * @param tableName: name of the side table
+	 * @param limit: number of distinct values the column may have before it is decoded
+	 */
+	ValueDictionary(Connection conn, String tableName, int limit) throws SQLException {
+		this.tableName = tableName;
+		this.limit = Math.max(1, limit);
+		table = new int[Integer.highestOneBit(this.limit) * 4];
+		mask = table.length - 1;
+		try (Statement stmt = conn.createStatement()) {
+			stmt.execute("CREATE TABLE IF NOT EXISTS " + tableName + "(id INTEGER PRIMARY KEY, value TEXT NOT NULL UNIQUE)");
+			try (ResultSet rs = stmt.executeQuery("SELECT id, value FROM " + tableName + " ORDER BY id")) {
+				while(rs.next()) {
+					long id = rs.getLong(1);
+					nextId = Math.max(nextId, id + 1);
+					if(size == this.limit)
+						overflowed = true;
+					else {
+						char[] value = rs.getString(2).toCharArray();
+						remember(TableProfile.hash(value, 0, value.length), value, 0, value.length, id);
+					}
+				}
+			}
+		}
+		insert = conn.prepareStatement("INSERT INTO " + tableName + "(id, value) VALUES(?, ?)");
+		select = conn.prepareStatement("SELECT id FROM " + tableName + " WHERE value = ?");
+	}
+
+	/**
+	 * @return the id of the value chars[start, end), adding it to the side table if it is new
+	 */
+	long encode(char[] chars, int start, int end) throws SQLException {
+		long hash = TableProfile.hash(chars, start, end);
+		for(int i = (int) hash & mask; table[i] != 0; i = (i + 1) & mask) {
+			int value = table[i] - 1;
+			if(hashes[value] == hash && equals(value, chars, start, end))
+				return ids[value];
+		}
+		String value = new String(chars, start, end - start);
+		if(size == limit)
+			overflowed = true;
+		if(overflowed) {
+			select.setString(1, value);
+			try (ResultSet rs = select.executeQuery()) {
+				if(rs.next())
+					return rs.getLong(1);
+			}
+		}
+		long id = nextId++;
+		insert.setLong(1, id);
+		insert.setString(2, value);
+		inserted += insert.executeUpdate();
+		insert.clearParameters();
+		if(!overflowed)
+			remember(hash, chars, start, end, id);
+		return id;
+	}
+
+	private void remember(long hash, char[] value, int start, int end, long id) {
+		if(size == starts.length) {
+			int capacity = Math.min(limit, 2 * size);
+			starts = Arrays.copyOf(starts, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			ids = Arrays.copyOf(ids, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+		}
+		if(charsSize + end - start > chars.length)
+			chars = Arrays.copyOf(chars, Math.max(charsSize + end - start, 2 * chars.length));
+		System.arraycopy(value, start, chars, charsSize, end - start);
+		starts[size] = charsSize;
+		lengths[size] = end - start;
+		ids[size] = id;
+		hashes[size] = hash;
+		charsSize += end - start;
+		int i = (int) hash & mask;
+		while(table[i] != 0)
+			i = (i + 1) & mask;
+		table[i] = ++size;
+	}
+
+	private boolean equals(int value, char[] other, int start, int end) {
+		if(lengths[value] != end - start)
+			return false;
+		for(int i = 0, from = starts[value]; i < end - start; i++)
+			if(chars[from + i] != other[start + i])
+				return false;
+		return true;
+	}
+
+	String getTableName() {
+		return tableName;
+	}
+
+	/**
+	 * @return whether the column has more distinct values than the limit, and should be decoded once loaded
+	 */
+	boolean isOverflowed() {
+		return overflowed;
+	}
+
+	/**
+	 * @return the number of values added to the side table by this load
+	 */
+	long getInserted() {
+		return inserted;
+	}
+
+	void close() {
+		try {
+			insert.close();
+			select.close();
+		}
+		catch(SQLException e) {
+
+		}
+	}
+}
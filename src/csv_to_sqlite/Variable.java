@@ -1,13 +1,35 @@
 package csv_to_sqlite;
 
 public class Variable {
-	final static String[] validTypes = {"TEXT", "INTEGER", "REAL", "BOOLEAN", "PNG64"};
+	final static String[] validTypes = {"TEXT", "INTEGER", "REAL", "BOOLEAN", "PNG64", "DATE", "TIMESTAMP"};
+	
+	/**
+	 * Constraint or index on a column
+	 * The columns marked PRIMARY_KEY together form the primary key of the table;
+	 * every UNIQUE or INDEX column gets an index of its own.
+	 */
+	public enum Index {
+		NONE, PRIMARY_KEY, UNIQUE, INDEX
+	}
+	
 	private String name;
 	private String type;
+	private Index index;
+	//converts the csv values of this column, resolved from the type on first use
+	private ColumnBinder binder;
+	//java.time pattern of the values of a DATE or TIMESTAMP column, null for ISO-8601
+	private String pattern;
+	//TEXT column stored as the ids of its values, see ValueDictionary
+	private boolean dictionaryEncoded;
 	
 	public Variable(String name, String type){
+		this(name, type, Index.NONE);
+	}
+	
+	public Variable(String name, String type, Index index){
 		this.name=name;
 		this.type=type;
+		this.index=index == null ? Index.NONE : index;
 	}
 	
 	public String getName() {
@@ -18,4 +40,38 @@ public class Variable {
 		return type;
 	}
 	
+	public Index getIndex() {
+		return index;
+	}
+	
+	/**
+	 * Reads the values of a DATE or TIMESTAMP column with a java.time pattern instead of as ISO-8601
+	 * Must be set before the column is first converted.
+	 */
+	void setPattern(String pattern) {
+		this.pattern = pattern;
+		binder = null;
+	}
+	
+	boolean isDictionaryEncoded() {
+		return dictionaryEncoded;
+	}
+	
+	void setDictionaryEncoded(boolean dictionaryEncoded) {
+		this.dictionaryEncoded = dictionaryEncoded;
+	}
+	
+	/**
+	 * @return the type the column is declared with in the database, INTEGER for the ids of a dictionary encoded column
+	 */
+	String getDeclaredType() {
+		return dictionaryEncoded ? "INTEGER" : type;
+	}
+	
+	ColumnBinder getBinder() {
+		if(binder == null)
+			binder = ColumnBinder.forType(type, pattern);
+		return binder;
+	}
+	
 }
@@ -0,0 +1,70 @@
+package csv_to_sqlite;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CsvExporterTest {
+
+	private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+	@TempDir
+	Path dir;
+
+	//Every row looks its image up in images_images by hash, which must use the index of the hash
+	@Test
+	void exportLooksDeduplicatedImagesUpByHash() throws Exception {
+		StringBuilder csv = new StringBuilder("id,kind,image\n");
+		for(int i = 0; i < 1000; i++)
+			csv.append(i).append(',').append(i % 3 == 0 ? "cat" : "dog").append(",\"").append(png(i % 50)).append("\"\n");
+		Path input = Files.write(dir.resolve("images.csv"), csv.toString().getBytes(StandardCharsets.UTF_8));
+		Database db = new Database(dir.toString() + "/", "images.db");
+		try {
+			CsvToSQLite.load(db, "images", input.toString(), new ConvertOptions().setProgressInterval(0)
+					.setColumnTypes(new String[] {"INTEGER", "TEXT", "PNG64"}).setDeduplicateImages(true)
+					.setDictionaryEncoding(true), false, false);
+			assertTrue(db.containsTable("images_images"));
+			assertTrue(db.isDictionaryEncoded("images", "kind"));
+		}
+		finally {
+			db.close();
+		}
+
+		String select = CsvExporter.selectSql("images", new String[] {"id", "kind", "image"},
+				new CsvExporter.Format[] {CsvExporter.Format.INTEGER, CsvExporter.Format.TEXT, CsvExporter.Format.PNG64},
+				true, new boolean[] {false, true, false});
+		StringBuilder plan = new StringBuilder();
+		try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dir.resolve("images.db"));
+				Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("EXPLAIN QUERY PLAN " + select)) {
+			while(rs.next())
+				plan.append(rs.getString("detail")).append('\n');
+		}
+		assertFalse(plan.toString().contains("SCAN TABLE images_images"), plan.toString());
+		assertTrue(plan.toString().contains("USING INDEX sqlite_autoindex_images_images_1"), plan.toString());
+
+		Path output = dir.resolve("export.csv");
+		assertEquals(1000, new CsvExporter(dir.toString(), "images").export("images", output.toString()));
+		assertEquals(csv.toString(), new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+	}
+
+	private static String png(int seed) {
+		byte[] image = new byte[64];
+		for(int i = 0; i < image.length; i++)
+			image[i] = (byte) (seed * 31 + i);
+		System.arraycopy(PNG_SIGNATURE, 0, image, 0, PNG_SIGNATURE.length);
+		return "data:image/png;base64," + Base64.getEncoder().encodeToString(image);
+	}
+}
@@ -0,0 +1,101 @@
+package csv_to_sqlite;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DuplicateFilterTest {
+
+	private static final String[] TYPES = {"INTEGER", "TEXT", "REAL"};
+
+	@TempDir
+	Path dir;
+
+	//An appended csv repeating rows of the table skips them, comparing the values stored rather than their text
+	@Test
+	void appendSkipsTheRowsOfTheTable() throws Exception {
+		Path base = write("base.csv", rows(0, 500, ".5"));
+		Path delta = write("delta.csv", rows(250, 750, ".50"));
+		Database db = new Database(dir.toString() + "/", "append.db");
+		try {
+			assertEquals(500, CsvToSQLite.load(db, "t", base.toString(), options(1), false, false).good);
+			LoadStats stats = CsvToSQLite.load(db, "t", delta.toString(), options(1), true, false);
+			assertEquals(250, stats.good);
+			assertEquals(250, stats.duplicates);
+		}
+		finally {
+			db.close();
+		}
+		assertEquals("750 750", counts(dir.resolve("append.db")));
+	}
+
+	//A resumed load skips the rows repeating the rows loaded before its checkpoint
+	@Test
+	void resumeSkipsTheRowsLoadedBeforeTheCheckpoint() throws Exception {
+		resume(1);
+	}
+
+	@Test
+	void pipelinedResumeSkipsTheRowsLoadedBeforeTheCheckpoint() throws Exception {
+		resume(4);
+	}
+
+	//Loads the first 600 of 1000 distinct rows written twice, as an interrupted load would have, then resumes
+	private void resume(int threads) throws Exception {
+		String all = rows(0, 1000, ".5") + rows(0, 1000, ".5").substring("id,name,amount\n".length());
+		Path full = write("full.csv", all);
+		String prefix = rows(0, 600, ".5");
+		Path loaded = write("prefix.csv", prefix);
+		Database db = new Database(dir.toString() + "/", "resume.db");
+		try {
+			CsvToSQLite.load(db, "t", loaded.toString(), options(threads), false, false);
+			db.saveProgress(new IngestProgress("t", "t", full.toString(), prefix.length(), 602, 600, 600, 0, 0, 0));
+			db.commit();
+			LoadStats stats = CsvToSQLite.load(db, "t", full.toString(), options(threads).setResume(true), false, false);
+			assertEquals(2000, stats.received);
+			assertEquals(1000, stats.good);
+			assertEquals(1000, stats.duplicates);
+		}
+		finally {
+			db.close();
+		}
+		assertEquals("1000 1000", counts(dir.resolve("resume.db")));
+	}
+
+	private static ConvertOptions options(int threads) {
+		return new ConvertOptions().setProgressInterval(0).setColumnTypes(TYPES).setDeduplicateRows(true)
+				.setParseThreads(threads).setChunkSize(4096).setBatchSize(50).setCommitInterval(2);
+	}
+
+	//A header and the rows "i,name i,i<fraction>" for i in [from, to)
+	private static String rows(int from, int to, String fraction) {
+		StringBuilder csv = new StringBuilder("id,name,amount\n");
+		for(int i = from; i < to; i++)
+			csv.append(i).append(",name ").append(i).append(',').append(i).append(fraction).append('\n');
+		return csv.toString();
+	}
+
+	private Path write(String name, String text) throws IOException {
+		return Files.write(dir.resolve(name), text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	//The number of rows of t and of their distinct ids
+	private static String counts(Path db) throws SQLException {
+		try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db);
+				Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT count(*), count(DISTINCT id) FROM t")) {
+			return rs.getLong(1) + " " + rs.getLong(2);
+		}
+	}
+}
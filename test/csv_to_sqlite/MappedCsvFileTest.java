@@ -0,0 +1,113 @@
+package csv_to_sqlite;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedCsvFileTest {
+
+	@TempDir
+	Path dir;
+
+	//Stray quotes inside unquoted fields, quoted line breaks and bare '\r' line ends must not move a region boundary
+	@Test
+	void regionsReadTheRecordsOfTheFile() throws IOException {
+		StringBuilder csv = new StringBuilder("﻿id,a,b\n");
+		for(int i = 0; i < 5000; i++) {
+			String a = i % 7 == 0 ? "ab\"c" : i % 7 == 1 ? "\"multi\nline, \"\"q\"\"\"" : i % 7 == 2 ? "  \"padded\"  " : "v" + i;
+			csv.append(i).append(',').append(a).append(",é").append(i).append(i % 11 == 0 ? "\r" : "\r\n");
+		}
+		Path file = write("stray.csv", csv.toString(), StandardCharsets.UTF_8);
+		try (MappedCsvFile mapped = new MappedCsvFile(file.toString(), StandardCharsets.UTF_8)) {
+			List<MappedCsvFile.Region> regions = mapped.split(4096);
+			assertTrue(regions.size() > 10);
+			List<String> split = new ArrayList<String>();
+			for(MappedCsvFile.Region region : regions)
+				split.addAll(records(new CsvTokenizer(mapped.reader(region)), region.getFirstLine()));
+			assertEquals(records(new CsvTokenizer(MappedCsvFile.open(file.toString(), StandardCharsets.UTF_8)), 1), split);
+		}
+	}
+
+	//A quote after a non-ASCII character only opens a quoted field if that character is whitespace
+	@Test
+	void quoteAfterNonAsciiKeepsOneRegion() throws IOException {
+		Path file = write("accent.csv", numbered(5000, 2000, "é\"s"), StandardCharsets.UTF_8);
+		assertOneRegion(file, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	void utf16KeepsOneRegion() throws IOException {
+		Path file = write("utf16.csv", numbered(5000, -1, null), StandardCharsets.UTF_16LE);
+		assertOneRegion(file, StandardCharsets.UTF_16LE);
+	}
+
+	//A csv that is not split is loaded by the streaming path rather than parsed into one block
+	@Test
+	void unsplitCsvIsStreamed() throws Exception {
+		Path file = write("accent.csv", numbered(5000, 2000, "é\"s"), StandardCharsets.UTF_8);
+		ConvertOptions options = new ConvertOptions().setProgressInterval(0).setParseThreads(4).setChunkSize(4096)
+				.setColumnTypes(new String[] {"INTEGER", "TEXT"});
+		assertNull(ParsePipeline.open(file.toString(), options, 0, 1));
+		ParsePipeline pipeline = ParsePipeline.open(write("plain.csv", numbered(5000, -1, null), StandardCharsets.UTF_8)
+				.toString(), options, 0, 1);
+		assertNotNull(pipeline);
+		pipeline.close();
+
+		Database db = new Database(dir.toString() + "/", "accent.db");
+		try {
+			LoadStats stats = CsvToSQLite.load(db, "accent", file.toString(), options, false, false);
+			assertEquals(5000, stats.good);
+			assertEquals(0, stats.bad);
+		}
+		finally {
+			db.close();
+		}
+	}
+
+	private void assertOneRegion(Path file, Charset charset) throws IOException {
+		try (MappedCsvFile mapped = new MappedCsvFile(file.toString(), charset)) {
+			List<MappedCsvFile.Region> regions = mapped.split(4096);
+			assertEquals(1, regions.size());
+			assertEquals(0, regions.get(0).getStart());
+			assertEquals(Files.size(file), regions.get(0).getEnd());
+		}
+	}
+
+	//A header and rows "n,vn", row special holding the given value instead
+	private static String numbered(int rows, int special, String value) {
+		StringBuilder csv = new StringBuilder("id,a\n");
+		for(int i = 0; i < rows; i++)
+			csv.append(i).append(',').append(i == special ? value : "v" + i).append('\n');
+		return csv.toString();
+	}
+
+	private static List<String> records(CsvTokenizer tokenizer, long firstLine) throws IOException {
+		List<String> records = new ArrayList<String>();
+		try {
+			tokenizer.setLineNumber(firstLine);
+			while(tokenizer.next())
+				records.add(tokenizer.getLineNumber() + ":" + Arrays.toString(tokenizer.getFields()));
+		}
+		finally {
+			tokenizer.close();
+		}
+		return records;
+	}
+
+	private Path write(String name, String text, Charset charset) throws IOException {
+		return Files.write(dir.resolve(name), text.getBytes(charset));
+	}
+}
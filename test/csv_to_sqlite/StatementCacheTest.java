@@ -0,0 +1,67 @@
+package csv_to_sqlite;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StatementCacheTest {
+
+	@TempDir
+	Path dir;
+
+	//The insert statement of a live table stays open however many statements the database prepares after it
+	@Test
+	void liveTablesKeepTheirInsertStatement() throws Exception {
+		Variable[] cols = {new Variable("id", "INTEGER"), new Variable("name", "TEXT")};
+		Database db = new Database(dir.toString() + "/", "tables.db");
+		Table[] tables = new Table[40];
+		try {
+			for(int i = 0; i < tables.length; i++)
+				tables[i] = db.createNewTable("t" + i, cols);
+			for(int i = 0; i < tables.length; i++)
+				tables[i].insert(new String[] {String.valueOf(i), "row " + i});
+			for(Table table : tables)
+				table.close();
+			db.commit();
+		}
+		finally {
+			db.close();
+		}
+		try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dir.resolve("tables.db"));
+				Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT id, name FROM t0 UNION ALL SELECT id, name FROM t39")) {
+			rs.next();
+			assertEquals("0 row 0", rs.getLong(1) + " " + rs.getString(2));
+			rs.next();
+			assertEquals("39 row 39", rs.getLong(1) + " " + rs.getString(2));
+		}
+	}
+
+	//Released statements are closed again once the cache is over its capacity
+	@Test
+	void releasedStatementsAreEvicted() throws Exception {
+		try (Connection conn = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+			StatementCache statements = new StatementCache(conn, 2);
+			PreparedStatement held = statements.acquire("SELECT 1");
+			statements.prepare("SELECT 2");
+			statements.prepare("SELECT 3");
+			statements.prepare("SELECT 4");
+			assertEquals(2, statements.size());
+			assertFalse(held.isClosed());
+			statements.release(held);
+			statements.prepare("SELECT 5");
+			assertTrue(held.isClosed());
+			assertEquals(2, statements.size());
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package csv_to_sqlite;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TableProfileTest {
+
+	@TempDir
+	Path dir;
+
+	//A resumed load has not seen the rows loaded before its checkpoint, so it must not store a profile of the rest
+	@Test
+	void resumedLoadSavesNoProfile() throws Exception {
+		resume(1);
+	}
+
+	@Test
+	void pipelinedResumedLoadSavesNoProfile() throws Exception {
+		resume(4);
+	}
+
+	//Loads the first 600 of 1000 rows as an interrupted load would have, with their profile, then resumes
+	private void resume(int threads) throws Exception {
+		Path full = write("full.csv", rows(1000));
+		String prefix = rows(600);
+		Path loaded = write("prefix.csv", prefix);
+		Database db = new Database(dir.toString() + "/", "profile.db");
+		try {
+			CsvToSQLite.load(db, "t", loaded.toString(), options(threads), false, false);
+			db.commit();
+			assertEquals("600 0 599", profile(dir.resolve("profile.db")));
+			db.saveProgress(new IngestProgress("t", "t", full.toString(), prefix.length(), 602, 600, 600, 0, 0, 0));
+			db.commit();
+			LoadStats stats = CsvToSQLite.load(db, "t", full.toString(), options(threads).setResume(true), false, false);
+			assertEquals(1000, stats.good);
+		}
+		finally {
+			db.close();
+		}
+		assertEquals("", profile(dir.resolve("profile.db")));
+	}
+
+	private static ConvertOptions options(int threads) {
+		return new ConvertOptions().setProgressInterval(0).setColumnTypes(new String[] {"INTEGER", "TEXT"}).setProfile(true)
+				.setParseThreads(threads).setChunkSize(4096).setBatchSize(50).setCommitInterval(2);
+	}
+
+	//A header and the rows "i,name i" for i below n
+	private static String rows(int n) {
+		StringBuilder csv = new StringBuilder("id,name\n");
+		for(int i = 0; i < n; i++)
+			csv.append(i).append(",name ").append(i).append('\n');
+		return csv.toString();
+	}
+
+	private Path write(String name, String text) throws IOException {
+		return Files.write(dir.resolve(name), text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	//value_count, min_value and max_value of the id column, empty if the table has no profile
+	private static String profile(Path db) throws SQLException {
+		try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db);
+				Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT value_count, min_value, max_value FROM " + TableProfile.TABLE
+						+ " WHERE table_name = 't' AND column_name = 'id'")) {
+			return rs.next() ? rs.getLong(1) + " " + rs.getLong(2) + " " + rs.getLong(3) : "";
+		}
+	}
+}
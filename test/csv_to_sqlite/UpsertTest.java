@@ -0,0 +1,61 @@
+package csv_to_sqlite;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UpsertTest {
+
+	private static final String[] TYPES = {"INTEGER", "TEXT", "REAL"};
+
+	@TempDir
+	Path dir;
+
+	//A load with a PRIMARY_KEY column only builds the unique index people_pk, which a later upsert finds on its own
+	@Test
+	void upsertFindsTheKeyIndexOfAnEarlierLoad() throws Exception {
+		Path base = write("base.csv", "id,name,amount\n1,ann,1.5\n2,bob,2.5\n3,cid,3.5\n");
+		Path delta = write("delta.csv", "id,name,amount\n2,bea,20.5\n4,dan,4.5\n");
+		Database db = new Database(dir.toString() + "/", "people.db");
+		try {
+			CsvToSQLite.load(db, "people", base.toString(), new ConvertOptions().setProgressInterval(0)
+					.setColumnTypes(TYPES).setIndex("id", Variable.Index.PRIMARY_KEY), false, false);
+			assertArrayEquals(new String[0], db.getDeclaredPrimaryKey("people"));
+			assertArrayEquals(new String[] {"id"}, db.getPrimaryKey("people"));
+
+			CsvToSQLite.load(db, "people", delta.toString(), new ConvertOptions().setProgressInterval(0)
+					.setColumnTypes(TYPES).setUpsert(true), true, false);
+		}
+		finally {
+			db.close();
+		}
+		assertEquals("1 ann 1.5|2 bea 20.5|3 cid 3.5|4 dan 4.5|", rows(dir.resolve("people.db")));
+	}
+
+	private Path write(String name, String text) throws IOException {
+		return Files.write(dir.resolve(name), text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String rows(Path db) throws SQLException {
+		StringBuilder rows = new StringBuilder();
+		try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db);
+				Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT id, name, amount FROM people ORDER BY id")) {
+			while(rs.next())
+				rows.append(rs.getLong(1)).append(' ').append(rs.getString(2)).append(' ').append(rs.getDouble(3)).append('|');
+		}
+		return rows.toString();
+	}
+}